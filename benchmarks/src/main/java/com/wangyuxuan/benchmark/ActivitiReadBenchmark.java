@@ -0,0 +1,58 @@
+package com.wangyuxuan.benchmark;
+
+import org.activiti.engine.history.HistoricTaskInstance;
+import org.activiti.engine.task.Task;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 16:50
+ * @Description: 待办 参与人 历史查询的基准测试 数据见 {@link SeededEngine}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ActivitiReadBenchmark {
+
+    @Benchmark
+    public List<Task> getUserHaveTasks(SeededEngine engine) {
+        return engine.activitiUtils.getUserHaveTasks(SeededEngine.USER);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getUserIdsMap(SeededEngine engine) {
+        return engine.activitiUtils.getUserIdsMap(engine.userInstanceIds);
+    }
+
+    @Benchmark
+    public List<HistoricTaskInstance> getHistoryAssigneeActivitiIds(SeededEngine engine) {
+        return engine.activitiUtils.getHistoryAssigneeActivitiIds(SeededEngine.USER);
+    }
+
+    @Benchmark
+    public List<String> getHistoryAssigneeActivitiIdsString(SeededEngine engine) {
+        return engine.activitiUtils.getHistoryAssigneeActivitiIdsString(SeededEngine.USER);
+    }
+
+    @Benchmark
+    public List<String> getHistoryGroupActivitiIdsString(SeededEngine engine) {
+        return engine.activitiUtils.getHistoryGroupActivitiIdsString(SeededEngine.USER);
+    }
+
+    @Benchmark
+    public List<String> getHistoryUserActivitiIdsString(SeededEngine engine) {
+        return engine.activitiUtils.getHistoryUserActivitiIdsString(SeededEngine.USER);
+    }
+}
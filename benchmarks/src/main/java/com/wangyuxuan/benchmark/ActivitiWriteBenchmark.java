@@ -0,0 +1,50 @@
+package com.wangyuxuan.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 17:05
+ * @Description: 启动工作流 完成任务的基准测试 数据见 {@link SeededEngine}, 测量过程中数据会不断增加
+ * 完成任务时每次调用前先启动一个工作流(不计时), 单次调用在毫秒级 Level.Invocation 的开销可以忽略
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=benchmark-log4j.properties")
+public class ActivitiWriteBenchmark {
+
+    @Benchmark
+    public String startActivit(SeededEngine engine) {
+        return engine.activitiUtils.startActivit(engine.processDefinitionId, engine.variables());
+    }
+
+    @Benchmark
+    public void completeTask(SeededEngine engine, OpenTask openTask) {
+        engine.activitiUtils.completeTask(openTask.taskId);
+    }
+
+    @State(Scope.Thread)
+    public static class OpenTask {
+
+        private String taskId;
+
+        @Setup(Level.Invocation)
+        public void setUp(SeededEngine engine) {
+            taskId = engine.firstTask(engine.start()).getId();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.wangyuxuan.benchmark;
+
+import com.wangyuxuan.util.ActivitiUtils;
+import org.activiti.engine.task.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 10:30
+ * @Description: 请假流程(学生 -> 班主任)的多线程压测 使用 {@link SeededEngine} 启动的内存数据库引擎
+ * 学生线程: 启动工作流 -> 查询自己的任务 -> 完成; 班主任线程: 查询候选组待办第一页 -> 随机签收一个 -> 完成
+ * 使用压测专用的 bench/leaveClaim.bpmn, 班主任审批的候选组为 teacher, 每个班主任线程是组里的不同用户(teacher-0 teacher-1 ...)
+ * 多个线程抢同一个任务时后签收的失败(任务已被签收), 由此测量签收冲突
+ * 每个线程按 rate/线程数 的速率执行, 延迟从计划开始时间算起; 参数用系统属性传入:
+ * -Dlog4j.configuration=benchmark-log4j.properties -Dload.students=4 -Dload.teachers=2 -Dload.studentRate=20 -Dload.teacherRate=20 -Dload.warmupSeconds=5 -Dload.durationSeconds=30
+ * rate 为每秒完整流程次数(所有线程合计) 0 表示不限速
+ */
+public class LeaveLoadGenerator {
+
+    private static final String STUDENT = "student";
+    private static final String TEACHER_GROUP = "teacher";
+    private static final String PROCESS_RESOURCE = "bench/leaveClaim.bpmn";
+    private static final int TEACHER_PAGE_SIZE = 10;
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaveLoadGenerator.class);
+
+    private final Map<String, OperationStats> stats = new LinkedHashMap<String, OperationStats>();
+    private final SeededEngine engine;
+    private final ActivitiUtils activitiUtils;
+    private final String processDefinitionId;
+    private volatile boolean stopped;
+
+    public LeaveLoadGenerator(SeededEngine engine) {
+        this.engine = engine;
+        this.activitiUtils = engine.activitiUtils;
+        String deploymentId = engine.repositoryService.createDeployment().name(PROCESS_RESOURCE)
+                .addClasspathResource(PROCESS_RESOURCE).deploy().getId();
+        this.processDefinitionId = engine.repositoryService.createProcessDefinitionQuery()
+                .deploymentId(deploymentId).singleResult().getId();
+        for (String name : new String[]{"student.start", "student.query", "student.complete",
+                "teacher.query", "teacher.claim", "teacher.complete"}) {
+            stats.put(name, new OperationStats(name));
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int students = Integer.getInteger("load.students", 4);
+        int teachers = Integer.getInteger("load.teachers", 2);
+        int studentRate = Integer.getInteger("load.studentRate", 20);
+        int teacherRate = Integer.getInteger("load.teacherRate", 20);
+        int warmupSeconds = Integer.getInteger("load.warmupSeconds", 5);
+        int durationSeconds = Integer.getInteger("load.durationSeconds", 30);
+
+        SeededEngine engine = new SeededEngine();
+        engine.tasksPerUser = 0;
+        engine.candidatesPerTask = 1;
+        engine.historyDepth = 0;
+        engine.setUp();
+        try {
+            new LeaveLoadGenerator(engine).run(students, teachers, studentRate, teacherRate, warmupSeconds,
+                    durationSeconds);
+        } finally {
+            engine.tearDown();
+        }
+    }
+
+    /**
+     * 执行压测并输出报告
+     */
+    public void run(int students, int teachers, int studentRate, int teacherRate, int warmupSeconds,
+                    int durationSeconds) throws InterruptedException {
+        System.out.println(String.format("students=%d teachers=%d studentRate=%d/s teacherRate=%d/s warmup=%ds duration=%ds",
+                students, teachers, studentRate, teacherRate, warmupSeconds, durationSeconds));
+        final CountDownLatch done = new CountDownLatch(students + teachers);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < students; i++) {
+            threads.add(worker("student-" + i, intervalNanos(studentRate, students), done, new Step() {
+                @Override
+                public void run(long startNanos, Random random) {
+                    student(startNanos);
+                }
+            }));
+        }
+        for (int i = 0; i < teachers; i++) {
+            final String teacherId = "teacher-" + i;
+            threads.add(worker(teacherId, intervalNanos(teacherRate, teachers), done, new Step() {
+                @Override
+                public void run(long startNanos, Random random) {
+                    teacher(teacherId, startNanos, random);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        for (OperationStats operation : stats.values()) {
+            operation.reset();
+        }
+        long measureStart = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        stopped = true;
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        done.await(1, TimeUnit.MINUTES);
+        System.out.println(OperationStats.header());
+        for (OperationStats operation : stats.values()) {
+            System.out.println(operation.report(seconds));
+        }
+        for (OperationStats operation : stats.values()) {
+            if (operation.getLastError() != null) {
+                System.out.println(operation.getName() + " last error: " + operation.getLastError());
+            }
+        }
+    }
+
+    /**
+     * 学生: 启动 -> 查询 -> 完成
+     */
+    private void student(long startNanos) {
+        String instanceId;
+        try {
+            instanceId = activitiUtils.startActivit(processDefinitionId, engine.variables());
+            stats.get("student.start").success(startNanos);
+        } catch (RuntimeException e) {
+            stats.get("student.start").failure(e);
+            return;
+        }
+        long queryStart = System.nanoTime();
+        List<String> taskIds;
+        try {
+            taskIds = activitiUtils.getInstanceAssigneeTaskIds(instanceId, STUDENT);
+            stats.get("student.query").success(queryStart);
+        } catch (RuntimeException e) {
+            stats.get("student.query").failure(e);
+            return;
+        }
+        for (String taskId : taskIds) {
+            long completeStart = System.nanoTime();
+            try {
+                activitiUtils.completeTask(taskId);
+                stats.get("student.complete").success(completeStart);
+            } catch (RuntimeException e) {
+                stats.get("student.complete").failure(e);
+            }
+        }
+    }
+
+    /**
+     * 班主任: 查询候选组第一页未签收的待办 -> 随机签收一个 -> 完成
+     */
+    private void teacher(String teacherId, long startNanos, Random random) {
+        List<Task> tasks;
+        try {
+            tasks = activitiUtils.getUserHaveTasksGroup(TEACHER_GROUP, 1, TEACHER_PAGE_SIZE);
+            stats.get("teacher.query").success(startNanos);
+        } catch (RuntimeException e) {
+            stats.get("teacher.query").failure(e);
+            return;
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
+        String taskId = tasks.get(random.nextInt(tasks.size())).getId();
+        long claimStart = System.nanoTime();
+        try {
+            activitiUtils.claimTask(taskId, teacherId);
+            stats.get("teacher.claim").success(claimStart);
+        } catch (RuntimeException e) {
+            stats.get("teacher.claim").failure(e);
+            return;
+        }
+        long completeStart = System.nanoTime();
+        try {
+            activitiUtils.completeTask(taskId);
+            stats.get("teacher.complete").success(completeStart);
+        } catch (RuntimeException e) {
+            stats.get("teacher.complete").failure(e);
+        }
+    }
+
+    private Thread worker(String name, final long intervalNanos, final CountDownLatch done, final Step step) {
+        final Random random = new Random(name.hashCode());
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long next = System.nanoTime();
+                    while (!stopped) {
+                        long now = System.nanoTime();
+                        if (intervalNanos > 0 && now < next) {
+                            LockSupport.parkNanos(next - now);
+                            continue;
+                        }
+                        long startNanos = intervalNanos > 0 ? next : now;
+                        try {
+                            step.run(startNanos, random);
+                        } catch (RuntimeException e) {
+                            logger.warn("【压测线程异常】", e);
+                        }
+                        next += intervalNanos;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * 每个线程两次执行之间的间隔
+     */
+    private static long intervalNanos(int rate, int threads) {
+        return rate <= 0 || threads <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) * threads / rate;
+    }
+
+    private interface Step {
+
+        void run(long startNanos, Random random);
+    }
+}
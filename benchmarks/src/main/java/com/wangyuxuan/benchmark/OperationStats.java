@@ -0,0 +1,98 @@
+package com.wangyuxuan.benchmark;
+
+import org.activiti.engine.ActivitiObjectNotFoundException;
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.ActivitiTaskAlreadyClaimedException;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 10:10
+ * @Description: 压测中一种操作的统计 延迟(纳秒)记录在 HdrHistogram 中, 失败按乐观锁 任务已被处理 其他错误分别计数
+ */
+public class OperationStats {
+
+    private static final long MAX_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String name;
+    private final Histogram latency = new ConcurrentHistogram(MAX_NANOS, 3);
+    private final AtomicLong optimisticLockFailures = new AtomicLong();
+    /**
+     * 任务已被别人签收或完成
+     */
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile String lastError;
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次成功
+     *
+     * @param startNanos 计划开始时间 按计划时间计算避免协调遗漏
+     */
+    public void success(long startNanos) {
+        latency.recordValue(Math.min(System.nanoTime() - startNanos, MAX_NANOS));
+    }
+
+    /**
+     * 记录一次失败
+     */
+    public void failure(RuntimeException e) {
+        if (e instanceof ActivitiOptimisticLockingException) {
+            optimisticLockFailures.incrementAndGet();
+        } else if (e instanceof ActivitiObjectNotFoundException || e instanceof ActivitiTaskAlreadyClaimedException) {
+            conflicts.incrementAndGet();
+        } else {
+            errors.incrementAndGet();
+            lastError = e.toString();
+        }
+    }
+
+    /**
+     * 清空统计 预热结束时调用
+     */
+    public void reset() {
+        latency.reset();
+        optimisticLockFailures.set(0);
+        conflicts.set(0);
+        errors.set(0);
+        lastError = null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * 一行报告
+     *
+     * @param seconds 统计时长
+     */
+    public String report(double seconds) {
+        long count = latency.getTotalCount();
+        return String.format("%-16s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %8d %8d %8d", name, count,
+                count / seconds, millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMaxValue()), optimisticLockFailures.get(), conflicts.get(), errors.get());
+    }
+
+    public static String header() {
+        return String.format("%-16s %8s %9s %9s %9s %9s %9s %9s %8s %8s %8s", "operation", "count", "ops/s",
+                "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "optLock", "conflict", "error");
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
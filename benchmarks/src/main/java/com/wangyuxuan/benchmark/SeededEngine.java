@@ -0,0 +1,117 @@
+package com.wangyuxuan.benchmark;
+
+import com.wangyuxuan.util.ActivitiUtils;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 16:30
+ * @Description: 每次试验启动一个使用内存数据库的引擎并按参数准备数据
+ * 待办: 2*tasksPerUser 个未签收的请假任务 其中一半以 {@link #USER} 为候选组(每4个中有1个直接签收给他), 另一半只有其他候选组
+ * 每个任务 candidatesPerTask 个候选组; 历史: historyDepth 个已结束的工作流, {@link #USER} 是第一个任务的签收人和候选组
+ */
+@State(Scope.Benchmark)
+public class SeededEngine {
+
+    public static final String USER = "bench-user";
+    public static final String PROCESS_KEY = "leave";
+
+    @Param({"10", "100"})
+    public int tasksPerUser;
+    @Param({"1", "5"})
+    public int candidatesPerTask;
+    @Param({"10", "200"})
+    public int historyDepth;
+
+    public ActivitiUtils activitiUtils;
+    public TaskService taskService;
+    public RepositoryService repositoryService;
+    public String processDefinitionId;
+    /**
+     * 用户参与的进行中的工作流
+     */
+    public List<String> userInstanceIds = new ArrayList<String>();
+
+    private ClassPathXmlApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("embedded.db", "benchmark" + System.nanoTime());
+        context = new ClassPathXmlApplicationContext(new String[]{"classpath:benchmark-context.xml"}, false);
+        context.getEnvironment().setActiveProfiles("embedded");
+        context.refresh();
+        activitiUtils = context.getBean(ActivitiUtils.class);
+        taskService = context.getBean(TaskService.class);
+        repositoryService = context.getBean(RepositoryService.class);
+        processDefinitionId = activitiUtils.getLatestProcessDefinition(PROCESS_KEY).getId();
+        for (int i = 0; i < tasksPerUser * 2; i++) {
+            boolean mine = i % 2 == 0;
+            String instanceId = start();
+            Task task = firstTask(instanceId);
+            taskService.setAssignee(task.getId(), mine && i % 8 == 0 ? USER : null);
+            activitiUtils.addCandidateGroups(task.getId(), candidates(i, mine));
+            if (mine) {
+                userInstanceIds.add(instanceId);
+            }
+        }
+        for (int i = 0; i < historyDepth; i++) {
+            String instanceId = start();
+            Task task = firstTask(instanceId);
+            taskService.setAssignee(task.getId(), USER);
+            activitiUtils.addCandidateGroups(task.getId(), candidates(i, true));
+            activitiUtils.completeTask(task.getId());
+            activitiUtils.completeTask(firstTask(instanceId).getId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * 启动一个请假工作流
+     *
+     * @return 工作流id
+     */
+    public String start() {
+        return activitiUtils.startActivit(processDefinitionId, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * 工作流的当前任务 请假流程同时只有一个
+     */
+    public Task firstTask(String instanceId) {
+        return taskService.createTaskQuery().processInstanceId(instanceId).singleResult();
+    }
+
+    private List<String> candidates(int index, boolean mine) {
+        List<String> groups = new ArrayList<String>(candidatesPerTask);
+        if (mine) {
+            groups.add(USER);
+        }
+        for (int i = groups.size(); i < candidatesPerTask; i++) {
+            groups.add("bench-group-" + (index + i) % 50);
+        }
+        return groups;
+    }
+
+    public Map<String, Object> variables() {
+        return new HashMap<String, Object>();
+    }
+}
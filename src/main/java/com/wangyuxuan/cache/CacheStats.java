@@ -0,0 +1,84 @@
+package com.wangyuxuan.cache;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/11 14:05
+ * @Description: 缓存统计快照
+ */
+public class CacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long hitCount;
+    private final long missCount;
+    /**
+     * 超过容量被淘汰的条数
+     */
+    private final long evictionCount;
+    /**
+     * 被事件主动失效的条数
+     */
+    private final long invalidationCount;
+    private final int size;
+    /**
+     * 估算占用的字节数
+     */
+    private final long weight;
+    private final long maxWeight;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long invalidationCount,
+                      int size, long weight, long maxWeight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * 命中率 没有请求时为0
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount + ", evictionCount=" + evictionCount
+                + ", invalidationCount=" + invalidationCount + ", size=" + size + ", weight=" + weight
+                + ", maxWeight=" + maxWeight + "}";
+    }
+}
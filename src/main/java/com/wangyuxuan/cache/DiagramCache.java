@@ -0,0 +1,77 @@
+package com.wangyuxuan.cache;
+
+import com.wangyuxuan.entity.ProcessDiagram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 10:25
+ * @Description: 流程图缓存 流程定义id+高亮节点 -> 渲染好的流程图
+ * 流程定义部署后不会修改, 缓存不需要失效; 按图片字节数限制容量 超出时淘汰最久未使用的
+ */
+@Component("diagramCache")
+public class DiagramCache {
+
+    /**
+     * 每条缓存的固定开销估算 含两份响应头
+     */
+    private static final int ENTRY_OVERHEAD = 600;
+
+    private final LinkedHashMap<String, ProcessDiagram> entries = new LinkedHashMap<String, ProcessDiagram>(64, 0.75f, true);
+
+    /**
+     * 最大估算字节数
+     */
+    @Value("${cache.diagram.maxBytes:16777216}")
+    private long maxWeight;
+
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param key 见 {@link com.wangyuxuan.util.ProcessDiagramService}
+     * @return 不存在时返回null
+     */
+    public synchronized ProcessDiagram get(String key) {
+        ProcessDiagram diagram = entries.get(key);
+        if (diagram != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return diagram;
+    }
+
+    public synchronized void put(String key, ProcessDiagram diagram) {
+        ProcessDiagram old = entries.put(key, diagram);
+        if (old != null) {
+            weight -= weight(key, old);
+        }
+        weight += weight(key, diagram);
+        Iterator<Map.Entry<String, ProcessDiagram>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<String, ProcessDiagram> eldest = iterator.next();
+            weight -= weight(eldest.getKey(), eldest.getValue());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * 统计快照
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, 0, entries.size(), weight, maxWeight);
+    }
+
+    private static long weight(String key, ProcessDiagram diagram) {
+        return ENTRY_OVERHEAD + 2L * key.length() + diagram.getContent().length;
+    }
+}
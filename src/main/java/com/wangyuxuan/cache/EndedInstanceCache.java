@@ -0,0 +1,90 @@
+package com.wangyuxuan.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/18 15:10
+ * @Description: 已结束工作流id缓存 结束是终态, 缓存后不需要失效
+ * 只放入历史表确认已结束的工作流, 按估算的字节数限制容量 超出时淘汰最久未使用的
+ */
+@Component("endedInstanceCache")
+public class EndedInstanceCache {
+
+    /**
+     * 每条缓存的固定开销估算
+     */
+    private static final int ENTRY_OVERHEAD = 80;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+
+    /**
+     * 最大估算字节数
+     */
+    @Value("${cache.endedInstance.maxBytes:4194304}")
+    private long maxWeight;
+
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * 筛选出缓存中已结束的工作流
+     *
+     * @param instanceIds 工作流id集合
+     * @return 已结束的工作流id 其余需要查库
+     */
+    public synchronized Set<String> getEnded(Collection<String> instanceIds) {
+        Set<String> ended = new LinkedHashSet<String>();
+        for (String instanceId : instanceIds) {
+            if (entries.get(instanceId) != null) {
+                hitCount++;
+                ended.add(instanceId);
+            } else {
+                missCount++;
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * 放入已结束的工作流
+     *
+     * @param instanceIds 历史表确认已结束的工作流id
+     */
+    public synchronized void putAll(Collection<String> instanceIds) {
+        for (String instanceId : instanceIds) {
+            long size = ENTRY_OVERHEAD + 2L * instanceId.length();
+            Long old = entries.put(instanceId, size);
+            if (old != null) {
+                weight -= old;
+            }
+            weight += size;
+        }
+        evict();
+    }
+
+    /**
+     * 统计快照
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, 0, entries.size(), weight, maxWeight);
+    }
+
+    private void evict() {
+        Iterator<Long> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.wangyuxuan.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 10:10
+ * @Description: 待办和工作流状态的版本号 由 {@link com.wangyuxuan.listener.InboxVersionListener} 在事务提交后更新
+ * 每次变化从全局序列取一个新值作为用户(组)或工作流的版本号, 版本号不变说明待办没有变化 不用再查库
+ * 不知道旧参与人的任务发生变化时(例如重启前创建的任务)升级全局 epoch, 所有版本号一起失效
+ * 版本号只在本节点内维护, 另外再按 inbox.maxStaleSeconds 划分时间段, 多节点时最多延迟这么久
+ */
+@Component("inboxVersionTracker")
+public class InboxVersionTracker {
+
+    private static final String INSTANCE_PREFIX = "pi:";
+
+    /**
+     * 版本号和任务参与人最多记录的条数
+     */
+    private static final int MAX_ENTRIES = 100000;
+
+    @Value("${inbox.maxStaleSeconds:60}")
+    private int maxStaleSeconds;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long epoch;
+
+    /**
+     * key:用户id 组id 或 pi:工作流id,value:版本号
+     */
+    private final LinkedHashMap<String, Long> versions = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+    /**
+     * 被淘汰的版本号中的最大值 没有记录的key都返回它
+     */
+    private long versionFloor;
+    /**
+     * key:任务id,value:该任务出现过的参与人
+     */
+    private final LinkedHashMap<String, Set<String>> taskPrincipals = new LinkedHashMap<String, Set<String>>(1024, 0.75f, true);
+    /**
+     * key:用户id,value:用户所在的组 按时间段缓存
+     */
+    private final Map<String, GroupEntry> userGroups = new LinkedHashMap<String, GroupEntry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GroupEntry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * 任务发生变化
+     *
+     * @param taskId            任务id
+     * @param processInstanceId 工作流id
+     * @param principals        当前的签收人 拥有人
+     * @param created           是否新建的任务
+     * @param ended             任务是否已完成或删除
+     */
+    public synchronized void taskChanged(String taskId, String processInstanceId, Collection<String> principals,
+                                         boolean created, boolean ended) {
+        Set<String> known = taskPrincipals.get(taskId);
+        if (known == null && !created) {
+            //不知道该任务的候选人
+            bumpEpoch();
+        }
+        Set<String> all = new HashSet<String>(principals);
+        if (known != null) {
+            all.addAll(known);
+        }
+        long version = sequence.incrementAndGet();
+        for (String principal : all) {
+            putVersion(principal, version);
+        }
+        if (processInstanceId != null) {
+            putVersion(INSTANCE_PREFIX + processInstanceId, version);
+        }
+        if (ended) {
+            taskPrincipals.remove(taskId);
+        } else {
+            putTaskPrincipals(taskId, all);
+        }
+    }
+
+    /**
+     * 任务的候选人(组)发生变化
+     *
+     * @param taskId     任务id
+     * @param principals 变化的用户或组
+     */
+    public synchronized void candidatesChanged(String taskId, Collection<String> principals) {
+        long version = sequence.incrementAndGet();
+        for (String principal : principals) {
+            putVersion(principal, version);
+        }
+        Set<String> known = taskPrincipals.get(taskId);
+        Set<String> all = new HashSet<String>(principals);
+        if (known != null) {
+            all.addAll(known);
+        }
+        putTaskPrincipals(taskId, all);
+    }
+
+    /**
+     * 工作流发生变化 结束 取消等
+     *
+     * @param processInstanceId 工作流id
+     */
+    public synchronized void instanceChanged(String processInstanceId) {
+        putVersion(INSTANCE_PREFIX + processInstanceId, sequence.incrementAndGet());
+    }
+
+    /**
+     * 用户待办的版本号
+     *
+     * @param userId   用户
+     * @param groupIds 用户所在的组
+     * @return 版本号字符串 待办有变化时一定不同
+     */
+    public synchronized String getUserVersion(String userId, List<String> groupIds) {
+        long max = getVersion(userId);
+        for (String groupId : groupIds) {
+            max = Math.max(max, getVersion(groupId));
+        }
+        return stamp(max) + "-" + Integer.toHexString(groupIds.hashCode());
+    }
+
+    /**
+     * 工作流状态的版本号
+     *
+     * @param processInstanceId 工作流id
+     * @return 版本号字符串 状态有变化时一定不同
+     */
+    public synchronized String getInstanceVersion(String processInstanceId) {
+        return stamp(getVersion(INSTANCE_PREFIX + processInstanceId));
+    }
+
+    /**
+     * 获取缓存的用户所在组
+     *
+     * @param userId 用户
+     * @return 不在当前时间段内时返回null
+     */
+    public synchronized List<String> getCachedGroups(String userId) {
+        GroupEntry entry = userGroups.get(userId);
+        if (entry == null || entry.bucket != timeBucket()) {
+            return null;
+        }
+        return entry.groupIds;
+    }
+
+    /**
+     * 缓存用户所在组 当前时间段内有效
+     */
+    public synchronized void cacheGroups(String userId, List<String> groupIds) {
+        userGroups.put(userId, new GroupEntry(Collections.unmodifiableList(groupIds), timeBucket()));
+    }
+
+    /**
+     * 升级全局 epoch 所有版本号失效
+     */
+    public synchronized void bumpEpoch() {
+        epoch = sequence.incrementAndGet();
+    }
+
+    private String stamp(long version) {
+        return Long.toHexString(epoch) + "-" + Long.toHexString(timeBucket()) + "-" + Long.toHexString(version);
+    }
+
+    private long timeBucket() {
+        return maxStaleSeconds <= 0 ? 0 : System.currentTimeMillis() / (maxStaleSeconds * 1000L);
+    }
+
+    private long getVersion(String key) {
+        Long version = versions.get(key);
+        return version == null ? versionFloor : version;
+    }
+
+    private void putVersion(String key, long version) {
+        versions.put(key, version);
+        if (versions.size() > MAX_ENTRIES) {
+            Map.Entry<String, Long> eldest = versions.entrySet().iterator().next();
+            versionFloor = Math.max(versionFloor, eldest.getValue());
+            versions.remove(eldest.getKey());
+        }
+    }
+
+    private void putTaskPrincipals(String taskId, Set<String> principals) {
+        taskPrincipals.put(taskId, principals);
+        if (taskPrincipals.size() > MAX_ENTRIES) {
+            taskPrincipals.remove(taskPrincipals.keySet().iterator().next());
+        }
+    }
+
+    private static class GroupEntry {
+
+        private final List<String> groupIds;
+        private final long bucket;
+
+        private GroupEntry(List<String> groupIds, long bucket) {
+            this.groupIds = groupIds;
+            this.bucket = bucket;
+        }
+    }
+}
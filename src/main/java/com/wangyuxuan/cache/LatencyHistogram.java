@@ -0,0 +1,94 @@
+package com.wangyuxuan.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 15:10
+ * @Description: 耗时直方图 按微秒的2的幂分桶, 不加锁 可多线程同时记录
+ * 分位数取所在桶的上界 误差在2倍以内, 用于看耗时分布 不用于精确计算
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 第i个桶为 [2^(i-1), 2^i) 微秒, 最后一个桶约37小时以上
+     */
+    private static final int BUCKETS = 48;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getAvgMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n / 1000;
+    }
+
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    public long getP50Micros() {
+        return percentile(0.5);
+    }
+
+    public long getP90Micros() {
+        return percentile(0.9);
+    }
+
+    public long getP99Micros() {
+        return percentile(0.99);
+    }
+
+    /**
+     * @param quantile 0到1
+     * @return 所在桶的上界(微秒) 不超过最大耗时
+     */
+    public long percentile(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", avgMicros=" + getAvgMicros() + ", p50Micros="
+                + getP50Micros() + ", p99Micros=" + getP99Micros() + ", maxMicros=" + getMaxMicros() + "}";
+    }
+}
@@ -0,0 +1,60 @@
+package com.wangyuxuan.cache;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/12 10:30
+ * @Description: 简单的耗时统计 次数 总耗时 最大耗时 单位纳秒
+ */
+public class LatencyStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    /**
+     * 复制一份快照
+     */
+    public synchronized LatencyStats snapshot() {
+        LatencyStats copy = new LatencyStats();
+        copy.count = count;
+        copy.totalNanos = totalNanos;
+        copy.maxNanos = maxNanos;
+        return copy;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * 平均耗时 纳秒
+     */
+    public synchronized long getAvgNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LatencyStats{count=" + count + ", avgNanos=" + getAvgNanos() + ", maxNanos=" + maxNanos + "}";
+    }
+}
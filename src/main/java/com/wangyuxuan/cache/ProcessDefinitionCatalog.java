@@ -0,0 +1,415 @@
+package com.wangyuxuan.cache;
+
+import com.wangyuxuan.entity.ProcessDefinitionInfo;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/12 10:48
+ * @Description: 流程定义目录缓存 按 id key(最新版本) category 建索引
+ * 首次使用时全量加载, 之后由 {@link com.wangyuxuan.listener.ProcessDefinitionCatalogListener} 按部署事件增量更新
+ * 其他节点的部署不会通知本节点, 全量加载超过 cache.processDefinition.ttlSeconds 秒后重新加载
+ * 按估算的字节数限制容量, 超出时淘汰最久未使用的定义, 被淘汰过的 category 查询会回退到数据库
+ * key 的最新版本只来自全量加载 按最新版本的查询和新部署, 其他查询放入的旧版本不会成为最新版本
+ * 查库结果带上查询前取得的代数放入, 期间有部署事件(代数变化)时丢弃, 避免旧结果覆盖事件的更新
+ * spring-activiti.xml 中的 processDefinitionCacheLimit 缓存的是解析后的流程模型, 与这里互不影响
+ */
+@Component("processDefinitionCatalog")
+public class ProcessDefinitionCatalog {
+
+    /**
+     * 全部类型的统计key
+     */
+    public static final String ALL_CATEGORY = "*";
+
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /**
+     * 流程定义排序 key 升序 version 升序
+     */
+    private static final Comparator<ProcessDefinition> DEFINITION_ORDER = new Comparator<ProcessDefinition>() {
+        @Override
+        public int compare(ProcessDefinition o1, ProcessDefinition o2) {
+            int result = StringUtils.defaultString(o1.getKey()).compareTo(StringUtils.defaultString(o2.getKey()));
+            return result != 0 ? result : o1.getVersion() - o2.getVersion();
+        }
+    };
+
+    /**
+     * 最大估算字节数
+     */
+    @Value("${cache.processDefinition.maxBytes:4194304}")
+    private long maxWeight;
+    /**
+     * 全量加载的有效秒数 0为一直有效(单节点)
+     */
+    @Value("${cache.processDefinition.ttlSeconds:300}")
+    private long ttlSeconds;
+
+    private final Map<String, Entry> byId = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private final Map<String, ProcessDefinitionInfo> latestByKey = new HashMap<String, ProcessDefinitionInfo>();
+    private final Map<String, Set<String>> idsByCategory = new HashMap<String, Set<String>>();
+    /**
+     * 有定义被淘汰的类型 这些类型需要查数据库
+     */
+    private final Set<String> incompleteCategories = new HashSet<String>();
+    private final ConcurrentMap<String, LatencyStats> categoryLatency = new ConcurrentHashMap<String, LatencyStats>();
+
+    /**
+     * 是否已全量加载
+     */
+    private boolean loaded;
+    private long loadedAt;
+    /**
+     * 代数 每次增量更新或清空时加一
+     */
+    private long generation;
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    /**
+     * 是否已全量加载且未过期
+     */
+    public synchronized boolean isLoaded() {
+        return loaded && (ttlSeconds <= 0 || System.currentTimeMillis() - loadedAt < ttlSeconds * 1000);
+    }
+
+    /**
+     * 当前代数 查库前取得, 放入查询结果时传回
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 全量加载
+     *
+     * @param definitions 当前部署了的全部流程定义
+     * @param generation  查询前的代数
+     * @return 查询期间有部署事件时不加载 返回false
+     */
+    public synchronized boolean load(List<ProcessDefinition> definitions, long generation) {
+        if (generation != this.generation) {
+            return false;
+        }
+        reset();
+        for (ProcessDefinition definition : definitions) {
+            add(definition, true);
+        }
+        loaded = true;
+        loadedAt = System.currentTimeMillis();
+        evict();
+        return true;
+    }
+
+    /**
+     * 重新放入某个类型的全部流程定义 放入后该类型重新视为完整
+     * 同一 key 的其他版本可能不在该类型中, 不更新最新版本
+     *
+     * @param category    类型
+     * @param definitions 该类型的全部流程定义
+     * @param generation  查询前的代数
+     */
+    public synchronized void loadCategory(String category, List<ProcessDefinition> definitions, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        for (ProcessDefinition definition : definitions) {
+            add(definition, false);
+        }
+        incompleteCategories.remove(categoryKey(category));
+        evict();
+    }
+
+    /**
+     * 放入查库得到的流程定义
+     *
+     * @param definition 流程定义
+     * @param latest     是否按最新版本查询得到的
+     * @param generation 查询前的代数
+     */
+    public synchronized void put(ProcessDefinition definition, boolean latest, long generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        add(definition, latest);
+        evict();
+    }
+
+    /**
+     * 部署事件 新增或更新一个流程定义
+     *
+     * @param definition 流程定义
+     * @param latest     是否新部署的版本
+     */
+    public synchronized void put(ProcessDefinition definition, boolean latest) {
+        generation++;
+        add(definition, latest);
+        evict();
+    }
+
+    /**
+     * 删除一个流程定义
+     *
+     * @param id 流程定义id
+     */
+    public synchronized void remove(String id) {
+        generation++;
+        if (removeEntry(id)) {
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * 删除部署下的全部流程定义
+     *
+     * @param deploymentId 部署id
+     */
+    public synchronized void removeDeployment(String deploymentId) {
+        List<String> ids = new ArrayList<String>();
+        for (Entry entry : byId.values()) {
+            if (StringUtils.equals(deploymentId, entry.definition.getDeploymentId())) {
+                ids.add(entry.definition.getId());
+            }
+        }
+        for (String id : ids) {
+            remove(id);
+        }
+    }
+
+    /**
+     * 按id获取
+     *
+     * @param id 流程定义id
+     * @return 没有缓存时返回null
+     */
+    public synchronized ProcessDefinition getById(String id) {
+        Entry entry = byId.get(id);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.definition;
+    }
+
+    /**
+     * 按key获取最新版本
+     *
+     * @param key 流程定义key
+     * @return 没有缓存时返回null
+     */
+    public synchronized ProcessDefinition getLatestByKey(String key) {
+        ProcessDefinitionInfo definition = latestByKey.get(key);
+        if (definition == null) {
+            missCount++;
+            return null;
+        }
+        byId.get(definition.getId());
+        hitCount++;
+        return definition;
+    }
+
+    /**
+     * 按类型获取
+     *
+     * @param category 类型 为空时获取全部
+     * @return 没有加载或该类型不完整时返回null
+     */
+    public synchronized List<ProcessDefinition> getByCategory(String category) {
+        boolean all = StringUtils.isBlank(category);
+        if (!loaded || (all ? !incompleteCategories.isEmpty() : incompleteCategories.contains(category))) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        List<ProcessDefinition> definitions = new ArrayList<ProcessDefinition>();
+        if (all) {
+            for (Entry entry : byId.values()) {
+                definitions.add(entry.definition);
+            }
+        } else {
+            Set<String> ids = idsByCategory.get(category);
+            if (ids != null) {
+                for (String id : ids) {
+                    definitions.add(byId.get(id).definition);
+                }
+            }
+        }
+        Collections.sort(definitions, DEFINITION_ORDER);
+        return definitions;
+    }
+
+    /**
+     * 记录按类型查询的耗时
+     *
+     * @param category 类型 为空时记为全部
+     * @param nanos    耗时 纳秒
+     */
+    public void recordCategoryLatency(String category, long nanos) {
+        String key = StringUtils.isBlank(category) ? ALL_CATEGORY : category;
+        LatencyStats stats = categoryLatency.get(key);
+        if (stats == null) {
+            LatencyStats created = new LatencyStats();
+            stats = categoryLatency.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(nanos);
+    }
+
+    /**
+     * 按类型的查询耗时快照
+     */
+    public Map<String, LatencyStats> getCategoryLatency() {
+        Map<String, LatencyStats> snapshot = new HashMap<String, LatencyStats>();
+        for (Map.Entry<String, LatencyStats> entry : categoryLatency.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 统计快照
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, invalidationCount,
+                byId.size(), weight, maxWeight);
+    }
+
+    /**
+     * 清空 下次使用时重新全量加载
+     */
+    public synchronized void clear() {
+        generation++;
+        reset();
+    }
+
+    public synchronized void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    private void reset() {
+        invalidationCount += byId.size();
+        byId.clear();
+        latestByKey.clear();
+        idsByCategory.clear();
+        incompleteCategories.clear();
+        weight = 0;
+        loaded = false;
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * @param latest 是否可以作为 key 的最新版本, 否则只更新已是最新版本的同一定义
+     */
+    private void add(ProcessDefinition definition, boolean latest) {
+        ProcessDefinitionInfo info = definition instanceof ProcessDefinitionInfo
+                ? (ProcessDefinitionInfo) definition : new ProcessDefinitionInfo(definition);
+        removeEntry(info.getId());
+        Entry entry = new Entry(info, estimate(info));
+        byId.put(info.getId(), entry);
+        weight += entry.weight;
+        String category = categoryKey(info.getCategory());
+        Set<String> ids = idsByCategory.get(category);
+        if (ids == null) {
+            ids = new LinkedHashSet<String>();
+            idsByCategory.put(category, ids);
+        }
+        ids.add(info.getId());
+        ProcessDefinitionInfo current = latestByKey.get(info.getKey());
+        if (latest ? current == null || current.getVersion() <= info.getVersion()
+                : current != null && current.getId().equals(info.getId())) {
+            latestByKey.put(info.getKey(), info);
+        }
+    }
+
+    private boolean removeEntry(String id) {
+        Entry entry = byId.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        weight -= entry.weight;
+        String category = categoryKey(entry.definition.getCategory());
+        Set<String> ids = idsByCategory.get(category);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                idsByCategory.remove(category);
+            }
+        }
+        ProcessDefinitionInfo latest = latestByKey.get(entry.definition.getKey());
+        if (latest != null && latest.getId().equals(id)) {
+            //不确定剩下的是否是最新版本 交给数据库
+            latestByKey.remove(entry.definition.getKey());
+        }
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = byId.values().iterator();
+        List<String> ids = new ArrayList<String>();
+        long remaining = weight;
+        while (remaining > maxWeight && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            remaining -= entry.weight;
+            ids.add(entry.definition.getId());
+        }
+        for (String id : ids) {
+            String category = byId.get(id).definition.getCategory();
+            removeEntry(id);
+            incompleteCategories.add(categoryKey(category));
+            evictionCount++;
+        }
+    }
+
+    private static String categoryKey(String category) {
+        return category == null ? "" : category;
+    }
+
+    private static long estimate(ProcessDefinitionInfo info) {
+        return ENTRY_OVERHEAD + sizeOf(info.getId()) + sizeOf(info.getCategory()) + sizeOf(info.getName())
+                + sizeOf(info.getKey()) + sizeOf(info.getDescription()) + sizeOf(info.getResourceName())
+                + sizeOf(info.getDeploymentId()) + sizeOf(info.getDiagramResourceName()) + sizeOf(info.getTenantId());
+    }
+
+    private static long sizeOf(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private static class Entry {
+
+        private final ProcessDefinitionInfo definition;
+        private final long weight;
+
+        private Entry(ProcessDefinitionInfo definition, long weight) {
+            this.definition = definition;
+            this.weight = weight;
+        }
+    }
+}
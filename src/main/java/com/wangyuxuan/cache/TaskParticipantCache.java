@@ -0,0 +1,245 @@
+package com.wangyuxuan.cache;
+
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.IdentityLinkType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/11 14:20
+ * @Description: 任务参与人缓存 key:taskId,value:该任务的身份关联(含 assignee owner)及其整数形式 {@link TaskParticipants}
+ * 按估算的字节数限制容量, 超出时淘汰最久未使用的任务
+ * 任务签收 完成 删除 身份关联变化时由 {@link com.wangyuxuan.listener.TaskParticipantCacheListener} 失效
+ * 查库前取 {@link #version(String)}, 放入时版本已变(期间被失效)则不缓存, 避免并发的旧结果覆盖失效;
+ * 监听器漏掉的变化(其他节点 直接改库)最多在 cache.taskParticipant.ttlSeconds 秒后过期
+ */
+@Component("taskParticipantCache")
+public class TaskParticipantCache {
+
+    /**
+     * 每条缓存和每个身份关联的固定开销估算
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int LINK_OVERHEAD = 64;
+    /**
+     * 失效版本按任务id散列分段 内存固定, 同段的其他任务失效时只是少缓存一次
+     */
+    private static final int VERSION_STRIPES = 1024;
+
+    protected Logger logger = LoggerFactory.getLogger(TaskParticipantCache.class);
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+    @Autowired
+    private UserIdDictionary userIdDictionary;
+
+    /**
+     * 最大估算字节数
+     */
+    @Value("${cache.taskParticipant.maxBytes:8388608}")
+    private long maxWeight;
+
+    /**
+     * 缓存有效秒数 0为不过期
+     */
+    @Value("${cache.taskParticipant.ttlSeconds:60}")
+    private long ttlSeconds;
+
+    private final long[] versions = new long[VERSION_STRIPES];
+
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+    private long staleRejectCount;
+
+    /**
+     * 获取任务的身份关联
+     *
+     * @param taskId 任务id
+     * @return 没有缓存时返回null
+     */
+    public synchronized List<IdentityLink> get(String taskId) {
+        Entry entry = live(taskId);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.links;
+    }
+
+    /**
+     * 获取任务参与人的整数形式 不计入命中统计
+     *
+     * @param taskId 任务id
+     * @return 没有缓存时返回null
+     */
+    public synchronized TaskParticipants getParticipants(String taskId) {
+        Entry entry = live(taskId);
+        return entry == null ? null : entry.participants;
+    }
+
+    /**
+     * 任务的失效版本 查库前获取, 放入时传回
+     *
+     * @param taskId 任务id
+     * @return 版本
+     */
+    public synchronized long version(String taskId) {
+        return versions[stripe(taskId)];
+    }
+
+    /**
+     * 放入任务的身份关联 查库后任务被失效过时不放入
+     *
+     * @param taskId  任务id
+     * @param links   身份关联
+     * @param version 查库前的 {@link #version(String)}
+     * @return 身份关联的只读集合 未放入时同样返回
+     */
+    public List<IdentityLink> put(String taskId, List<IdentityLink> links, long version) {
+        TaskParticipants participants = TaskParticipants.of(assigneeOf(links), links, userIdDictionary);
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<IdentityLink>(links)), participants,
+                estimate(taskId, links) + participants.weight(), System.currentTimeMillis());
+        synchronized (this) {
+            if (versions[stripe(taskId)] != version) {
+                staleRejectCount++;
+                return entry.links;
+            }
+            Entry old = entries.put(taskId, entry);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entry.weight;
+            evict();
+        }
+        return entry.links;
+    }
+
+    /**
+     * 失效任务的缓存
+     *
+     * @param taskId 任务id
+     */
+    public synchronized void invalidate(String taskId) {
+        versions[stripe(taskId)]++;
+        Entry old = entries.remove(taskId);
+        if (old != null) {
+            weight -= old.weight;
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+        invalidationCount += entries.size();
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * 统计快照
+     */
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, evictionCount, invalidationCount,
+                entries.size(), weight, maxWeight);
+    }
+
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public synchronized void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * 查库后因期间被失效而未放入的次数
+     */
+    public synchronized long getStaleRejectCount() {
+        return staleRejectCount;
+    }
+
+    /**
+     * 未过期的缓存 过期的移除并计入淘汰
+     */
+    private Entry live(String taskId) {
+        Entry entry = entries.get(taskId);
+        if (entry != null && ttlSeconds > 0 && System.currentTimeMillis() - entry.loadedAt >= ttlSeconds * 1000) {
+            entries.remove(taskId);
+            weight -= entry.weight;
+            evictionCount++;
+            return null;
+        }
+        return entry;
+    }
+
+    private static int stripe(String taskId) {
+        return (taskId.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static String assigneeOf(List<IdentityLink> links) {
+        for (IdentityLink link : links) {
+            if (IdentityLinkType.ASSIGNEE.equals(link.getType())) {
+                return link.getUserId();
+            }
+        }
+        return null;
+    }
+
+    private static long estimate(String taskId, List<IdentityLink> links) {
+        long size = ENTRY_OVERHEAD + sizeOf(taskId);
+        for (IdentityLink link : links) {
+            size += LINK_OVERHEAD + sizeOf(link.getType()) + sizeOf(link.getUserId())
+                    + sizeOf(link.getGroupId()) + sizeOf(link.getTaskId());
+        }
+        return size;
+    }
+
+    private static long sizeOf(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private static class Entry {
+
+        private final List<IdentityLink> links;
+        private final TaskParticipants participants;
+        private final long weight;
+        private final long loadedAt;
+
+        private Entry(List<IdentityLink> links, TaskParticipants participants, long weight, long loadedAt) {
+            this.links = links;
+            this.participants = participants;
+            this.weight = weight;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.wangyuxuan.cache;
+
+import org.activiti.engine.task.IdentityLink;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 14:25
+ * @Description: 任务参与人的整数形式 groupId 和 userId 中的id(兼容逗号拼接)分别存为有序去重的整数数组
+ * 一个任务的参与人通常只有几个, 有序数组比位图省内存, 判断是否包含某个用户用二分查找 不产生新对象
+ */
+public final class TaskParticipants {
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * 签收人 没有时为 {@link UserIdDictionary#NOT_FOUND}
+     */
+    private final int assignee;
+    /**
+     * 身份关联 groupId 中的id
+     */
+    private final int[] groupMembers;
+    /**
+     * 身份关联 userId 中的id
+     */
+    private final int[] users;
+
+    private TaskParticipants(int assignee, int[] groupMembers, int[] users) {
+        this.assignee = assignee;
+        this.groupMembers = groupMembers;
+        this.users = users;
+    }
+
+    /**
+     * 由任务的签收人和身份关联生成
+     *
+     * @param assignee   签收人
+     * @param links      身份关联
+     * @param dictionary id字典
+     */
+    public static TaskParticipants of(String assignee, List<IdentityLink> links, UserIdDictionary dictionary) {
+        IntBuffer groupMembers = new IntBuffer(links.size());
+        IntBuffer users = new IntBuffer(links.size());
+        for (IdentityLink link : links) {
+            groupMembers.addAll(link.getGroupId(), dictionary);
+            users.addAll(link.getUserId(), dictionary);
+        }
+        return new TaskParticipants(StringUtils.isBlank(assignee) ? UserIdDictionary.NOT_FOUND
+                : dictionary.intern(assignee), groupMembers.toSortedArray(), users.toSortedArray());
+    }
+
+    public boolean hasAssignee() {
+        return assignee != UserIdDictionary.NOT_FOUND;
+    }
+
+    public boolean isAssignee(int id) {
+        return id != UserIdDictionary.NOT_FOUND && assignee == id;
+    }
+
+    /**
+     * 是否在身份关联的 groupId 中
+     */
+    public boolean inGroups(int id) {
+        return id != UserIdDictionary.NOT_FOUND && Arrays.binarySearch(groupMembers, id) >= 0;
+    }
+
+    /**
+     * 是否在身份关联的 userId 中
+     */
+    public boolean inUsers(int id) {
+        return id != UserIdDictionary.NOT_FOUND && Arrays.binarySearch(users, id) >= 0;
+    }
+
+    /**
+     * 估算占用的字节数
+     */
+    public long weight() {
+        return 32 + 4L * (groupMembers.length + users.length);
+    }
+
+    private static class IntBuffer {
+
+        private int[] values;
+        private int size;
+
+        private IntBuffer(int capacity) {
+            values = new int[Math.max(capacity, 1)];
+        }
+
+        /**
+         * 加入 ids 中的id 兼容逗号拼接
+         */
+        private void addAll(String ids, UserIdDictionary dictionary) {
+            if (StringUtils.isBlank(ids)) {
+                return;
+            }
+            if (ids.indexOf(",") < 0) {
+                add(dictionary.intern(ids));
+                return;
+            }
+            for (String id : ids.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    add(dictionary.intern(id));
+                }
+            }
+        }
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * 有序去重后的数组
+         */
+        private int[] toSortedArray() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            int[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            int distinct = 1;
+            for (int i = 1; i < result.length; i++) {
+                if (result[i] != result[distinct - 1]) {
+                    result[distinct++] = result[i];
+                }
+            }
+            return distinct == result.length ? result : Arrays.copyOf(result, distinct);
+        }
+    }
+}
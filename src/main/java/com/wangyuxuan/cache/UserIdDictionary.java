@@ -0,0 +1,59 @@
+package com.wangyuxuan.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 14:10
+ * @Description: 用户(组)id字典 把字符串id映射为从0开始连续的整数, 参与人集合用整数保存和比较
+ * 只增不减 id数量与系统中的用户和组数相当
+ */
+@Component("userIdDictionary")
+public class UserIdDictionary {
+
+    public static final int NOT_FOUND = -1;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * 获取id对应的整数 没有时分配一个
+     *
+     * @param id 用户(组)id
+     * @return 整数id
+     */
+    public int intern(String id) {
+        Integer value = ids.get(id);
+        if (value != null) {
+            return value;
+        }
+        synchronized (this) {
+            value = ids.get(id);
+            if (value == null) {
+                value = ids.size();
+                ids.put(id, value);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 获取id对应的整数 不分配
+     *
+     * @param id 用户(组)id
+     * @return 整数id 没有时返回 {@link #NOT_FOUND}
+     */
+    public int find(String id) {
+        if (id == null) {
+            return NOT_FOUND;
+        }
+        Integer value = ids.get(id);
+        return value == null ? NOT_FOUND : value;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,555 @@
+package com.wangyuxuan.cache;
+
+import com.wangyuxuan.dao.T_userMapper;
+import com.wangyuxuan.entity.InboxScope;
+import com.wangyuxuan.entity.InboxTask;
+import com.wangyuxuan.entity.TaskLink;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/18 10:15
+ * @Description: 本节点内存中的 用户(组) -> 未完成任务 索引 条件与 T_userMapper.xml 中 scopeCondition 一致
+ * 容器启动后逐行读取 ACT_RU_TASK 和候选关联加载, 之后由 {@link com.wangyuxuan.listener.UserTaskIndexListener} 在事务提交后更新
+ * 加载 重建期间的变化先记下, 新索引加载完后重放再替换
+ * 各事务的提交监听不保证按提交顺序执行, 只有任务新建会增加行, 签收 候选关联变化遇到不在索引中的任务时忽略,
+ * 最近完成或删除的任务id记在有界的墓碑中, 晚到的新建不会再加回来
+ * 其他节点的变化不会通知本节点, 每 index.userTask.refreshSeconds 秒重新加载一次 多节点时最多延迟这么久
+ * 未加载完成或 index.userTask.enabled=false 时各查询返回null, 调用方回退到查库
+ */
+@Component("userTaskIndex")
+@Order(0)
+public class UserTaskIndex implements ApplicationListener<ContextRefreshedEvent>, DisposableBean {
+
+    protected Logger logger = LoggerFactory.getLogger(UserTaskIndex.class);
+
+    /**
+     * 墓碑最多记录的任务数 只需要覆盖提交监听乱序的时间窗口
+     */
+    private static final int MAX_TOMBSTONES = 10000;
+
+    @Value("${index.userTask.enabled:true}")
+    private boolean enabled;
+    /**
+     * 定时重新加载的间隔秒数 0为不重新加载(单节点)
+     */
+    @Value("${index.userTask.refreshSeconds:60}")
+    private int refreshSeconds;
+
+    @Autowired
+    private T_userMapper userMapper;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 当前索引 未加载完成时为null
+     */
+    private Snapshot current;
+    /**
+     * 加载期间的变化 不加载时为null
+     */
+    private List<Op> replay;
+    /**
+     * 最近完成或删除的任务id
+     */
+    private final Map<String, Boolean> tombstones = new LinkedHashMap<String, Boolean>(1024, 0.75f) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_TOMBSTONES;
+        }
+    };
+    private ScheduledExecutorService refresher;
+    /**
+     * 最近一次加载耗时 未加载过时为-1
+     */
+    private volatile long lastRebuildMillis = -1;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!enabled || event.getApplicationContext().getParent() != null) {
+            return;
+        }
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            logger.error("【加载用户任务索引失败 回退到查库】", e);
+        }
+        if (refreshSeconds > 0 && refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "user-task-index-refresher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebuild();
+                    } catch (RuntimeException e) {
+                        logger.error("【重新加载用户任务索引失败】", e);
+                    }
+                }
+            }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * 从数据库重新加载索引 加载期间的变化在加载完后重放
+     *
+     * @return 加载的任务数
+     */
+    public int rebuild() {
+        lock.writeLock().lock();
+        try {
+            if (replay != null) {
+                throw new IllegalStateException("用户任务索引正在加载");
+            }
+            replay = new ArrayList<Op>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long start = System.currentTimeMillis();
+        Snapshot loaded;
+        try {
+            loaded = load();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            replay = null;
+            lock.writeLock().unlock();
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Op op : replay) {
+                op.apply(loaded);
+            }
+            //加载时读到的任务 提交监听已先于加载执行完成的
+            for (String taskId : tombstones.keySet()) {
+                loaded.remove(taskId);
+            }
+            lastRebuildMillis = System.currentTimeMillis() - start;
+            logger.info("【加载用户任务索引】tasks={},replayed={},ms={}", loaded.tasks.size(), replay.size(),
+                    lastRebuildMillis);
+            replay = null;
+            current = loaded;
+            return loaded.tasks.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 和数据库比对 不修改索引
+     * 比对期间有任务变化时可能误报, 有差异时可调用 {@link #rebuild()}
+     *
+     * @return 不一致的任务数 索引未加载时返回-1
+     */
+    public int check() {
+        if (!isReady()) {
+            return -1;
+        }
+        Snapshot loaded = load();
+        int mismatch = 0;
+        lock.readLock().lock();
+        try {
+            Set<String> taskIds = new HashSet<String>(loaded.tasks.keySet());
+            taskIds.addAll(current.tasks.keySet());
+            for (String taskId : taskIds) {
+                Row expected = loaded.tasks.get(taskId);
+                Row actual = current.tasks.get(taskId);
+                if (expected == null || !expected.equals(actual)) {
+                    mismatch++;
+                    logger.info("【用户任务索引不一致】taskId={},db={},index={}", taskId, expected, actual);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return mismatch;
+    }
+
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return current != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 最近一次加载的耗时(毫秒) 未加载过时为-1
+     */
+    public long getLastRebuildMillis() {
+        return lastRebuildMillis;
+    }
+
+    /**
+     * 用户是否存在待办 group user assignee 都查
+     *
+     * @param userId   用户
+     * @param groupIds 用户所在的组
+     * @return 索引未加载时返回null
+     */
+    public Boolean hasTasks(String userId, Collection<String> groupIds) {
+        lock.readLock().lock();
+        try {
+            if (current == null) {
+                return null;
+            }
+            if (current.byAssignee.containsKey(userId) || current.unassignedByUser.containsKey(userId)
+                    || current.unassignedByGroup.containsKey(userId)) {
+                return true;
+            }
+            for (String groupId : groupIds) {
+                if (current.unassignedByGroup.containsKey(groupId)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取用户当前处于的工作流id 每个任务一个
+     *
+     * @param scope    查询范围 ASSIGNEE GROUP USER ALL
+     * @param userId   用户或组
+     * @param groupIds 用户所在的组 USER ALL 时使用
+     * @return 工作流id集合 索引未加载时返回null
+     */
+    public List<String> getProcessInstanceIds(InboxScope scope, String userId, Collection<String> groupIds) {
+        lock.readLock().lock();
+        try {
+            if (current == null) {
+                return null;
+            }
+            Set<String> taskIds = new LinkedHashSet<String>();
+            if (scope == InboxScope.ASSIGNEE || scope == InboxScope.ALL) {
+                addAll(taskIds, current.byAssignee.get(userId));
+            }
+            if (scope == InboxScope.GROUP || scope == InboxScope.ALL) {
+                addAll(taskIds, current.unassignedByGroup.get(userId));
+            }
+            if (scope == InboxScope.USER || scope == InboxScope.ALL) {
+                addAll(taskIds, current.unassignedByUser.get(userId));
+                for (String groupId : groupIds) {
+                    addAll(taskIds, current.unassignedByGroup.get(groupId));
+                }
+            }
+            List<String> ids = new ArrayList<String>(taskIds.size());
+            for (String taskId : taskIds) {
+                ids.add(current.tasks.get(taskId).processInstanceId);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 任务新建 已完成或删除的任务忽略
+     */
+    public void taskCreated(final String taskId, final String processInstanceId, final String assignee) {
+        apply(new Op() {
+            @Override
+            public void apply(Snapshot snapshot) {
+                if (tombstones.containsKey(taskId)) {
+                    return;
+                }
+                Row row = snapshot.row(taskId);
+                row.processInstanceId = processInstanceId;
+                snapshot.setAssignee(taskId, row, assignee);
+            }
+        });
+    }
+
+    /**
+     * 签收人变化 任务已不在索引中时忽略
+     */
+    public void taskChanged(final String taskId, final String assignee) {
+        apply(new Op() {
+            @Override
+            public void apply(Snapshot snapshot) {
+                Row row = snapshot.tasks.get(taskId);
+                if (row != null) {
+                    snapshot.setAssignee(taskId, row, assignee);
+                }
+            }
+        });
+    }
+
+    /**
+     * 任务完成或删除
+     */
+    public void taskRemoved(final String taskId) {
+        apply(new Op() {
+            @Override
+            public void apply(Snapshot snapshot) {
+                tombstones.put(taskId, Boolean.TRUE);
+                snapshot.remove(taskId);
+            }
+        });
+    }
+
+    /**
+     * 新增候选人(组) 任务已不在索引中时忽略
+     */
+    public void candidateAdded(final String taskId, final String userId, final String groupId) {
+        apply(new Op() {
+            @Override
+            public void apply(Snapshot snapshot) {
+                Row row = snapshot.tasks.get(taskId);
+                if (row != null) {
+                    snapshot.addCandidate(taskId, row, userId, groupId);
+                }
+            }
+        });
+    }
+
+    /**
+     * 删除候选人(组) 任务已不在索引中时忽略
+     */
+    public void candidateRemoved(final String taskId, final String userId, final String groupId) {
+        apply(new Op() {
+            @Override
+            public void apply(Snapshot snapshot) {
+                Row row = snapshot.tasks.get(taskId);
+                if (row != null) {
+                    snapshot.removeCandidate(taskId, row, userId, groupId);
+                }
+            }
+        });
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return current == null ? 0 : current.tasks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Op op) {
+        lock.writeLock().lock();
+        try {
+            if (current != null) {
+                op.apply(current);
+            }
+            if (replay != null) {
+                replay.add(op);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Snapshot load() {
+        final Snapshot snapshot = new Snapshot();
+        userMapper.scanOpenTasks(new ResultHandler() {
+            @Override
+            public void handleResult(ResultContext context) {
+                InboxTask task = (InboxTask) context.getResultObject();
+                Row row = snapshot.row(task.getId());
+                row.processInstanceId = task.getProcessInstanceId();
+                snapshot.setAssignee(task.getId(), row, task.getAssignee());
+            }
+        });
+        userMapper.scanCandidateLinks(new ResultHandler() {
+            @Override
+            public void handleResult(ResultContext context) {
+                TaskLink link = (TaskLink) context.getResultObject();
+                Row row = snapshot.tasks.get(link.getTaskId());
+                if (row != null) {
+                    snapshot.addCandidate(link.getTaskId(), row, link.getUserId(), link.getGroupId());
+                }
+            }
+        });
+        return snapshot;
+    }
+
+    private static void addAll(Set<String> target, Set<String> source) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+
+    private interface Op {
+        void apply(Snapshot snapshot);
+    }
+
+    private static class Row {
+
+        private String processInstanceId;
+        private String assignee;
+        private final Set<String> candidateUsers = new HashSet<String>(2);
+        private final Set<String> candidateGroups = new HashSet<String>(2);
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            Row other = (Row) o;
+            return eq(processInstanceId, other.processInstanceId) && eq(assignee, other.assignee)
+                    && candidateUsers.equals(other.candidateUsers) && candidateGroups.equals(other.candidateGroups);
+        }
+
+        @Override
+        public int hashCode() {
+            return processInstanceId == null ? 0 : processInstanceId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "{pi=" + processInstanceId + ",assignee=" + assignee + ",users=" + candidateUsers
+                    + ",groups=" + candidateGroups + "}";
+        }
+
+        private static boolean eq(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * 一份完整的索引 候选人(组)只在任务未签收时计入
+     */
+    private static class Snapshot {
+
+        private final Map<String, Row> tasks = new HashMap<String, Row>();
+        private final Map<String, Set<String>> byAssignee = new HashMap<String, Set<String>>();
+        private final Map<String, Set<String>> unassignedByUser = new HashMap<String, Set<String>>();
+        private final Map<String, Set<String>> unassignedByGroup = new HashMap<String, Set<String>>();
+
+        private Row row(String taskId) {
+            Row row = tasks.get(taskId);
+            if (row == null) {
+                row = new Row();
+                tasks.put(taskId, row);
+            }
+            return row;
+        }
+
+        private void setAssignee(String taskId, Row row, String assignee) {
+            if (Row.eq(row.assignee, assignee)) {
+                return;
+            }
+            if (row.assignee == null) {
+                unindexCandidates(taskId, row);
+            } else {
+                unindex(byAssignee, row.assignee, taskId);
+            }
+            row.assignee = assignee;
+            if (assignee == null) {
+                indexCandidates(taskId, row);
+            } else {
+                index(byAssignee, assignee, taskId);
+            }
+        }
+
+        private void addCandidate(String taskId, Row row, String userId, String groupId) {
+            if (userId != null && row.candidateUsers.add(userId) && row.assignee == null) {
+                index(unassignedByUser, userId, taskId);
+            }
+            if (groupId != null && row.candidateGroups.add(groupId) && row.assignee == null) {
+                index(unassignedByGroup, groupId, taskId);
+            }
+        }
+
+        private void removeCandidate(String taskId, Row row, String userId, String groupId) {
+            if (userId != null && row.candidateUsers.remove(userId) && row.assignee == null) {
+                unindex(unassignedByUser, userId, taskId);
+            }
+            if (groupId != null && row.candidateGroups.remove(groupId) && row.assignee == null) {
+                unindex(unassignedByGroup, groupId, taskId);
+            }
+        }
+
+        private void remove(String taskId) {
+            Row row = tasks.remove(taskId);
+            if (row == null) {
+                return;
+            }
+            if (row.assignee == null) {
+                unindexCandidates(taskId, row);
+            } else {
+                unindex(byAssignee, row.assignee, taskId);
+            }
+        }
+
+        private void indexCandidates(String taskId, Row row) {
+            for (String userId : row.candidateUsers) {
+                index(unassignedByUser, userId, taskId);
+            }
+            for (String groupId : row.candidateGroups) {
+                index(unassignedByGroup, groupId, taskId);
+            }
+        }
+
+        private void unindexCandidates(String taskId, Row row) {
+            for (String userId : row.candidateUsers) {
+                unindex(unassignedByUser, userId, taskId);
+            }
+            for (String groupId : row.candidateGroups) {
+                unindex(unassignedByGroup, groupId, taskId);
+            }
+        }
+
+        private static void index(Map<String, Set<String>> map, String key, String taskId) {
+            Set<String> taskIds = map.get(key);
+            if (taskIds == null) {
+                taskIds = new HashSet<String>(4);
+                map.put(key, taskIds);
+            }
+            taskIds.add(taskId);
+        }
+
+        private static void unindex(Map<String, Set<String>> map, String key, String taskId) {
+            Set<String> taskIds = map.get(key);
+            if (taskIds != null) {
+                taskIds.remove(taskId);
+                if (taskIds.isEmpty()) {
+                    map.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,213 @@
 package com.wangyuxuan.controller;
 
+import com.wangyuxuan.entity.InboxPage;
+import com.wangyuxuan.entity.InboxTask;
+import com.wangyuxuan.entity.ProcessDiagram;
+import com.wangyuxuan.entity.TaskEventBatch;
+import com.wangyuxuan.util.ActivitiUtils;
+import com.wangyuxuan.util.EngineMetrics;
+import com.wangyuxuan.util.ProcessDiagramService;
+import com.wangyuxuan.util.TaskEventHub;
+import org.activiti.engine.task.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @Auther: wangyuxuan
  * @Date: 2018/12/5 17:22
- * @Description:
+ * @Description: 待办和工作流状态查询 支持条件请求
+ * ETag 取自 {@link com.wangyuxuan.cache.InboxVersionTracker} 的版本号, If-None-Match 一致时直接返回304 不查库
+ * 任务变化也可以通过长轮询 /inbox/events 获取, 不用反复查待办
+ * 流程图按内容生成ETag, /diagram 地址里带了流程定义和高亮节点 可长期缓存
  */
 
 @Controller
+@RequestMapping("/activiti")
 public class ActivitiController {
 
+    @Autowired
+    private ActivitiUtils activitiUtils;
+    @Autowired
+    private TaskEventHub taskEventHub;
+    @Autowired
+    private ProcessDiagramService processDiagramService;
+    @Autowired
+    private EngineMetrics engineMetrics;
+
+    /**
+     * 日志
+     */
+    protected Logger logger = LoggerFactory.getLogger(ActivitiController.class);
+
+    /**
+     * 获取用户待办
+     *
+     * @param userId      用户
+     * @param cursor      上一页返回的游标 为空时从第一条开始
+     * @param limit       每页条数 不超过 inbox.maxLimit
+     * @param ifNoneMatch 客户端缓存的ETag
+     * @return 待办和下一页游标 待办没有变化时返回304
+     */
+    @RequestMapping(value = "/inbox", method = RequestMethod.GET)
+    public ResponseEntity<InboxPage<InboxTask>> inbox(@RequestParam("userId") String userId,
+                                                      @RequestParam(value = "cursor", required = false) String cursor,
+                                                      @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                                      @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        //先限制条数 超出的 limit 和上限共用同一个ETag
+        limit = Math.min(limit, activitiUtils.getInboxMaxLimit());
+        String etag = etag(activitiUtils.getInboxVersion(userId), cursor, String.valueOf(limit));
+        if (matches(ifNoneMatch, etag)) {
+            logger.info("【待办未变化】userId={},etag={}", userId, etag);
+            return new ResponseEntity<InboxPage<InboxTask>>(headers(etag), HttpStatus.NOT_MODIFIED);
+        }
+        InboxPage<InboxTask> page = activitiUtils.getUserInboxTasks(userId, cursor, limit);
+        return new ResponseEntity<InboxPage<InboxTask>>(page, headers(etag), HttpStatus.OK);
+    }
+
+    /**
+     * 长轮询用户的任务变化 没有变化时挂起 有变化或超时时返回
+     * 客户端收到后立即再次请求, 两次请求之间的变化会排队合并
+     *
+     * @param userId  用户
+     * @param timeout 最多挂起的秒数 不超过 push.timeoutSeconds
+     * @return 任务变化 resync为true时应重新拉取完整待办
+     */
+    @RequestMapping(value = "/inbox/events", method = RequestMethod.GET)
+    @ResponseBody
+    public DeferredResult<TaskEventBatch> inboxEvents(@RequestParam("userId") String userId,
+                                                      @RequestParam(value = "timeout", required = false) Integer timeout) {
+        int max = taskEventHub.getTimeoutSeconds();
+        int seconds = timeout == null || timeout <= 0 ? max : Math.min(timeout, max);
+        return taskEventHub.poll(userId, activitiUtils.getUserGroupIds(userId), seconds * 1000L);
+    }
+
+    /**
+     * 获取工作流状态
+     *
+     * @param instanceId  工作流id
+     * @param ifNoneMatch 客户端缓存的ETag
+     * @return 是否结束和当前任务 状态没有变化时返回304
+     */
+    @RequestMapping(value = "/instance/status", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> instanceStatus(@RequestParam("instanceId") String instanceId,
+                                                              @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        String etag = etag(activitiUtils.getInstanceVersion(instanceId), instanceId);
+        if (matches(ifNoneMatch, etag)) {
+            logger.info("【工作流状态未变化】instanceId={},etag={}", instanceId, etag);
+            return new ResponseEntity<Map<String, Object>>(headers(etag), HttpStatus.NOT_MODIFIED);
+        }
+        List<Map<String, Object>> tasks = new ArrayList<Map<String, Object>>();
+        for (Task task : activitiUtils.getInstanceTasks(instanceId)) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("id", task.getId());
+            item.put("name", task.getName());
+            item.put("assignee", task.getAssignee());
+            tasks.add(item);
+        }
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("instanceId", instanceId);
+        body.put("ended", activitiUtils.validateEnd(instanceId));
+        body.put("tasks", tasks);
+        return new ResponseEntity<Map<String, Object>>(body, headers(etag), HttpStatus.OK);
+    }
+
+    /**
+     * 获取流程图 高亮指定节点
+     *
+     * @param processDefinitionId 流程定义id
+     * @param activityIds         高亮的节点id 可为空
+     * @param ifNoneMatch         客户端缓存的ETag
+     * @return png 流程定义或节点不存在时返回404
+     */
+    @RequestMapping(value = "/diagram", method = RequestMethod.GET, produces = "image/png")
+    public ResponseEntity<byte[]> diagram(@RequestParam("processDefinitionId") String processDefinitionId,
+                                          @RequestParam(value = "activityIds", required = false) List<String> activityIds,
+                                          @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        ProcessDiagram diagram = processDiagramService.getDiagram(processDefinitionId, activityIds);
+        if (diagram == null) {
+            return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+        }
+        if (matches(ifNoneMatch, diagram.getEtag())) {
+            return new ResponseEntity<byte[]>(diagram.getImmutableHeaders(), HttpStatus.NOT_MODIFIED);
+        }
+        return new ResponseEntity<byte[]>(diagram.getContent(), diagram.getImmutableHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * 获取工作流的流程图 高亮当前所在节点
+     *
+     * @param instanceId  工作流id
+     * @param ifNoneMatch 客户端缓存的ETag
+     * @return png 工作流不存在时返回404 所在节点没有变化时返回304
+     */
+    @RequestMapping(value = "/instance/diagram", method = RequestMethod.GET, produces = "image/png")
+    public ResponseEntity<byte[]> instanceDiagram(@RequestParam("instanceId") String instanceId,
+                                                  @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        ProcessDiagram diagram = processDiagramService.getInstanceDiagram(instanceId);
+        if (diagram == null) {
+            return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+        }
+        if (matches(ifNoneMatch, diagram.getEtag())) {
+            return new ResponseEntity<byte[]>(diagram.getRevalidateHeaders(), HttpStatus.NOT_MODIFIED);
+        }
+        return new ResponseEntity<byte[]>(diagram.getContent(), diagram.getRevalidateHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * 引擎命令和 ActivitiUtils 方法的统计 metrics.enabled=false 时不再增加
+     *
+     * @return enabled commands methods, 耗时单位微秒
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> metrics() {
+        return engineMetrics.snapshot();
+    }
+
+    private String etag(String version, String... params) {
+        StringBuilder sb = new StringBuilder(version);
+        for (String param : params) {
+            sb.append('-').append(param == null ? "" : Integer.toHexString(param.hashCode()));
+        }
+        return "\"" + sb.toString() + "\"";
+    }
+
+    private boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag) || "*".equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    private HttpHeaders headers(String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        headers.setCacheControl("private, no-cache");
+        return headers;
+    }
 }
@@ -0,0 +1,46 @@
+package com.wangyuxuan.controller;
+
+import com.wangyuxuan.util.RequestSqlStats;
+import com.wangyuxuan.util.SqlBudgetFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/25 11:30
+ * @Description: sql.budget.headers=true 时在写响应体之前把本次请求的sql统计放到响应头
+ * X-Sql-Count 语句数 X-Sql-Millis 数据库耗时 X-Sql-Max-Repeats 同一语句最多执行次数 X-Sql-Budget 是否超出预算
+ */
+@ControllerAdvice
+public class SqlBudgetHeaderAdvice implements ResponseBodyAdvice<Object> {
+
+    @Autowired
+    private SqlBudgetFilter sqlBudgetFilter;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return sqlBudgetFilter.isExposeHeaders();
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        RequestSqlStats stats = sqlBudgetFilter.current();
+        if (stats != null) {
+            HttpHeaders headers = response.getHeaders();
+            headers.set("X-Sql-Count", String.valueOf(stats.getStatements()));
+            headers.set("X-Sql-Millis", String.valueOf(stats.getMillis()));
+            headers.set("X-Sql-Max-Repeats", String.valueOf(stats.getMaxRepeats()));
+            headers.set("X-Sql-Budget", stats.isExceeded() ? "exceeded" : "ok");
+        }
+        return body;
+    }
+}
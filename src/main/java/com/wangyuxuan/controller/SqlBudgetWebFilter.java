@@ -0,0 +1,59 @@
+package com.wangyuxuan.controller;
+
+import com.wangyuxuan.util.RequestSqlStats;
+import com.wangyuxuan.util.SqlBudgetFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/25 11:10
+ * @Description: 每个http请求开始和结束 {@link SqlBudgetFilter} 的统计, 直接在 web.xml 中声明而不是spring bean,
+ * 这样不带servlet api的环境(benchmarks 压测)加载同一套spring配置不受影响; 超出预算的请求结束时输出一行汇总
+ * 长轮询等异步请求只统计第一次分派
+ */
+public class SqlBudgetWebFilter implements Filter {
+
+    protected Logger logger = LoggerFactory.getLogger(SqlBudgetWebFilter.class);
+
+    private SqlBudgetFilter sqlBudgetFilter;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        sqlBudgetFilter = WebApplicationContextUtils.getRequiredWebApplicationContext(filterConfig.getServletContext())
+                .getBean(SqlBudgetFilter.class);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        RequestSqlStats stats = sqlBudgetFilter.begin(((HttpServletRequest) request).getRequestURI());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (stats != null) {
+                sqlBudgetFilter.end(stats);
+                if (stats.isExceeded()) {
+                    logger.warn("【SQL超出预算的请求】uri={},statements={},distinct={},millis={},maxRepeats={},sql={},violations={}",
+                            stats.getUri(), stats.getStatements(), stats.getDistinctStatements(), stats.getMillis(),
+                            stats.getMaxRepeats(), SqlBudgetFilter.compact(stats.getMostRepeatedSql()),
+                            stats.getViolations());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -1,5 +1,238 @@
 package com.wangyuxuan.dao;
 
+import com.wangyuxuan.entity.ExecutionActivity;
+import com.wangyuxuan.entity.HistoricActivityRecord;
+import com.wangyuxuan.entity.InboxTask;
+import com.wangyuxuan.entity.TaskLink;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 public interface T_userMapper {
 
-}
\ No newline at end of file
+    /**
+     * 一次查询获取用户当前处于的任务 group user assignee 都查 已去重
+     *
+     * @param userId 用户
+     * @return 轻量任务行
+     */
+    List<InboxTask> selectUserInboxTasks(@Param("userId") String userId);
+
+    /**
+     * 用户是否存在待办 group user assignee 都查
+     *
+     * @param userId 用户
+     * @return 1:存在,0:不存在
+     */
+    int existsUserInboxTask(@Param("userId") String userId);
+
+
+    /**
+     * 分页获取待办 按 CREATE_TIME_, ID_ 排序
+     *
+     * @param scope     查询范围 {@link com.wangyuxuan.entity.InboxScope} 的名称
+     * @param userId    用户
+     * @param afterTime 游标中的创建时间 为空时不按游标查
+     * @param afterId   游标中的任务id
+     * @param offset    跳过的条数
+     * @param limit     条数
+     * @return 轻量任务行
+     */
+    List<InboxTask> selectInboxTasksPage(@Param("scope") String scope, @Param("userId") String userId,
+                                         @Param("afterTime") Date afterTime, @Param("afterId") String afterId,
+                                         @Param("offset") int offset, @Param("limit") int limit);
+
+    /**
+     * 待办总数
+     *
+     * @param scope  查询范围 {@link com.wangyuxuan.entity.InboxScope} 的名称
+     * @param userId 用户
+     * @return 总数
+     */
+    long countInboxTasks(@Param("scope") String scope, @Param("userId") String userId);
+
+    /**
+     * 按任务id获取轻量任务行
+     *
+     * @param taskIds 任务id集合 不能为空
+     * @return 存在的任务
+     */
+    List<InboxTask> selectTasksByIds(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 一次查询获取多个任务的身份关联 包含任务上的 assignee owner, 与 taskService.getIdentityLinksForTask 一致
+     *
+     * @param taskIds 任务id集合 不能为空
+     * @return 身份关联
+     */
+    List<TaskLink> selectTaskIdentityLinks(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 逐行读取全部未完成任务 只有 ID_ ASSIGNEE_ PROC_INST_ID_ 不整体加载到内存
+     *
+     * @param handler 每行回调 {@link InboxTask}
+     */
+    void scanOpenTasks(ResultHandler handler);
+
+    /**
+     * 逐行读取全部任务候选人(组)关联
+     *
+     * @param handler 每行回调 {@link TaskLink}
+     */
+    void scanCandidateLinks(ResultHandler handler);
+
+    /**
+     * 筛选出仍在运行的工作流id
+     *
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 仍在运行的工作流id
+     */
+    List<String> selectRunningInstanceIds(@Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 筛选出历史表中已结束的工作流id
+     *
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 已结束的工作流id
+     */
+    List<String> selectFinishedInstanceIds(@Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 获取工作流当前所处的节点 只读活动的执行
+     *
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 工作流id和节点id 并行分支时一个工作流有多行
+     */
+    List<ExecutionActivity> selectActiveActivities(@Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 用户已完成的历史任务所在的工作流id 已去重 只查id
+     *
+     * @param scope   查询范围 ASSIGNEE GROUP USER 与 HistoricTaskInstanceQuery 的 taskAssignee taskCandidateGroup taskCandidateUser 一致
+     * @param userId  用户或组
+     * @param afterId 游标 不为空时取大于它的工作流id
+     * @param offset  跳过条数
+     * @param limit   条数 为空时不分页
+     * @param archive 是否查归档表 ARC_HI_*
+     * @return 工作流id 按id排序
+     */
+    List<String> selectHistoryInstanceIds(@Param("scope") String scope, @Param("userId") String userId,
+                                          @Param("afterId") String afterId, @Param("offset") int offset,
+                                          @Param("limit") Integer limit, @Param("archive") boolean archive);
+
+    /**
+     * 结束时间早于指定时间的工作流id 按结束时间排序
+     *
+     * @param endBefore 结束时间上限
+     * @param limit     条数
+     * @return 工作流id
+     */
+    List<String> selectArchivableInstanceIds(@Param("endBefore") Date endBefore, @Param("limit") int limit);
+
+    /**
+     * 创建归档表 结构与原表相同
+     *
+     * @param archiveTable 归档表
+     * @param sourceTable  原表
+     */
+    void createArchiveTable(@Param("archiveTable") String archiveTable, @Param("sourceTable") String sourceTable);
+
+    /**
+     * 检查表是否存在 不存在时抛出异常
+     *
+     * @param table 表名
+     * @return 0
+     */
+    int probeTable(@Param("table") String table);
+
+    /**
+     * 把工作流的历史数据复制到归档表
+     *
+     * @param archiveTable 归档表
+     * @param sourceTable  原表 按 PROC_INST_ID_ 筛选
+     * @param instanceIds  工作流id集合 不能为空
+     * @return 复制的行数
+     */
+    int archiveHistoryRows(@Param("archiveTable") String archiveTable, @Param("sourceTable") String sourceTable,
+                           @Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 删除工作流的历史数据
+     *
+     * @param sourceTable 原表 按 PROC_INST_ID_ 筛选
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 删除的行数
+     */
+    int deleteHistoryRows(@Param("sourceTable") String sourceTable, @Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 工作流的历史任务id
+     *
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 历史任务id
+     */
+    List<String> selectHistoryTaskIds(@Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 把任务的历史身份关联复制到归档表 工作流的身份关联按 PROC_INST_ID_ 用 archiveHistoryRows 处理
+     *
+     * @param taskIds 历史任务id集合 不能为空
+     * @return 复制的行数
+     */
+    int archiveHistoryTaskIdentityLinks(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 删除任务的历史身份关联
+     *
+     * @param taskIds 历史任务id集合 不能为空
+     * @return 删除的行数
+     */
+    int deleteHistoryTaskIdentityLinks(@Param("taskIds") Collection<String> taskIds);
+
+    /**
+     * 批量写入历史活动 一条语句多行
+     *
+     * @param records 历史活动 不能为空
+     * @return 写入的行数
+     */
+    int insertHistoricActivityInstances(@Param("records") List<HistoricActivityRecord> records);
+
+    /**
+     * 筛选出已存在的历史活动id 重放日志时去重
+     *
+     * @param ids 历史活动id集合 不能为空
+     * @return 已存在的id
+     */
+    List<String> selectExistingActivityInstanceIds(@Param("ids") Collection<String> ids);
+
+    /**
+     * 筛选出历史表中存在的工作流 重放日志时排除未提交或已删除的工作流
+     *
+     * @param instanceIds 工作流id集合 不能为空
+     * @return 存在的工作流id
+     */
+    List<String> selectExistingHistoricInstanceIds(@Param("instanceIds") Collection<String> instanceIds);
+
+    /**
+     * 候选人或候选组是逗号拼接的任务id 按任务id排序
+     *
+     * @param afterId 从这个任务id之后开始 为空时从头开始
+     * @param limit   条数
+     * @return 任务id
+     */
+    List<String> selectJoinedCandidateTaskIds(@Param("afterId") String afterId, @Param("limit") int limit);
+
+    /**
+     * 还有重试次数的消息作业id 按作业id排序
+     *
+     * @param handlerType 作业处理类型 HANDLER_TYPE_
+     * @param afterId     从这个作业id之后开始 为空时从头开始
+     * @param limit       条数
+     * @return 作业id
+     */
+    List<String> selectRetryableMessageJobIds(@Param("handlerType") String handlerType,
+                                              @Param("afterId") String afterId, @Param("limit") int limit);
+}
@@ -0,0 +1,83 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/13 9:45
+ * @Description: 批量操作中每一项的结果
+ */
+public class BatchItemResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 在请求中的下标
+     */
+    private final int index;
+    /**
+     * 请求的对象id 启动时为流程定义id 完成任务时为任务id
+     */
+    private final String requestId;
+    private final boolean success;
+    /**
+     * 成功时的结果id 启动时为工作流id
+     */
+    private final String resultId;
+    /**
+     * 是否因为并发修改(乐观锁)失败
+     */
+    private final boolean conflict;
+    /**
+     * 失败原因
+     */
+    private final String error;
+
+    private BatchItemResult(int index, String requestId, boolean success, String resultId,
+                            boolean conflict, String error) {
+        this.index = index;
+        this.requestId = requestId;
+        this.success = success;
+        this.resultId = resultId;
+        this.conflict = conflict;
+        this.error = error;
+    }
+
+    public static BatchItemResult success(int index, String requestId, String resultId) {
+        return new BatchItemResult(index, requestId, true, resultId, false, null);
+    }
+
+    public static BatchItemResult failure(int index, String requestId, boolean conflict, String error) {
+        return new BatchItemResult(index, requestId, false, null, conflict, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getResultId() {
+        return resultId;
+    }
+
+    public boolean isConflict() {
+        return conflict;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{index=" + index + ", requestId='" + requestId + "', success=" + success
+                + ", resultId='" + resultId + "', conflict=" + conflict + ", error='" + error + "'}";
+    }
+}
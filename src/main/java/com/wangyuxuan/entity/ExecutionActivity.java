@@ -0,0 +1,38 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/19 9:40
+ * @Description: 工作流中一个活动执行当前所处的节点
+ */
+public class ExecutionActivity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 工作流id
+     */
+    private String processInstanceId;
+    /**
+     * 节点id
+     */
+    private String activityId;
+
+    public String getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public void setProcessInstanceId(String processInstanceId) {
+        this.processInstanceId = processInstanceId;
+    }
+
+    public String getActivityId() {
+        return activityId;
+    }
+
+    public void setActivityId(String activityId) {
+        this.activityId = activityId;
+    }
+}
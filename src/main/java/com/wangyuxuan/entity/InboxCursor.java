@@ -0,0 +1,77 @@
+package com.wangyuxuan.entity;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 15:45
+ * @Description: 待办游标 (创建时间, 任务id) 对外只暴露编码后的字符串
+ * 按 CREATE_TIME_, ID_ 排序取 "之后" 的数据, 前面的任务被完成删除不会影响后续页
+ */
+public class InboxCursor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 上一页最后一条的创建时间
+     */
+    private final Date createTime;
+    /**
+     * 上一页最后一条的任务id
+     */
+    private final String id;
+
+    public InboxCursor(Date createTime, String id) {
+        this.createTime = createTime;
+        this.id = id;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 编码游标
+     *
+     * @return 游标字符串
+     */
+    public String encode() {
+        String raw = createTime.getTime() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(UTF_8));
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor 游标字符串
+     * @return 为空时返回null 表示从第一条开始
+     */
+    public static InboxCursor decode(String cursor) {
+        if (StringUtils.isBlank(cursor)) {
+            return null;
+        }
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的游标: " + cursor, e);
+        }
+        int index = raw.indexOf(':');
+        if (index <= 0 || index == raw.length() - 1) {
+            throw new IllegalArgumentException("无效的游标: " + cursor);
+        }
+        try {
+            return new InboxCursor(new Date(Long.parseLong(raw.substring(0, index))), raw.substring(index + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的游标: " + cursor, e);
+        }
+    }
+}
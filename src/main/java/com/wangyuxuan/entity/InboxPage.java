@@ -0,0 +1,40 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 15:42
+ * @Description: 按游标分页的待办结果
+ */
+public class InboxPage<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 当前页数据
+     */
+    private List<T> items;
+    /**
+     * 下一页游标 为null表示没有下一页
+     */
+    private String nextCursor;
+
+    public InboxPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
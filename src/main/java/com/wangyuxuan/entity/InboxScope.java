@@ -0,0 +1,26 @@
+package com.wangyuxuan.entity;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 15:40
+ * @Description: 待办查询范围 对应 taskAssignee taskCandidateGroup taskCandidateUser 以及三者的并集
+ */
+public enum InboxScope {
+
+    /**
+     * 只查签收人 assignee
+     */
+    ASSIGNEE,
+    /**
+     * 只查候选组 group
+     */
+    GROUP,
+    /**
+     * 只查候选人 user
+     */
+    USER,
+    /**
+     * group user assignee 都查
+     */
+    ALL
+}
@@ -0,0 +1,81 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 10:12
+ * @Description: 待办箱中的轻量任务行 只包含列表展示需要的字段
+ */
+public class InboxTask implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 任务id
+     */
+    private String id;
+    /**
+     * 任务名称
+     */
+    private String name;
+    /**
+     * 签收人
+     */
+    private String assignee;
+    /**
+     * 工作流id
+     */
+    private String processInstanceId;
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getAssignee() {
+        return assignee;
+    }
+
+    public void setAssignee(String assignee) {
+        this.assignee = assignee;
+    }
+
+    public String getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public void setProcessInstanceId(String processInstanceId) {
+        this.processInstanceId = processInstanceId;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    @Override
+    public String toString() {
+        return "InboxTask{id='" + id + "', name='" + name + "', assignee='" + assignee
+                + "', processInstanceId='" + processInstanceId + "', createTime=" + createTime + "}";
+    }
+}
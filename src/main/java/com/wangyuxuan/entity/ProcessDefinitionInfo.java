@@ -0,0 +1,116 @@
+package com.wangyuxuan.entity;
+
+import org.activiti.engine.repository.ProcessDefinition;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/12 10:05
+ * @Description: 流程定义的轻量副本 不持有引擎解析出的流程模型, 供流程定义目录缓存使用
+ */
+public class ProcessDefinitionInfo implements ProcessDefinition, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String category;
+    private final String name;
+    private final String key;
+    private final String description;
+    private final int version;
+    private final String resourceName;
+    private final String deploymentId;
+    private final String diagramResourceName;
+    private final boolean startFormKey;
+    private final boolean graphicalNotation;
+    private final boolean suspended;
+    private final String tenantId;
+
+    public ProcessDefinitionInfo(ProcessDefinition definition) {
+        this.id = definition.getId();
+        this.category = definition.getCategory();
+        this.name = definition.getName();
+        this.key = definition.getKey();
+        this.description = definition.getDescription();
+        this.version = definition.getVersion();
+        this.resourceName = definition.getResourceName();
+        this.deploymentId = definition.getDeploymentId();
+        this.diagramResourceName = definition.getDiagramResourceName();
+        this.startFormKey = definition.hasStartFormKey();
+        this.graphicalNotation = definition.hasGraphicalNotation();
+        this.suspended = definition.isSuspended();
+        this.tenantId = definition.getTenantId();
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getCategory() {
+        return category;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    @Override
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    @Override
+    public String getDiagramResourceName() {
+        return diagramResourceName;
+    }
+
+    @Override
+    public boolean hasStartFormKey() {
+        return startFormKey;
+    }
+
+    @Override
+    public boolean hasGraphicalNotation() {
+        return graphicalNotation;
+    }
+
+    @Override
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    @Override
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessDefinitionInfo{id='" + id + "', key='" + key + "', version=" + version
+                + ", category='" + category + "'}";
+    }
+}
@@ -0,0 +1,64 @@
+package com.wangyuxuan.entity;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 10:10
+ * @Description: 渲染好的流程图 内容和响应头都是创建时生成的, 命中缓存时直接返回不再复制
+ * 同一个流程定义和高亮节点的图不会变化, ETag 取内容的摘要
+ */
+public class ProcessDiagram {
+
+    private final String processDefinitionId;
+    /**
+     * png 本身是压缩格式
+     */
+    private final byte[] content;
+    private final String etag;
+    /**
+     * 地址里带了流程定义和高亮节点时的响应头 可长期缓存
+     */
+    private final HttpHeaders immutableHeaders;
+    /**
+     * 按工作流获取时的响应头 工作流会流转, 每次用ETag验证
+     */
+    private final HttpHeaders revalidateHeaders;
+
+    public ProcessDiagram(String processDefinitionId, byte[] content, String etag, long maxAgeSeconds) {
+        this.processDefinitionId = processDefinitionId;
+        this.content = content;
+        this.etag = etag;
+        this.immutableHeaders = headers(etag, "public, max-age=" + maxAgeSeconds);
+        this.revalidateHeaders = headers(etag, "private, no-cache");
+    }
+
+    private static HttpHeaders headers(String etag, String cacheControl) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+        headers.setETag(etag);
+        headers.setCacheControl(cacheControl);
+        return HttpHeaders.readOnlyHttpHeaders(headers);
+    }
+
+    public String getProcessDefinitionId() {
+        return processDefinitionId;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public HttpHeaders getImmutableHeaders() {
+        return immutableHeaders;
+    }
+
+    public HttpHeaders getRevalidateHeaders() {
+        return revalidateHeaders;
+    }
+}
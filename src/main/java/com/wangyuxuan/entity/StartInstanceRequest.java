@@ -0,0 +1,60 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/13 9:40
+ * @Description: 批量启动工作流的一项
+ */
+public class StartInstanceRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 部署了的流程id
+     */
+    private String processDefinitionId;
+    /**
+     * 代办组或者代办人 格式 users:******* (条件)
+     */
+    private Map<String, Object> variables;
+    /**
+     * 业务key 可以为空
+     */
+    private String businessKey;
+
+    public StartInstanceRequest() {
+    }
+
+    public StartInstanceRequest(String processDefinitionId, Map<String, Object> variables, String businessKey) {
+        this.processDefinitionId = processDefinitionId;
+        this.variables = variables;
+        this.businessKey = businessKey;
+    }
+
+    public String getProcessDefinitionId() {
+        return processDefinitionId;
+    }
+
+    public void setProcessDefinitionId(String processDefinitionId) {
+        this.processDefinitionId = processDefinitionId;
+    }
+
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, Object> variables) {
+        this.variables = variables;
+    }
+
+    public String getBusinessKey() {
+        return businessKey;
+    }
+
+    public void setBusinessKey(String businessKey) {
+        this.businessKey = businessKey;
+    }
+}
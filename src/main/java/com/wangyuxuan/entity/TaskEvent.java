@@ -0,0 +1,80 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 15:20
+ * @Description: 推送给用户的任务变化
+ */
+public class TaskEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CREATED = "CREATED";
+    public static final String ASSIGNED = "ASSIGNED";
+    public static final String COMPLETED = "COMPLETED";
+    /**
+     * 任务的候选人(组)增加或删除
+     */
+    public static final String CANDIDATES = "CANDIDATES";
+
+    /**
+     * 变化类型 CREATED ASSIGNED COMPLETED CANDIDATES
+     */
+    private String type;
+    /**
+     * 任务id
+     */
+    private String taskId;
+    /**
+     * 任务名称
+     */
+    private String taskName;
+    /**
+     * 签收人
+     */
+    private String assignee;
+    /**
+     * 工作流id
+     */
+    private String processInstanceId;
+    /**
+     * 发生时间 毫秒
+     */
+    private long time;
+
+    public TaskEvent(String type, String taskId, String taskName, String assignee, String processInstanceId,
+                     long time) {
+        this.type = type;
+        this.taskId = taskId;
+        this.taskName = taskName;
+        this.assignee = assignee;
+        this.processInstanceId = processInstanceId;
+        this.time = time;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public String getAssignee() {
+        return assignee;
+    }
+
+    public String getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public long getTime() {
+        return time;
+    }
+}
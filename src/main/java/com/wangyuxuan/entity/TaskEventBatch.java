@@ -0,0 +1,36 @@
+package com.wangyuxuan.entity;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 15:26
+ * @Description: 一次长轮询返回的任务变化
+ */
+public class TaskEventBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 任务变化 同一任务只保留最后一次
+     */
+    private List<TaskEvent> events;
+    /**
+     * 为true时有变化被丢弃(队列满或订阅数满) 客户端应重新拉取完整待办
+     */
+    private boolean resync;
+
+    public TaskEventBatch(List<TaskEvent> events, boolean resync) {
+        this.events = events;
+        this.resync = resync;
+    }
+
+    public List<TaskEvent> getEvents() {
+        return events;
+    }
+
+    public boolean isResync() {
+        return resync;
+    }
+}
@@ -0,0 +1,84 @@
+package com.wangyuxuan.entity;
+
+import org.activiti.engine.task.IdentityLink;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/11 9:20
+ * @Description: 批量查询出的任务身份关联 与 taskService.getIdentityLinksForTask 返回的内容一致
+ */
+public class TaskLink implements IdentityLink, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 类型 candidate assignee owner 等
+     */
+    private String type;
+    private String userId;
+    private String groupId;
+    private String taskId;
+    private String processInstanceId;
+
+    public TaskLink() {
+    }
+
+    public TaskLink(String type, String userId, String groupId, String taskId) {
+        this.type = type;
+        this.userId = userId;
+        this.groupId = groupId;
+        this.taskId = taskId;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    @Override
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    @Override
+    public String getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(String taskId) {
+        this.taskId = taskId;
+    }
+
+    @Override
+    public String getProcessDefinitionId() {
+        return null;
+    }
+
+    @Override
+    public String getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public void setProcessInstanceId(String processInstanceId) {
+        this.processInstanceId = processInstanceId;
+    }
+}
@@ -0,0 +1,141 @@
+package com.wangyuxuan.listener;
+
+import com.wangyuxuan.cache.InboxVersionTracker;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.Task;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 11:02
+ * @Description: 任务 候选人 工作流变化时在事务提交后更新 {@link InboxVersionTracker}
+ * 提交前更新的话, 并发的轮询可能用新版本号缓存了旧数据
+ */
+@Component("inboxVersionListener")
+public class InboxVersionListener implements ActivitiEventListener {
+
+    @Autowired
+    private InboxVersionTracker inboxVersionTracker;
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        switch (event.getType()) {
+            case TASK_CREATED:
+            case TASK_ASSIGNED:
+            case TASK_COMPLETED:
+            case ENTITY_UPDATED:
+            case ENTITY_DELETED:
+            case ENTITY_CREATED:
+                onEntityEvent(event);
+                break;
+            case PROCESS_COMPLETED:
+            case PROCESS_COMPLETED_WITH_ERROR_END_EVENT:
+            case PROCESS_CANCELLED:
+                final String processInstanceId = event.getProcessInstanceId();
+                if (processInstanceId != null) {
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            inboxVersionTracker.instanceChanged(processInstanceId);
+                        }
+                    });
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onEntityEvent(ActivitiEvent event) {
+        if (!(event instanceof ActivitiEntityEvent)) {
+            return;
+        }
+        Object entity = ((ActivitiEntityEvent) event).getEntity();
+        if (entity instanceof Task) {
+            final Task task = (Task) entity;
+            if (event.getType() == ActivitiEventType.ENTITY_CREATED) {
+                //等 TASK_CREATED
+                return;
+            }
+            final List<String> principals = new ArrayList<String>();
+            addPrincipals(principals, task.getAssignee());
+            addPrincipals(principals, task.getOwner());
+            final String taskId = task.getId();
+            final String processInstanceId = task.getProcessInstanceId();
+            final boolean created = event.getType() == ActivitiEventType.TASK_CREATED;
+            final boolean ended = event.getType() == ActivitiEventType.TASK_COMPLETED
+                    || event.getType() == ActivitiEventType.ENTITY_DELETED;
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    inboxVersionTracker.taskChanged(taskId, processInstanceId, principals, created, ended);
+                }
+            });
+        } else if (entity instanceof IdentityLink) {
+            IdentityLink link = (IdentityLink) entity;
+            final String taskId = link.getTaskId();
+            if (taskId == null) {
+                return;
+            }
+            final List<String> principals = new ArrayList<String>();
+            addPrincipals(principals, link.getUserId());
+            addPrincipals(principals, link.getGroupId());
+            afterCommit(new Runnable() {
+                @Override
+                public void run() {
+                    inboxVersionTracker.candidatesChanged(taskId, principals);
+                }
+            });
+        }
+    }
+
+    /**
+     * 逗号拼接的组也按单个用户计
+     */
+    private void addPrincipals(List<String> principals, String ids) {
+        if (StringUtils.isBlank(ids)) {
+            return;
+        }
+        principals.add(ids);
+        if (ids.indexOf(",") >= 0) {
+            for (String id : ids.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    principals.add(id);
+                }
+            }
+        }
+    }
+
+    private void afterCommit(final Runnable runnable) {
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext == null) {
+            runnable.run();
+            return;
+        }
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        runnable.run();
+                    }
+                });
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+}
@@ -0,0 +1,96 @@
+package com.wangyuxuan.listener;
+
+import com.wangyuxuan.cache.ProcessDefinitionCatalog;
+import com.wangyuxuan.entity.ProcessDefinitionInfo;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.repository.Deployment;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/12 11:30
+ * @Description: 部署 修改 挂起 删除流程定义时增量更新 {@link ProcessDefinitionCatalog}
+ * 在事务提交后才更新, 回滚的部署不会进入目录; 新部署(ENTITY_INITIALIZED)的定义作为该 key 的最新版本
+ */
+@Component("processDefinitionCatalogListener")
+public class ProcessDefinitionCatalogListener implements ActivitiEventListener {
+
+    @Autowired
+    private ProcessDefinitionCatalog processDefinitionCatalog;
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        if (!(event instanceof ActivitiEntityEvent)) {
+            return;
+        }
+        Object entity = ((ActivitiEntityEvent) event).getEntity();
+        switch (event.getType()) {
+            case ENTITY_INITIALIZED:
+            case ENTITY_UPDATED:
+            case ENTITY_SUSPENDED:
+            case ENTITY_ACTIVATED:
+                if (entity instanceof ProcessDefinition) {
+                    //事件触发时复制, 提交后放入
+                    final ProcessDefinitionInfo definition = new ProcessDefinitionInfo((ProcessDefinition) entity);
+                    final boolean deployed = event.getType() == ActivitiEventType.ENTITY_INITIALIZED;
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            processDefinitionCatalog.put(definition, deployed);
+                        }
+                    });
+                }
+                break;
+            case ENTITY_DELETED:
+                if (entity instanceof ProcessDefinition) {
+                    final String id = ((ProcessDefinition) entity).getId();
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            processDefinitionCatalog.remove(id);
+                        }
+                    });
+                } else if (entity instanceof Deployment) {
+                    final String deploymentId = ((Deployment) entity).getId();
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            processDefinitionCatalog.removeDeployment(deploymentId);
+                        }
+                    });
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void afterCommit(final Runnable runnable) {
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext == null) {
+            runnable.run();
+            return;
+        }
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        runnable.run();
+                    }
+                });
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+}
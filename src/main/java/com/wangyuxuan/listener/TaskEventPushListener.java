@@ -0,0 +1,133 @@
+package com.wangyuxuan.listener;
+
+import com.wangyuxuan.entity.TaskEvent;
+import com.wangyuxuan.util.TaskEventHub;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.IdentityLinkEntity;
+import org.activiti.engine.impl.persistence.entity.TaskEntity;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 16:02
+ * @Description: 任务创建 签收 完成 候选人(组)增删时把变化推送给签收人 拥有人和候选人(组) 见 {@link TaskEventHub}
+ * 参与人在事务内从任务上读取(完成后身份关联会被删除), 事务提交后再发布; 之前的参与人由 TaskEventHub 按任务记录
+ * 创建后再添加的候选组(addGroupIds addCandidateGroups)由身份关联的增加事件推送
+ */
+@Component("taskEventPushListener")
+public class TaskEventPushListener implements ActivitiEventListener {
+
+    @Autowired
+    private TaskEventHub taskEventHub;
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        String type;
+        switch (event.getType()) {
+            case TASK_CREATED:
+                type = TaskEvent.CREATED;
+                break;
+            case TASK_ASSIGNED:
+                type = TaskEvent.ASSIGNED;
+                break;
+            case TASK_COMPLETED:
+                type = TaskEvent.COMPLETED;
+                break;
+            case ENTITY_CREATED:
+            case ENTITY_DELETED:
+                onLinkEvent(event);
+                return;
+            default:
+                return;
+        }
+        if (!(event instanceof ActivitiEntityEvent)
+                || !(((ActivitiEntityEvent) event).getEntity() instanceof TaskEntity)) {
+            return;
+        }
+        TaskEntity task = (TaskEntity) ((ActivitiEntityEvent) event).getEntity();
+        Set<String> principals = new LinkedHashSet<String>();
+        addPrincipals(principals, task.getAssignee());
+        addPrincipals(principals, task.getOwner());
+        for (IdentityLinkEntity link : task.getIdentityLinks()) {
+            addPrincipals(principals, link.getUserId());
+            addPrincipals(principals, link.getGroupId());
+        }
+        publishAfterCommit(principals, newEvent(type, task), TaskEvent.COMPLETED.equals(type));
+    }
+
+    /**
+     * 任务的候选人(组)增加或删除 工作流的身份关联不推送
+     */
+    private void onLinkEvent(ActivitiEvent event) {
+        if (!(event instanceof ActivitiEntityEvent)
+                || !(((ActivitiEntityEvent) event).getEntity() instanceof IdentityLinkEntity)) {
+            return;
+        }
+        IdentityLinkEntity link = (IdentityLinkEntity) ((ActivitiEntityEvent) event).getEntity();
+        if (link.getTaskId() == null) {
+            return;
+        }
+        TaskEntity task = link.getTask();
+        if (task == null || task.isDeleted()) {
+            //任务完成或删除时一起删除的身份关联 已由 TASK_COMPLETED 推送
+            return;
+        }
+        Set<String> principals = new LinkedHashSet<String>();
+        addPrincipals(principals, link.getUserId());
+        addPrincipals(principals, link.getGroupId());
+        publishAfterCommit(principals, newEvent(TaskEvent.CANDIDATES, task), false);
+    }
+
+    private static TaskEvent newEvent(String type, TaskEntity task) {
+        return new TaskEvent(type, task.getId(), task.getName(), task.getAssignee(), task.getProcessInstanceId(),
+                System.currentTimeMillis());
+    }
+
+    private void publishAfterCommit(final Set<String> principals, final TaskEvent taskEvent, final boolean ended) {
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext == null) {
+            taskEventHub.publishTask(principals, taskEvent, ended);
+            return;
+        }
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        taskEventHub.publishTask(principals, taskEvent, ended);
+                    }
+                });
+    }
+
+    /**
+     * 逗号拼接的组也按单个用户计
+     */
+    private void addPrincipals(Set<String> principals, String ids) {
+        if (StringUtils.isBlank(ids)) {
+            return;
+        }
+        principals.add(ids);
+        if (ids.indexOf(",") >= 0) {
+            for (String id : ids.split(",")) {
+                if (StringUtils.isNotBlank(id)) {
+                    principals.add(id);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+}
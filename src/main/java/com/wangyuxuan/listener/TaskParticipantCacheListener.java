@@ -0,0 +1,75 @@
+package com.wangyuxuan.listener;
+
+import com.wangyuxuan.cache.TaskParticipantCache;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.Task;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/11 14:48
+ * @Description: 任务签收 完成 修改 删除 以及身份关联增删时失效 {@link TaskParticipantCache}
+ * 事件在事务内触发, 提交后再失效一次 避免提交前被并发请求重新缓存了旧数据
+ */
+@Component("taskParticipantCacheListener")
+public class TaskParticipantCacheListener implements ActivitiEventListener {
+
+    @Autowired
+    private TaskParticipantCache taskParticipantCache;
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        final String taskId = getTaskId(event);
+        if (taskId == null) {
+            return;
+        }
+        taskParticipantCache.invalidate(taskId);
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext != null) {
+            commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                    new TransactionListener() {
+                        @Override
+                        public void execute(CommandContext commandContext) {
+                            taskParticipantCache.invalidate(taskId);
+                        }
+                    });
+        }
+    }
+
+    private String getTaskId(ActivitiEvent event) {
+        switch (event.getType()) {
+            case TASK_ASSIGNED:
+            case TASK_COMPLETED:
+            case ENTITY_UPDATED:
+            case ENTITY_DELETED:
+            case ENTITY_CREATED:
+                break;
+            default:
+                return null;
+        }
+        if (!(event instanceof ActivitiEntityEvent)) {
+            return null;
+        }
+        Object entity = ((ActivitiEntityEvent) event).getEntity();
+        if (entity instanceof Task) {
+            return ((Task) entity).getId();
+        }
+        if (entity instanceof IdentityLink) {
+            return ((IdentityLink) entity).getTaskId();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+}
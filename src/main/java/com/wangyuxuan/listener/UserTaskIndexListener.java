@@ -0,0 +1,119 @@
+package com.wangyuxuan.listener;
+
+import com.wangyuxuan.cache.UserTaskIndex;
+import org.activiti.engine.delegate.event.ActivitiEntityEvent;
+import org.activiti.engine.delegate.event.ActivitiEvent;
+import org.activiti.engine.delegate.event.ActivitiEventListener;
+import org.activiti.engine.delegate.event.ActivitiEventType;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.IdentityLinkType;
+import org.activiti.engine.task.Task;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/18 10:52
+ * @Description: 任务新建 签收 完成 删除 候选关联增删时在事务提交后更新 {@link UserTaskIndex}
+ */
+@Component("userTaskIndexListener")
+public class UserTaskIndexListener implements ActivitiEventListener {
+
+    @Autowired
+    private UserTaskIndex userTaskIndex;
+
+    @Override
+    public void onEvent(ActivitiEvent event) {
+        if (!(event instanceof ActivitiEntityEvent)) {
+            return;
+        }
+        Object entity = ((ActivitiEntityEvent) event).getEntity();
+        ActivitiEventType type = event.getType();
+        if (entity instanceof Task) {
+            final Task task = (Task) entity;
+            final String taskId = task.getId();
+            switch (type) {
+                case ENTITY_CREATED:
+                case TASK_CREATED:
+                    //ENTITY_CREATED 在插入时 先于同一事务中的候选关联; TASK_CREATED 在任务监听之后 可能已签收
+                    final String processInstanceId = task.getProcessInstanceId();
+                    final String createdAssignee = task.getAssignee();
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            userTaskIndex.taskCreated(taskId, processInstanceId, createdAssignee);
+                        }
+                    });
+                    break;
+                case TASK_ASSIGNED:
+                case ENTITY_UPDATED:
+                    final String assignee = task.getAssignee();
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            userTaskIndex.taskChanged(taskId, assignee);
+                        }
+                    });
+                    break;
+                case TASK_COMPLETED:
+                case ENTITY_DELETED:
+                    afterCommit(new Runnable() {
+                        @Override
+                        public void run() {
+                            userTaskIndex.taskRemoved(taskId);
+                        }
+                    });
+                    break;
+                default:
+                    break;
+            }
+        } else if (entity instanceof IdentityLink) {
+            IdentityLink link = (IdentityLink) entity;
+            final String taskId = link.getTaskId();
+            if (taskId == null || !IdentityLinkType.CANDIDATE.equals(link.getType())) {
+                return;
+            }
+            final String userId = link.getUserId();
+            final String groupId = link.getGroupId();
+            if (type == ActivitiEventType.ENTITY_CREATED) {
+                afterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        userTaskIndex.candidateAdded(taskId, userId, groupId);
+                    }
+                });
+            } else if (type == ActivitiEventType.ENTITY_DELETED) {
+                afterCommit(new Runnable() {
+                    @Override
+                    public void run() {
+                        userTaskIndex.candidateRemoved(taskId, userId, groupId);
+                    }
+                });
+            }
+        }
+    }
+
+    private void afterCommit(final Runnable runnable) {
+        CommandContext commandContext = Context.getCommandContext();
+        if (commandContext == null) {
+            runnable.run();
+            return;
+        }
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        runnable.run();
+                    }
+                });
+    }
+
+    @Override
+    public boolean isFailOnException() {
+        return false;
+    }
+}
@@ -1,21 +1,62 @@
 package com.wangyuxuan.util;
 
+import com.wangyuxuan.cache.CacheStats;
+import com.wangyuxuan.cache.EndedInstanceCache;
+import com.wangyuxuan.cache.InboxVersionTracker;
+import com.wangyuxuan.cache.LatencyStats;
+import com.wangyuxuan.cache.ProcessDefinitionCatalog;
+import com.wangyuxuan.cache.TaskParticipantCache;
+import com.wangyuxuan.cache.TaskParticipants;
+import com.wangyuxuan.cache.UserIdDictionary;
+import com.wangyuxuan.cache.UserTaskIndex;
+import com.wangyuxuan.dao.T_userMapper;
+import com.wangyuxuan.entity.BatchItemResult;
+import com.wangyuxuan.entity.ExecutionActivity;
+import com.wangyuxuan.entity.InboxCursor;
+import com.wangyuxuan.entity.InboxPage;
+import com.wangyuxuan.entity.InboxScope;
+import com.wangyuxuan.entity.InboxTask;
+import com.wangyuxuan.entity.StartInstanceRequest;
+import com.wangyuxuan.entity.TaskLink;
 import org.activiti.engine.*;
 import org.activiti.engine.history.HistoricTaskInstance;
+import org.activiti.engine.identity.Group;
+import org.activiti.engine.impl.cmd.CompleteTaskCmd;
+import org.activiti.engine.impl.cmd.StartProcessInstanceCmd;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.IdentityLinkEntity;
+import org.activiti.engine.impl.persistence.entity.TaskEntity;
 import org.activiti.engine.repository.ProcessDefinition;
 import org.activiti.engine.runtime.ProcessInstance;
 import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.IdentityLinkType;
+import org.activiti.engine.task.NativeTaskQuery;
 import org.activiti.engine.task.Task;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @Auther: wangyuxuan
@@ -46,6 +87,52 @@ public class ActivitiUtils {
     protected ManagementService managementService;
     @Autowired
     protected IdentityService identityService;
+    @Autowired
+    protected T_userMapper userMapper;
+    @Autowired
+    protected TaskParticipantCache taskParticipantCache;
+    @Autowired
+    protected ProcessDefinitionCatalog processDefinitionCatalog;
+
+    /**
+     * IN 查询每批的最大id数
+     */
+    private static final int IN_BATCH_SIZE = 500;
+
+    /**
+     * 批量操作每批(每个事务)的默认条数
+     */
+    @Value("${batch.chunkSize:100}")
+    private int batchChunkSize;
+    /**
+     * 批量完成任务的并行线程数
+     */
+    @Value("${batch.parallelism:4}")
+    private int batchParallelism;
+    /**
+     * 待办每页最多条数 请求的 limit 超过时按这个值
+     */
+    @Value("${inbox.maxLimit:200}")
+    private int inboxMaxLimit;
+    @Autowired
+    @Qualifier("activitiBatchExecutor")
+    private AsyncTaskExecutor batchExecutor;
+    @Autowired
+    private EngineAsyncExecutor engineAsyncExecutor;
+    @Autowired
+    protected InboxVersionTracker inboxVersionTracker;
+    @Autowired
+    protected UserTaskIndex userTaskIndex;
+    @Autowired
+    protected EndedInstanceCache endedInstanceCache;
+    @Autowired
+    protected HistoryWriteBehind historyWriteBehind;
+    @Autowired
+    protected HistoryArchiver historyArchiver;
+    @Autowired
+    protected CandidateLinkNormalizer candidateLinkNormalizer;
+    @Autowired
+    protected UserIdDictionary userIdDictionary;
 
     /**
      * 日志
@@ -60,14 +147,26 @@ public class ActivitiUtils {
      */
     public List<ProcessDefinition> getProcessDefinitions(String category) {
         logger.info("【获取当前部署了的流程】category={}", category);
-        List<ProcessDefinition> processDefinitions = new ArrayList<ProcessDefinition>();
-        if (StringUtils.isBlank(category)) {
-            processDefinitions = repositoryService.createProcessDefinitionQuery().list();
-        } else {
-            processDefinitions = repositoryService.createProcessDefinitionQuery()
-                    .processDefinitionCategory(category).list();
+        long start = System.nanoTime();
+        try {
+            loadProcessDefinitionCatalog();
+            List<ProcessDefinition> processDefinitions = processDefinitionCatalog.getByCategory(category);
+            if (processDefinitions != null) {
+                return processDefinitions;
+            }
+            long generation = processDefinitionCatalog.generation();
+            if (StringUtils.isBlank(category)) {
+                processDefinitions = repositoryService.createProcessDefinitionQuery().list();
+                processDefinitionCatalog.load(processDefinitions, generation);
+            } else {
+                processDefinitions = repositoryService.createProcessDefinitionQuery()
+                        .processDefinitionCategory(category).list();
+                processDefinitionCatalog.loadCategory(category, processDefinitions, generation);
+            }
+            return processDefinitions;
+        } finally {
+            processDefinitionCatalog.recordCategoryLatency(category, System.nanoTime() - start);
         }
-        return processDefinitions;
     }
 
 
@@ -77,7 +176,74 @@ public class ActivitiUtils {
      * @return
      */
     public List<ProcessDefinition> getProcessDefinition(String id) {
-        return repositoryService.createProcessDefinitionQuery().processDefinitionId(id).list();
+        loadProcessDefinitionCatalog();
+        ProcessDefinition processDefinition = processDefinitionCatalog.getById(id);
+        if (processDefinition != null) {
+            return Collections.singletonList(processDefinition);
+        }
+        long generation = processDefinitionCatalog.generation();
+        List<ProcessDefinition> processDefinitions = repositoryService.createProcessDefinitionQuery()
+                .processDefinitionId(id).list();
+        for (ProcessDefinition definition : processDefinitions) {
+            //可能是旧版本 不作为最新版本
+            processDefinitionCatalog.put(definition, false, generation);
+        }
+        return processDefinitions;
+    }
+
+
+    /**
+     * 获取key对应的最新版本流程
+     *
+     * @param key 流程定义key
+     * @return 没有部署时返回null
+     */
+    public ProcessDefinition getLatestProcessDefinition(String key) {
+        loadProcessDefinitionCatalog();
+        ProcessDefinition processDefinition = processDefinitionCatalog.getLatestByKey(key);
+        if (processDefinition == null) {
+            long generation = processDefinitionCatalog.generation();
+            processDefinition = repositoryService.createProcessDefinitionQuery()
+                    .processDefinitionKey(key).latestVersion().singleResult();
+            if (processDefinition != null) {
+                processDefinitionCatalog.put(processDefinition, true, generation);
+            }
+        }
+        return processDefinition;
+    }
+
+
+    /**
+     * 获取流程定义目录缓存的统计
+     *
+     * @return 命中 未命中 淘汰 失效次数等
+     */
+    public CacheStats getProcessDefinitionCatalogStats() {
+        return processDefinitionCatalog.stats();
+    }
+
+
+    /**
+     * 获取按类型查询流程的耗时统计
+     *
+     * @return key:类型(全部为*),value:耗时统计
+     */
+    public Map<String, LatencyStats> getProcessDefinitionLatency() {
+        return processDefinitionCatalog.getCategoryLatency();
+    }
+
+
+    /**
+     * 首次使用或过期时全量加载流程定义目录 查询期间有部署事件时放弃, 下次使用时再加载
+     */
+    private void loadProcessDefinitionCatalog() {
+        if (!processDefinitionCatalog.isLoaded()) {
+            long generation = processDefinitionCatalog.generation();
+            logger.info("【加载流程定义目录】");
+            if (!processDefinitionCatalog.load(repositoryService.createProcessDefinitionQuery().list(), generation)) {
+                logger.info("【加载流程定义目录期间有部署变化 下次使用时重新加载】");
+            }
+        }
     }
 
 
@@ -109,15 +275,131 @@ public class ActivitiUtils {
 
 
     /**
-     * 获取工作流所处的位置
+     * 异步启动工作流 async.enabled=true 时在调用线程中创建工作流实例并写入变量, 从开始节点的推进作为作业落库后在引擎线程池中执行
+     * 否则同步执行
+     *
+     * @param processDefinitionId 部署了的流程id
+     * @param querys              代办组或者代办人 格式 users:******* (条件)
+     * @return 工作流实例落库(事务提交)后完成 结果为启动的工作流id, 此时第一个任务可能还未创建
+     */
+    public CompletableFuture<String> startActivitAsync(String processDefinitionId, Map<String, Object> querys) {
+        logger.info("【异步启动工作流】processDefinitionId={},users={}", processDefinitionId, querys);
+        return engineAsyncExecutor.startProcessInstance(processDefinitionId, querys);
+    }
+
+
+    /**
+     * 批量启动工作流 按默认条数分批
+     *
+     * @param requests 启动项
+     * @return 每一项的结果 与请求顺序一致
+     */
+    public List<BatchItemResult> startActivitBatch(List<StartInstanceRequest> requests) {
+        return startActivitBatch(requests, batchChunkSize);
+    }
+
+
+    /**
+     * 批量启动工作流 每批在同一个命令(同一个事务)中启动
+     * 某一批失败时该批回滚, 再逐个启动找出失败项, 其他批不受影响
+     *
+     * @param requests  启动项
+     * @param chunkSize 每批条数
+     * @return 每一项的结果 与请求顺序一致
+     */
+    public List<BatchItemResult> startActivitBatch(List<StartInstanceRequest> requests, int chunkSize) {
+        logger.info("【批量启动工作流】size={},chunkSize={}", requests.size(), chunkSize);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize必须大于0 chunkSize=" + chunkSize);
+        }
+        List<BatchItemResult> results = new ArrayList<BatchItemResult>(requests.size());
+        for (int from = 0; from < requests.size(); from += chunkSize) {
+            final List<StartInstanceRequest> chunk = requests.subList(from, Math.min(from + chunkSize, requests.size()));
+            List<String> instanceIds;
+            try {
+                instanceIds = managementService.executeCommand(new Command<List<String>>() {
+                    @Override
+                    public List<String> execute(CommandContext commandContext) {
+                        List<String> ids = new ArrayList<String>(chunk.size());
+                        for (StartInstanceRequest request : chunk) {
+                            ProcessInstance pi = new StartProcessInstanceCmd<ProcessInstance>(null,
+                                    request.getProcessDefinitionId(), request.getBusinessKey(),
+                                    request.getVariables()).execute(commandContext);
+                            ids.add(pi.getId());
+                        }
+                        return ids;
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn("【批量启动工作流】第{}条开始的一批失败 逐个重试 error={}", from, e.getMessage());
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.add(startActivitOne(from + i, chunk.get(i)));
+                }
+                continue;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                results.add(BatchItemResult.success(from + i, chunk.get(i).getProcessDefinitionId(), instanceIds.get(i)));
+            }
+        }
+        return results;
+    }
+
+
+    /**
+     * 单独启动一项 失败时记录原因
+     */
+    private BatchItemResult startActivitOne(int index, StartInstanceRequest request) {
+        try {
+            ProcessInstance pi = runtimeService.startProcessInstanceById(request.getProcessDefinitionId(),
+                    request.getBusinessKey(), request.getVariables());
+            return BatchItemResult.success(index, request.getProcessDefinitionId(), pi.getId());
+        } catch (RuntimeException e) {
+            logger.warn("【批量启动工作流】第{}条启动失败 processDefinitionId={},error={}", index,
+                    request.getProcessDefinitionId(), e.getMessage());
+            return BatchItemResult.failure(index, request.getProcessDefinitionId(),
+                    e instanceof ActivitiOptimisticLockingException, e.getMessage());
+        }
+    }
+
+
+    /**
+     * 获取工作流所处的位置 只读 并行分支时返回第一个
      *
      * @param instanceId 工作流id
-     * @return 位置
+     * @return 位置 工作流已结束时返回null
      */
     public String getActivitiNow(String instanceId) {
         logger.info("【获取工作流所处的位置】instanceId={}", instanceId);
-        ProcessInstance instance = runtimeService.startProcessInstanceByKey(instanceId);
-        return instance.getActivityId();
+        List<String> activityIds = getActivitiNow(Collections.singletonList(instanceId)).get(instanceId);
+        return activityIds == null ? null : activityIds.get(0);
+    }
+
+
+    /**
+     * 批量获取工作流所处的位置 只读 一次查询
+     *
+     * @param instanceIds 工作流id集合
+     * @return key:工作流id,value:当前节点id集合 并行分支时有多个, 已结束的工作流不在结果中
+     */
+    public Map<String, List<String>> getActivitiNow(Collection<String> instanceIds) {
+        logger.info("【批量获取工作流所处的位置】size={}", instanceIds == null ? 0 : instanceIds.size());
+        Map<String, List<String>> activityIds = new LinkedHashMap<String, List<String>>();
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return activityIds;
+        }
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(instanceIds));
+        for (int i = 0; i < ids.size(); i += IN_BATCH_SIZE) {
+            for (ExecutionActivity activity : userMapper.selectActiveActivities(
+                    ids.subList(i, Math.min(i + IN_BATCH_SIZE, ids.size())))) {
+                List<String> list = activityIds.get(activity.getProcessInstanceId());
+                if (list == null) {
+                    list = new ArrayList<String>(1);
+                    activityIds.put(activity.getProcessInstanceId(), list);
+                }
+                list.add(activity.getActivityId());
+            }
+        }
+        return activityIds;
     }
 
 
@@ -129,12 +411,61 @@ public class ActivitiUtils {
      */
     public Boolean validateActiviti(String instanceId) {
         logger.info("【验证工作流是不是已经停止】instanceId={}", instanceId);
-        ProcessInstance pi = runtimeService.createProcessInstanceQuery()
-                .processInstanceId(instanceId).singleResult();
-        if (pi != null) {
-            return false;
+        return isEnded(instanceId);
+    }
+
+
+    /**
+     * 批量验证工作流是不是已经停止 已结束的工作流会被缓存, 再次验证不查库
+     *
+     * @param instanceIds 工作流id集合
+     * @return 已经停止的工作流id 按传入顺序
+     */
+    public Set<String> getEndedInstanceIds(Collection<String> instanceIds) {
+        logger.info("【批量验证工作流是不是已经停止】size={}", instanceIds == null ? 0 : instanceIds.size());
+        Set<String> ended = new LinkedHashSet<String>();
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return ended;
+        }
+        Set<String> cached = endedInstanceCache.getEnded(instanceIds);
+        List<String> unknown = new ArrayList<String>();
+        for (String instanceId : new LinkedHashSet<String>(instanceIds)) {
+            if (!cached.contains(instanceId)) {
+                unknown.add(instanceId);
+            }
+        }
+        Set<String> notRunning = new HashSet<String>(unknown);
+        for (int i = 0; i < unknown.size(); i += IN_BATCH_SIZE) {
+            notRunning.removeAll(userMapper.selectRunningInstanceIds(
+                    unknown.subList(i, Math.min(i + IN_BATCH_SIZE, unknown.size()))));
+        }
+        if (!notRunning.isEmpty()) {
+            //只缓存历史表确认结束的 不存在的id不缓存
+            List<String> candidates = new ArrayList<String>(notRunning);
+            for (int i = 0; i < candidates.size(); i += IN_BATCH_SIZE) {
+                endedInstanceCache.putAll(userMapper.selectFinishedInstanceIds(
+                        candidates.subList(i, Math.min(i + IN_BATCH_SIZE, candidates.size()))));
+            }
+        }
+        for (String instanceId : instanceIds) {
+            if (cached.contains(instanceId) || notRunning.contains(instanceId)) {
+                ended.add(instanceId);
+            }
         }
-        return true;
+        return ended;
+    }
+
+
+    /**
+     * 已结束工作流缓存的统计
+     */
+    public CacheStats getEndedInstanceCacheStats() {
+        return endedInstanceCache.stats();
+    }
+
+
+    private boolean isEnded(String instanceId) {
+        return getEndedInstanceIds(Collections.singletonList(instanceId)).contains(instanceId);
     }
 
 
@@ -146,11 +477,11 @@ public class ActivitiUtils {
      */
     public Boolean validateUserIn(String userId) {
         logger.info("【验证用户是否处于工作流的当前任务组】userId={}", userId);
-        List<Task> list = getUserHaveTasks(userId);
-        if (list != null && list.size() > 0) {
-            return true;
+        Boolean indexed = userTaskIndex.hasTasks(userId, getUserGroupIds(userId));
+        if (indexed != null) {
+            return indexed;
         }
-        return false;
+        return userMapper.existsUserInboxTask(userId) > 0;
     }
 
 
@@ -162,21 +493,80 @@ public class ActivitiUtils {
      */
     public List<Task> getUserHaveTasks(String userId) {
         logger.info("【获取用户当前处于的任务集合】userId={}", userId);
-        List<Task> list = taskService.createTaskQuery().taskCandidateGroup(userId).list();
-        List<Task> listTwo = taskService.createTaskQuery().taskAssignee(userId).list();
-        List<Task> listThree = taskService.createTaskQuery().taskCandidateUser(userId).list();
-        //排除重复的
-        for (int i = 0; i < listTwo.size(); i++) {
-            if (!list.contains(listTwo.get(i))) {
-                list.add(listTwo.get(i));
-            }
-        }
-        for (Task task : listThree) {
-            if (!list.contains(task)) {
-                list.add(task);
+        return taskService.createNativeTaskQuery().sql(InboxSql.selectTasks(InboxScope.ALL, false))
+                .parameter("userId", userId).list();
+    }
+
+
+    /**
+     * 获取用户当前处于的待办 group user assignee 都查 一次查询 只返回轻量任务行
+     *
+     * @param userId 用户
+     * @return 轻量任务行集合 已去重 按创建时间排序
+     */
+    public List<InboxTask> getUserInboxTasks(String userId) {
+        logger.info("【获取用户当前处于的待办】userId={}", userId);
+        return userMapper.selectUserInboxTasks(userId);
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的待办 group user assignee 都查 只返回轻量任务行
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 轻量任务行和下一页游标
+     */
+    public InboxPage<InboxTask> getUserInboxTasks(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的待办】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeInboxTasks(InboxScope.ALL, userId, cursor, limit);
+    }
+
+
+    /**
+     * 获取用户待办的版本号 不查任务表 待办没有变化时版本号不变
+     *
+     * @param userId 用户
+     * @return 版本号
+     */
+    public String getInboxVersion(String userId) {
+        return inboxVersionTracker.getUserVersion(userId, getUserGroupIds(userId));
+    }
+
+    public int getInboxMaxLimit() {
+        return inboxMaxLimit;
+    }
+
+
+    /**
+     * 获取用户所在的组 按 inbox.maxStaleSeconds 时间段缓存
+     *
+     * @param userId 用户
+     * @return 组id集合 已排序
+     */
+    public List<String> getUserGroupIds(String userId) {
+        List<String> groupIds = inboxVersionTracker.getCachedGroups(userId);
+        if (groupIds == null) {
+            groupIds = new ArrayList<String>();
+            for (Group group : identityService.createGroupQuery().groupMember(userId).list()) {
+                groupIds.add(group.getId());
             }
+            Collections.sort(groupIds);
+            inboxVersionTracker.cacheGroups(userId, groupIds);
         }
-        return list;
+        return groupIds;
+    }
+
+
+    /**
+     * 获取工作流状态的版本号 不查库 工作流的任务或状态没有变化时版本号不变
+     *
+     * @param instanceId 工作流id
+     * @return 版本号
+     */
+    public String getInstanceVersion(String instanceId) {
+        return inboxVersionTracker.getInstanceVersion(instanceId);
     }
 
 
@@ -188,12 +578,7 @@ public class ActivitiUtils {
      */
     public List<String> getUserHaveTaskIds(String userId) {
         logger.info("【获取用户当前处于的任务id集合】userId={}", userId);
-        List<Task> list = getUserHaveTasks(userId);
-        List<String> ids = new ArrayList<String>();
-        for (Task task : list) {
-            ids.add(task.getId());
-        }
-        return ids;
+        return toTaskIds(getUserInboxTasks(userId));
     }
 
 
@@ -218,6 +603,11 @@ public class ActivitiUtils {
      */
     public List<String> getUserHaveActivitiIdsAssignee(String userId) {
         logger.info("【获取当前用户处于的工作流id集合】userId={}", userId);
+        List<String> indexed = userTaskIndex.getProcessInstanceIds(InboxScope.ASSIGNEE, userId,
+                Collections.<String>emptyList());
+        if (indexed != null) {
+            return indexed;
+        }
         List<Task> tasks = getUserHaveTasksAssignee(userId);
         List<String> ids = new ArrayList<String>();
         for (Task task : tasks) {
@@ -282,6 +672,11 @@ public class ActivitiUtils {
      */
     public List<String> getUserHaveActivitiIdsGroup(String userId) {
         logger.info("【获取当前用户处于的工作流id集合】userId={}", userId);
+        List<String> indexed = userTaskIndex.getProcessInstanceIds(InboxScope.GROUP, userId,
+                Collections.<String>emptyList());
+        if (indexed != null) {
+            return indexed;
+        }
         List<Task> tasks = getUserHaveTasksGroup(userId);
         List<String> ids = new ArrayList<String>();
         for (Task task : tasks) {
@@ -312,6 +707,11 @@ public class ActivitiUtils {
      */
     public List<String> getUserHaveActivitiIdsUser(String userId) {
         logger.info("【获取当前用户处于的工作流id集合】userId={}", userId);
+        List<String> indexed = userTaskIndex.getProcessInstanceIds(InboxScope.USER, userId,
+                getUserGroupIds(userId));
+        if (indexed != null) {
+            return indexed;
+        }
         List<Task> tasks = getUserHaveTasksUser(userId);
         List<String> ids = new ArrayList<String>();
         for (Task task : tasks) {
@@ -339,115 +739,515 @@ public class ActivitiUtils {
 
 
     /**
-     * 获取当前工作流的当前任务
+     * 分页获取用户当前处于的任务集合 group user assignee 都查
      *
-     * @param instanceId 工作流id
-     * @return {@link List<Task>}
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务集合 按创建时间 任务id排序
      */
-    public List<Task> getInstanceTasks(String instanceId) {
-        logger.info("【获取工作流的当前任务的当前任务】instanceId={}", instanceId);
-        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId).list();
-        return tasks;
+    public List<Task> getUserHaveTasks(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务集合】userId={},page={},limit={}", userId, page, limit);
+        return getScopeTasks(InboxScope.ALL, userId, page, limit);
     }
 
 
     /**
-     * 获取当前工作流的当前任务id集合
+     * 按游标获取用户当前处于的任务集合 group user assignee 都查
      *
-     * @param instanceId 工作流id
-     * @return {@link List<String>}
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务集合和下一页游标
      */
-    public List<String> getInstanceTaskIds(String instanceId) {
-        logger.info("【获取当前工作流的当前任务id集合】instanceId={}", instanceId);
-        List<Task> tasks = getInstanceTasks(instanceId);
-        List<String> taskIds = new ArrayList<String>();
-        for (Task task : tasks) {
-            taskIds.add(task.getId());
-        }
-        return taskIds;
+    public InboxPage<Task> getUserHaveTasks(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTasks(InboxScope.ALL, userId, cursor, limit);
     }
 
 
     /**
-     * 获取当前工作流的该用户的当前任务 只查了 group 和 assignee
+     * 分页获取用户当前处于的任务id集合 group user assignee 都查
      *
-     * @param instanceId 工作流id
-     * @param userId     用户id
-     * @return {@link List<Task>}
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务id集合 按创建时间 任务id排序
      */
-    public List<Task> getInstanceUserTasks(String instanceId, String userId) {
-        logger.info("【获取当前工作流的该用户的当前任务】instanceId={}", instanceId);
-        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId)
-                .taskCandidateGroup(userId).list();
-        List<Task> listTwo = taskService.createTaskQuery().processInstanceId(instanceId)
-                .taskAssignee(userId).list();
-        //排除重复的
-        for (int i = 0; i < listTwo.size(); i++) {
-            if (!tasks.contains(listTwo.get(i))) {
-                tasks.add(listTwo.get(i));
-            }
-        }
-        return tasks;
+    public List<String> getUserHaveTaskIds(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务id集合】userId={},page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return toTaskIds(userMapper.selectInboxTasksPage(InboxScope.ALL.name(), userId, null, null,
+                (page - 1) * limit, limit));
     }
 
 
     /**
-     * 获取当前工作流的该用户的当前任务id集合 只查了 group 和 assignee
+     * 按游标获取用户当前处于的任务id集合 group user assignee 都查
      *
-     * @param instanceId 工作流id
-     * @param userId     用户id
-     * @return {@link List<String>}
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务id集合和下一页游标
      */
-    public List<String> getInstanceUserTaskIds(String instanceId, String userId) {
-        logger.info("【获取工作流的当前任务的当前任务id集合】instanceId={}", instanceId);
-        List<Task> tasks = getInstanceUserTasks(instanceId, userId);
-        List<String> taskIds = new ArrayList<String>();
-        for (Task task : tasks) {
-            taskIds.add(task.getId());
-        }
-        return taskIds;
+    public InboxPage<String> getUserHaveTaskIds(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务id集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTaskIds(InboxScope.ALL, userId, cursor, limit);
     }
 
 
     /**
-     * 获取当前工作流的该用户的当前任务id集合 查了 group 和 assignee user
+     * 获取用户当前处于的任务总数 group user assignee 都查 不加载任务
      *
-     * @param instanceId 工作流id
-     * @param userId     用户id
-     * @param userId     角色或者 继续放入 userId
-     * @return {@link List<String>}
+     * @param userId 用户
+     * @return 任务总数
      */
-    public List<String> getInstanceUserTaskIds(String instanceId, String userId, String role) {
-        logger.info("【获取工作流的当前任务的当前任务id集合】instanceId={}", instanceId);
-        List<Task> tasks = getInstanceUserTasks(instanceId, userId, role);
-        List<String> taskIds = new ArrayList<String>();
-        for (Task task : tasks) {
-            taskIds.add(task.getId());
-        }
-        return taskIds;
+    public long countUserHaveTasks(String userId) {
+        logger.info("【获取用户当前处于的任务总数】userId={},scope=ALL", userId);
+        return userMapper.countInboxTasks(InboxScope.ALL.name(), userId);
     }
 
 
     /**
-     * 获取当前工作流的该用户的当前任务 查了 group 和 assignee user
+     * 分页获取用户当前处于的任务集合 只查Assignee
      *
-     * @param instanceId 工作流id
-     * @param userId     用户id
-     * @param userId     角色或者 继续放入 userId
-     * @return {@link List<Task>}
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务集合 按创建时间 任务id排序
      */
-    public List<Task> getInstanceUserTasks(String instanceId, String userId, String role) {
-        logger.info("【获取当前工作流的该用户的当前任务】instanceId={}", instanceId);
-        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId)
-                .taskCandidateGroup(userId).list();
-        List<Task> listTwo = taskService.createTaskQuery().processInstanceId(instanceId)
-                .taskAssignee(userId).list();
-        List<Task> listThree = taskService.createTaskQuery().processInstanceId(instanceId)
-                .taskCandidateUser(role).list();
-        //排除重复的
-        for (Task task : listThree) {
-            if (!tasks.contains(task)) {
-                tasks.add(task);
+    public List<Task> getUserHaveTasksAssignee(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务集合】userId={},page={},limit={}", userId, page, limit);
+        return getScopeTasks(InboxScope.ASSIGNEE, userId, page, limit);
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务集合 只查Assignee
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务集合和下一页游标
+     */
+    public InboxPage<Task> getUserHaveTasksAssignee(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTasks(InboxScope.ASSIGNEE, userId, cursor, limit);
+    }
+
+
+    /**
+     * 分页获取用户当前处于的任务id集合 只查Assignee
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务id集合 按创建时间 任务id排序
+     */
+    public List<String> getUserHaveTasksIdsAssignee(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务id集合】userId={},page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return toTaskIds(userMapper.selectInboxTasksPage(InboxScope.ASSIGNEE.name(), userId, null, null,
+                (page - 1) * limit, limit));
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务id集合 只查Assignee
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务id集合和下一页游标
+     */
+    public InboxPage<String> getUserHaveTasksIdsAssignee(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务id集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTaskIds(InboxScope.ASSIGNEE, userId, cursor, limit);
+    }
+
+
+    /**
+     * 获取用户当前处于的任务总数 只查Assignee 不加载任务
+     *
+     * @param userId 用户
+     * @return 任务总数
+     */
+    public long countUserHaveTasksAssignee(String userId) {
+        logger.info("【获取用户当前处于的任务总数】userId={},scope=ASSIGNEE", userId);
+        return userMapper.countInboxTasks(InboxScope.ASSIGNEE.name(), userId);
+    }
+
+
+    /**
+     * 分页获取用户当前处于的任务集合 只查Group
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务集合 按创建时间 任务id排序
+     */
+    public List<Task> getUserHaveTasksGroup(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务集合】userId={},page={},limit={}", userId, page, limit);
+        return getScopeTasks(InboxScope.GROUP, userId, page, limit);
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务集合 只查Group
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务集合和下一页游标
+     */
+    public InboxPage<Task> getUserHaveTasksGroup(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTasks(InboxScope.GROUP, userId, cursor, limit);
+    }
+
+
+    /**
+     * 分页获取用户当前处于的任务id集合 只查Group
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务id集合 按创建时间 任务id排序
+     */
+    public List<String> getUserHaveTasksIdsGroup(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务id集合】userId={},page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return toTaskIds(userMapper.selectInboxTasksPage(InboxScope.GROUP.name(), userId, null, null,
+                (page - 1) * limit, limit));
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务id集合 只查Group
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务id集合和下一页游标
+     */
+    public InboxPage<String> getUserHaveTasksIdsGroup(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务id集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTaskIds(InboxScope.GROUP, userId, cursor, limit);
+    }
+
+
+    /**
+     * 获取用户当前处于的任务总数 只查Group 不加载任务
+     *
+     * @param userId 用户
+     * @return 任务总数
+     */
+    public long countUserHaveTasksGroup(String userId) {
+        logger.info("【获取用户当前处于的任务总数】userId={},scope=GROUP", userId);
+        return userMapper.countInboxTasks(InboxScope.GROUP.name(), userId);
+    }
+
+
+    /**
+     * 分页获取用户当前处于的任务集合 只查user
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务集合 按创建时间 任务id排序
+     */
+    public List<Task> getUserHaveTasksUser(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务集合】userId={},page={},limit={}", userId, page, limit);
+        return getScopeTasks(InboxScope.USER, userId, page, limit);
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务集合 只查user
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务集合和下一页游标
+     */
+    public InboxPage<Task> getUserHaveTasksUser(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTasks(InboxScope.USER, userId, cursor, limit);
+    }
+
+
+    /**
+     * 分页获取用户当前处于的任务id集合 只查user
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 任务id集合 按创建时间 任务id排序
+     */
+    public List<String> getUserHaveTasksIdsUser(String userId, int page, int limit) {
+        logger.info("【分页获取用户当前处于的任务id集合】userId={},page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return toTaskIds(userMapper.selectInboxTasksPage(InboxScope.USER.name(), userId, null, null,
+                (page - 1) * limit, limit));
+    }
+
+
+    /**
+     * 按游标获取用户当前处于的任务id集合 只查user
+     *
+     * @param userId 用户
+     * @param cursor 上一页返回的游标 为空时从第一条开始
+     * @param limit  每页条数
+     * @return 任务id集合和下一页游标
+     */
+    public InboxPage<String> getUserHaveTasksIdsUser(String userId, String cursor, int limit) {
+        logger.info("【按游标获取用户当前处于的任务id集合】userId={},cursor={},limit={}", userId, cursor, limit);
+        return getScopeTaskIds(InboxScope.USER, userId, cursor, limit);
+    }
+
+
+    /**
+     * 获取用户当前处于的任务总数 只查user 不加载任务
+     *
+     * @param userId 用户
+     * @return 任务总数
+     */
+    public long countUserHaveTasksUser(String userId) {
+        logger.info("【获取用户当前处于的任务总数】userId={},scope=USER", userId);
+        return userMapper.countInboxTasks(InboxScope.USER.name(), userId);
+    }
+
+
+    /**
+     * 分页获取任务 原生查询返回完整的任务实体
+     */
+    private List<Task> getScopeTasks(InboxScope scope, String userId, int page, int limit) {
+        checkPage(page, limit);
+        return taskService.createNativeTaskQuery().sql(InboxSql.selectTasks(scope, false))
+                .parameter("userId", userId).listPage((page - 1) * limit, limit);
+    }
+
+
+    /**
+     * 按游标获取任务 原生查询返回完整的任务实体
+     */
+    private InboxPage<Task> getScopeTasks(InboxScope scope, String userId, String cursor, int limit) {
+        checkPage(1, limit);
+        InboxCursor after = InboxCursor.decode(cursor);
+        NativeTaskQuery query = taskService.createNativeTaskQuery()
+                .sql(InboxSql.selectTasks(scope, after != null)).parameter("userId", userId);
+        if (after != null) {
+            query.parameter("afterTime", after.getCreateTime()).parameter("afterId", after.getId());
+        }
+        List<Task> tasks = query.listPage(0, limit);
+        String nextCursor = null;
+        if (tasks.size() == limit) {
+            Task last = tasks.get(tasks.size() - 1);
+            nextCursor = new InboxCursor(last.getCreateTime(), last.getId()).encode();
+        }
+        return new InboxPage<Task>(tasks, nextCursor);
+    }
+
+
+    /**
+     * 按游标获取任务id 只查轻量任务行
+     */
+    private InboxPage<String> getScopeTaskIds(InboxScope scope, String userId, String cursor, int limit) {
+        InboxPage<InboxTask> page = getScopeInboxTasks(scope, userId, cursor, limit);
+        return new InboxPage<String>(toTaskIds(page.getItems()), page.getNextCursor());
+    }
+
+
+    /**
+     * 按游标获取轻量任务行
+     */
+    private InboxPage<InboxTask> getScopeInboxTasks(InboxScope scope, String userId, String cursor, int limit) {
+        checkPage(1, limit);
+        InboxCursor after = InboxCursor.decode(cursor);
+        List<InboxTask> rows = userMapper.selectInboxTasksPage(scope.name(), userId,
+                after == null ? null : after.getCreateTime(), after == null ? null : after.getId(), 0, limit);
+        String nextCursor = null;
+        if (rows.size() == limit) {
+            InboxTask last = rows.get(rows.size() - 1);
+            nextCursor = new InboxCursor(last.getCreateTime(), last.getId()).encode();
+        }
+        return new InboxPage<InboxTask>(rows, nextCursor);
+    }
+
+
+    private List<String> toTaskIds(List<InboxTask> rows) {
+        List<String> ids = new ArrayList<String>(rows.size());
+        for (InboxTask row : rows) {
+            ids.add(row.getId());
+        }
+        return ids;
+    }
+
+
+    private void checkPage(int page, int limit) {
+        if (page < 1 || limit < 1) {
+            throw new IllegalArgumentException("page和limit必须大于0 page=" + page + ",limit=" + limit);
+        }
+    }
+
+
+    /**
+     * 归档未开启或归档表还不存在时(第一次归档前) 只查原表
+     */
+    private boolean withArchive(boolean includeArchive) {
+        return includeArchive && historyArchiver.isArchiveAvailable();
+    }
+
+
+    /**
+     * 原表和归档表各取前 offset+limit 条 合并去重后截取 工作流归档时整体移动, 同一工作流一般只在一张表中
+     */
+    private List<String> selectHistoryInstanceIdsWithArchive(InboxScope scope, String userId, String afterId,
+                                                             int offset, int limit) {
+        Set<String> ids = new TreeSet<String>(
+                userMapper.selectHistoryInstanceIds(scope.name(), userId, afterId, 0, offset + limit, false));
+        ids.addAll(userMapper.selectHistoryInstanceIds(scope.name(), userId, afterId, 0, offset + limit, true));
+        List<String> list = new ArrayList<String>(ids);
+        if (offset >= list.size()) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(list.subList(offset, Math.min(offset + limit, list.size())));
+    }
+
+
+    /**
+     * 比对用户任务索引和数据库
+     *
+     * @return 不一致的任务数 索引未加载时返回-1
+     */
+    public int checkUserTaskIndex() {
+        int mismatch = userTaskIndex.check();
+        logger.info("【比对用户任务索引】mismatch={}", mismatch);
+        return mismatch;
+    }
+
+
+    /**
+     * 从数据库重建用户任务索引
+     *
+     * @return 加载的任务数
+     */
+    public int rebuildUserTaskIndex() {
+        logger.info("【重建用户任务索引】");
+        return userTaskIndex.rebuild();
+    }
+
+
+    /**
+     * 获取当前工作流的当前任务
+     *
+     * @param instanceId 工作流id
+     * @return {@link List<Task>}
+     */
+    public List<Task> getInstanceTasks(String instanceId) {
+        logger.info("【获取工作流的当前任务的当前任务】instanceId={}", instanceId);
+        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId).list();
+        return tasks;
+    }
+
+
+    /**
+     * 获取当前工作流的当前任务id集合
+     *
+     * @param instanceId 工作流id
+     * @return {@link List<String>}
+     */
+    public List<String> getInstanceTaskIds(String instanceId) {
+        logger.info("【获取当前工作流的当前任务id集合】instanceId={}", instanceId);
+        List<Task> tasks = getInstanceTasks(instanceId);
+        List<String> taskIds = new ArrayList<String>();
+        for (Task task : tasks) {
+            taskIds.add(task.getId());
+        }
+        return taskIds;
+    }
+
+
+    /**
+     * 获取当前工作流的该用户的当前任务 只查了 group 和 assignee
+     *
+     * @param instanceId 工作流id
+     * @param userId     用户id
+     * @return {@link List<Task>}
+     */
+    public List<Task> getInstanceUserTasks(String instanceId, String userId) {
+        logger.info("【获取当前工作流的该用户的当前任务】instanceId={}", instanceId);
+        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId)
+                .taskCandidateGroup(userId).list();
+        List<Task> listTwo = taskService.createTaskQuery().processInstanceId(instanceId)
+                .taskAssignee(userId).list();
+        //排除重复的
+        for (int i = 0; i < listTwo.size(); i++) {
+            if (!tasks.contains(listTwo.get(i))) {
+                tasks.add(listTwo.get(i));
+            }
+        }
+        return tasks;
+    }
+
+
+    /**
+     * 获取当前工作流的该用户的当前任务id集合 只查了 group 和 assignee
+     *
+     * @param instanceId 工作流id
+     * @param userId     用户id
+     * @return {@link List<String>}
+     */
+    public List<String> getInstanceUserTaskIds(String instanceId, String userId) {
+        logger.info("【获取工作流的当前任务的当前任务id集合】instanceId={}", instanceId);
+        List<Task> tasks = getInstanceUserTasks(instanceId, userId);
+        List<String> taskIds = new ArrayList<String>();
+        for (Task task : tasks) {
+            taskIds.add(task.getId());
+        }
+        return taskIds;
+    }
+
+
+    /**
+     * 获取当前工作流的该用户的当前任务id集合 查了 group 和 assignee user
+     *
+     * @param instanceId 工作流id
+     * @param userId     用户id
+     * @param userId     角色或者 继续放入 userId
+     * @return {@link List<String>}
+     */
+    public List<String> getInstanceUserTaskIds(String instanceId, String userId, String role) {
+        logger.info("【获取工作流的当前任务的当前任务id集合】instanceId={}", instanceId);
+        List<Task> tasks = getInstanceUserTasks(instanceId, userId, role);
+        List<String> taskIds = new ArrayList<String>();
+        for (Task task : tasks) {
+            taskIds.add(task.getId());
+        }
+        return taskIds;
+    }
+
+
+    /**
+     * 获取当前工作流的该用户的当前任务 查了 group 和 assignee user
+     *
+     * @param instanceId 工作流id
+     * @param userId     用户id
+     * @param userId     角色或者 继续放入 userId
+     * @return {@link List<Task>}
+     */
+    public List<Task> getInstanceUserTasks(String instanceId, String userId, String role) {
+        logger.info("【获取当前工作流的该用户的当前任务】instanceId={}", instanceId);
+        List<Task> tasks = taskService.createTaskQuery().processInstanceId(instanceId)
+                .taskCandidateGroup(userId).list();
+        List<Task> listTwo = taskService.createTaskQuery().processInstanceId(instanceId)
+                .taskAssignee(userId).list();
+        List<Task> listThree = taskService.createTaskQuery().processInstanceId(instanceId)
+                .taskCandidateUser(role).list();
+        //排除重复的
+        for (Task task : listThree) {
+            if (!tasks.contains(task)) {
+                tasks.add(task);
             }
         }
         for (Task task : listTwo) {
@@ -467,17 +1267,33 @@ public class ActivitiUtils {
      */
     public Map<String, List<String>> getUserIdsMap(String instanceId) {
         logger.info("【获取工作流的当前任务的用户组】instanceId={}", instanceId);
-        List<Task> tasks = getInstanceTasks(instanceId);
+        return getUserIdsMap(Collections.singletonList(instanceId));
+    }
+
+
+    /**
+     * 批量获取多个工作流的当前任务的用户组 group user assignee 所有任务的身份关联一次查询
+     *
+     * @param instanceIds 工作流id集合
+     * @return Map<String, List<String>> key:taskId,value:用户集合
+     */
+    public Map<String, List<String>> getUserIdsMap(Collection<String> instanceIds) {
+        logger.info("【批量获取工作流的当前任务的用户组】instanceIds={}", instanceIds);
         Map<String, List<String>> userIdsAll = new HashMap<String, List<String>>();
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return userIdsAll;
+        }
+        List<Task> tasks = taskService.createTaskQuery()
+                .processInstanceIdIn(new ArrayList<String>(instanceIds)).list();
+        Map<String, List<IdentityLink>> links = getIdentityLinksForTasks(tasks);
         for (Task task : tasks) {
             logger.info("【当前任务id】taskId={}", task.getName());
-            List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
             List<String> userIds = new ArrayList<String>();
             String userId = "";
             if (StringUtils.isNotBlank(task.getAssignee())) {
                 userIds.add(task.getAssignee());
             }
-            for (IdentityLink identityLink : identityLinks) {
+            for (IdentityLink identityLink : links.get(task.getId())) {
                 //获取用户封装入list
                 userId = identityLink.getGroupId();
                 if (StringUtils.isBlank(userId)) {
@@ -500,6 +1316,91 @@ public class ActivitiUtils {
     }
 
 
+    /**
+     * 批量获取任务的身份关联 与逐个调用 taskService.getIdentityLinksForTask 的结果一致
+     *
+     * @param tasks 任务集合
+     * @return Map<String, List<IdentityLink>> key:taskId,value:身份关联
+     */
+    private Map<String, List<IdentityLink>> getIdentityLinksForTasks(List<Task> tasks) {
+        Map<String, List<IdentityLink>> links = new HashMap<String, List<IdentityLink>>();
+        List<Task> missTasks = new ArrayList<Task>();
+        List<String> taskIds = new ArrayList<String>();
+        //查库前的失效版本 查询期间被失效的任务不放入缓存
+        Map<String, Long> versions = new HashMap<String, Long>();
+        for (Task task : tasks) {
+            List<IdentityLink> cached = taskParticipantCache.get(task.getId());
+            if (cached != null) {
+                links.put(task.getId(), cached);
+                continue;
+            }
+            versions.put(task.getId(), taskParticipantCache.version(task.getId()));
+            missTasks.add(task);
+            taskIds.add(task.getId());
+            links.put(task.getId(), new ArrayList<IdentityLink>());
+        }
+        for (int i = 0; i < taskIds.size(); i += IN_BATCH_SIZE) {
+            List<String> batch = taskIds.subList(i, Math.min(i + IN_BATCH_SIZE, taskIds.size()));
+            for (TaskLink link : userMapper.selectTaskIdentityLinks(batch)) {
+                links.get(link.getTaskId()).add(link);
+            }
+        }
+        //assignee owner 和身份关联一起在取版本之后读出 不用调用方传入的任务上可能已过时的值
+        for (Task task : missTasks) {
+            links.put(task.getId(), taskParticipantCache.put(task.getId(), links.get(task.getId()),
+                    versions.get(task.getId())));
+        }
+        return links;
+    }
+
+
+    /**
+     * 获取任务的身份关联 优先从缓存中取
+     *
+     * @param task 任务
+     * @return 身份关联
+     */
+    private List<IdentityLink> getIdentityLinksForTask(Task task) {
+        List<IdentityLink> links = taskParticipantCache.get(task.getId());
+        if (links == null) {
+            long version = taskParticipantCache.version(task.getId());
+            links = taskParticipantCache.put(task.getId(), taskService.getIdentityLinksForTask(task.getId()), version);
+        }
+        return links;
+    }
+
+
+    /**
+     * 获取任务参与人缓存的统计
+     *
+     * @return 命中 未命中 淘汰 失效次数等
+     */
+    public CacheStats getParticipantCacheStats() {
+        return taskParticipantCache.stats();
+    }
+
+
+    /**
+     * 获取任务参与人的整数形式 与 getIdentityLinksForTasks 的身份关联一致
+     *
+     * @param tasks 任务集合
+     * @return Map<String, TaskParticipants> key:taskId
+     */
+    private Map<String, TaskParticipants> getParticipantsForTasks(List<Task> tasks) {
+        Map<String, List<IdentityLink>> links = getIdentityLinksForTasks(tasks);
+        Map<String, TaskParticipants> participants = new HashMap<String, TaskParticipants>();
+        for (Task task : tasks) {
+            TaskParticipants taskParticipants = taskParticipantCache.getParticipants(task.getId());
+            if (taskParticipants == null) {
+                //刚放入就被淘汰或失效
+                taskParticipants = TaskParticipants.of(task.getAssignee(), links.get(task.getId()), userIdDictionary);
+            }
+            participants.put(task.getId(), taskParticipants);
+        }
+        return participants;
+    }
+
+
     /**
      * 获取用户所处的任务id集合 根据groupId查找
      *
@@ -510,12 +1411,13 @@ public class ActivitiUtils {
     public List<String> getInstanceGroupTaskIds(String instanceId, String userId) {
         List<String> taskIds = new ArrayList<String>();
         List<Task> tasks = getInstanceTasks(instanceId);
+        Map<String, TaskParticipants> participants = getParticipantsForTasks(tasks);
+        int user = userIdDictionary.find(userId);
         for (Task task : tasks) {
             if (StringUtils.isNotBlank(task.getAssignee())) {
                 continue;
             }
-            List<String> userIds = getGroupUserIds(task);
-            if (userIds.contains(userId)) {
+            if (participants.get(task.getId()).inGroups(user)) {
                 taskIds.add(task.getId());
             }
         }
@@ -533,12 +1435,13 @@ public class ActivitiUtils {
     public List<String> getInstanceUsersTaskIds(String instanceId, String userId) {
         List<String> taskIds = new ArrayList<String>();
         List<Task> tasks = getInstanceTasks(instanceId);
+        Map<String, TaskParticipants> participants = getParticipantsForTasks(tasks);
+        int user = userIdDictionary.find(userId);
         for (Task task : tasks) {
             if (StringUtils.isNotBlank(task.getAssignee())) {
                 continue;
             }
-            List<String> userIds = getUserUserIds(task);
-            if (userIds.contains(userId)) {
+            if (participants.get(task.getId()).inUsers(user)) {
                 taskIds.add(task.getId());
             }
         }
@@ -557,8 +1460,41 @@ public class ActivitiUtils {
         List<String> taskIds = new ArrayList<String>();
         List<Task> tasks = getInstanceTasks(instanceId);
         for (Task task : tasks) {
-            String userIds = getAssigneeUserIds(task);
-            if (userId.equals(userIds)) {
+            if (userId.equals(task.getAssignee())) {
+                taskIds.add(task.getId());
+            }
+        }
+        return taskIds;
+    }
+
+
+    /**
+     * 获取多个工作流中用户可以处理的当前任务id 用户是签收人, 或任务未签收且用户在 groupId 或 userId 中
+     * 所有任务一次查询 身份关联批量查询
+     *
+     * @param instanceIds 工作流id集合
+     * @param userId      用户id
+     * @return 任务id集合
+     */
+    public List<String> getInstancesUserTaskIds(Collection<String> instanceIds, String userId) {
+        logger.info("【获取多个工作流中用户可以处理的任务id】instanceIds={},userId={}", instanceIds, userId);
+        List<String> taskIds = new ArrayList<String>();
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return taskIds;
+        }
+        List<Task> tasks = taskService.createTaskQuery()
+                .processInstanceIdIn(new ArrayList<String>(instanceIds)).list();
+        Map<String, TaskParticipants> participants = getParticipantsForTasks(tasks);
+        int user = userIdDictionary.find(userId);
+        for (Task task : tasks) {
+            if (StringUtils.isNotBlank(task.getAssignee())) {
+                if (task.getAssignee().equals(userId)) {
+                    taskIds.add(task.getId());
+                }
+                continue;
+            }
+            TaskParticipants taskParticipants = participants.get(task.getId());
+            if (taskParticipants.inGroups(user) || taskParticipants.inUsers(user)) {
                 taskIds.add(task.getId());
             }
         }
@@ -575,10 +1511,11 @@ public class ActivitiUtils {
     public List<List<String>> getUserIds(String instanceId) {
         logger.info("【获取工作流的当前任务的用户组】instanceId={}", instanceId);
         List<Task> tasks = getInstanceTasks(instanceId);
+        Map<String, List<IdentityLink>> links = getIdentityLinksForTasks(tasks);
         List<List<String>> userIdsAll = new ArrayList<List<String>>();
         for (Task task : tasks) {
             logger.info("【当前任务id】taskId={}", task.getName());
-            List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
+            List<IdentityLink> identityLinks = links.get(task.getId());
             List<String> userIds = new ArrayList<String>();
             String userId = "";
             String groupId = "";
@@ -587,88 +1524,316 @@ public class ActivitiUtils {
                 logger.info("【有签收人不用再获取用户】");
                 continue;
             }
-            for (IdentityLink identityLink : identityLinks) {
-                //获取用户封装入list
-                groupId = identityLink.getGroupId();
-                if (StringUtils.isNotBlank(groupId)) {
-                    if (groupId.indexOf(",") > 0) {
-                        String[] idStr = groupId.split(",");
-                        for (String idOne : idStr) {
-                            if (!userIds.contains(idOne)) {
-                                userIds.add(idOne);
-                            }
-                        }
-                    }
-                }
-                if (groupId.length() == 1) {
-                    if (!userIds.contains(groupId)) {
-                        userIds.add(groupId);
-                    }
-                }
-                userId = identityLink.getUserId();
-                if (StringUtils.isNotBlank(userId)) {
-                    if (userId.indexOf(",") > 0) {
-                        String[] idStr = userId.split(",");
-                        for (String idOne : idStr) {
-                            if (!userIds.contains(idOne)) {
-                                userIds.add(idOne);
-                            }
-                        }
-                    }
-                }
-                if (userId.length() == 1) {
-                    if (!userIds.contains(userId)) {
-                        userIds.add(userId);
+            for (IdentityLink identityLink : identityLinks) {
+                //获取用户封装入list
+                groupId = identityLink.getGroupId();
+                addIds(userIds, groupId);
+                userId = identityLink.getUserId();
+                addIds(userIds, userId);
+            }
+            //加入返回List<List<String>>
+            userIdsAll.add(userIds);
+        }
+        return userIdsAll;
+    }
+
+
+    /**
+     * 获取工作流的当前任务的所有用户组 groupId userId assignee
+     *
+     * @param instanceId 工作流id
+     * @return
+     */
+    public List<String> getUserIdsOneList(String instanceId) {
+        List<List<String>> lists = getUserIds(instanceId);
+        List<String> ids = new ArrayList<String>();
+        for (List<String> list : lists) {
+            for (String id : list) {
+                if (!ids.contains(id)) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+
+    /**
+     * 完成任务
+     *
+     * @param taskId 任务id
+     */
+    public void completeTask(String taskId) {
+        logger.info("【完成任务】taskId={}", taskId);
+        taskService.complete(taskId);
+    }
+
+
+    /**
+     * 完成任务
+     *
+     * @param taskId 任务id
+     * @param userId 用户id
+     */
+    public void completeTask(String taskId, String userId) {
+        logger.info("【完成任务】taskId={},userId={}", taskId, userId);
+        taskService.complete(taskId);
+    }
+
+
+    /**
+     * 异步完成任务 见 {@link #completeTaskAsync(String, Map)}
+     *
+     * @param taskId 任务id
+     * @return 完成请求落库(事务提交)后完成
+     */
+    public CompletableFuture<Void> completeTaskAsync(String taskId) {
+        return completeTaskAsync(taskId, null);
+    }
+
+
+    /**
+     * 异步完成任务 async.enabled=true 时在调用线程中校验任务并写入变量, 任务的完成和流转作为作业落库后在引擎线程池中执行
+     * 否则同步执行
+     *
+     * @param taskId    任务id
+     * @param variables 变量 可以为null
+     * @return 完成请求落库(事务提交)后完成, 此时任务可能还在待办中
+     */
+    public CompletableFuture<Void> completeTaskAsync(String taskId, Map<String, Object> variables) {
+        logger.info("【异步完成任务】taskId={}", taskId);
+        return engineAsyncExecutor.completeTask(taskId, variables);
+    }
+
+
+    /**
+     * 获取异步模式的统计
+     *
+     * @return 排队数 拒绝次数 排队等待时间等
+     */
+    public AsyncStats getAsyncStats() {
+        return engineAsyncExecutor.stats();
+    }
+
+
+    /**
+     * 获取历史延迟写入的统计
+     *
+     * @return 未写库记录数 同步写入次数 写库延迟等
+     */
+    public HistoryWriterStats getHistoryWriterStats() {
+        return historyWriteBehind.stats();
+    }
+
+
+    /**
+     * 把已提交未写库的历史活动立即写库 未开启延迟写入时不做任何事
+     */
+    public void flushHistory() {
+        historyWriteBehind.drain();
+    }
+
+
+    /**
+     * 批量完成任务 按默认条数分批 默认并行数
+     *
+     * @param taskIds 任务id集合
+     * @return 每个任务的结果 与请求顺序一致, 每个位置一条; 重复的任务id只完成第一次出现的, 其余位置为失败
+     */
+    public List<BatchItemResult> completeTaskBatch(List<String> taskIds) {
+        return completeTaskBatch(taskIds, Collections.<Map<String, Object>>nCopies(taskIds.size(), null),
+                batchChunkSize, batchParallelism);
+    }
+
+
+    /**
+     * 批量完成任务 按默认条数分批 默认并行数
+     *
+     * @param tasks key:任务id,value:该任务的变量 可以为null
+     * @return 每个任务的结果 与请求(迭代)顺序一致
+     */
+    public List<BatchItemResult> completeTaskBatch(Map<String, Map<String, Object>> tasks) {
+        return completeTaskBatch(tasks, batchChunkSize, batchParallelism);
+    }
+
+
+    /**
+     * 批量完成任务
+     * 同一个工作流的任务在同一个线程中按顺序完成, 不同工作流的任务分给多个线程并行完成
+     * 每批在同一个命令(同一个事务)中完成, 某一批失败时该批回滚, 再逐个完成找出失败项
+     *
+     * @param tasks       key:任务id,value:该任务的变量 可以为null
+     * @param chunkSize   每批条数
+     * @param parallelism 并行数
+     * @return 每个任务的结果 与请求(迭代)顺序一致 并发修改导致的失败 conflict 为true
+     */
+    public List<BatchItemResult> completeTaskBatch(Map<String, Map<String, Object>> tasks, int chunkSize,
+                                                   int parallelism) {
+        List<String> taskIds = new ArrayList<String>(tasks.size());
+        List<Map<String, Object>> variables = new ArrayList<Map<String, Object>>(tasks.size());
+        for (Map.Entry<String, Map<String, Object>> entry : tasks.entrySet()) {
+            taskIds.add(entry.getKey());
+            variables.add(entry.getValue());
+        }
+        return completeTaskBatch(taskIds, variables, chunkSize, parallelism);
+    }
+
+
+    /**
+     * 批量完成任务 taskIds 和 variables 按下标对应, 每个下标返回一条结果
+     */
+    private List<BatchItemResult> completeTaskBatch(List<String> taskIds, List<Map<String, Object>> variables,
+                                                    int chunkSize, int parallelism) {
+        logger.info("【批量完成任务】size={},chunkSize={},parallelism={}", taskIds.size(), chunkSize, parallelism);
+        if (chunkSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("chunkSize和parallelism必须大于0 chunkSize=" + chunkSize
+                    + ",parallelism=" + parallelism);
+        }
+        BatchItemResult[] results = new BatchItemResult[taskIds.size()];
+        //重复的任务id不再完成 直接记为失败
+        Set<String> seen = new HashSet<String>();
+        List<Integer> pending = new ArrayList<Integer>(taskIds.size());
+        for (int i = 0; i < taskIds.size(); i++) {
+            if (seen.add(taskIds.get(i))) {
+                pending.add(i);
+            } else {
+                results[i] = BatchItemResult.failure(i, taskIds.get(i), false, "重复的任务id");
+            }
+        }
+        //按工作流分组 找不到的任务单独一组 交给引擎报错
+        List<String> uniqueIds = new ArrayList<String>(seen);
+        Map<String, String> instanceIds = new HashMap<String, String>();
+        for (int i = 0; i < uniqueIds.size(); i += IN_BATCH_SIZE) {
+            for (InboxTask task : userMapper.selectTasksByIds(uniqueIds.subList(i, Math.min(i + IN_BATCH_SIZE, uniqueIds.size())))) {
+                instanceIds.put(task.getId(), task.getProcessInstanceId());
+            }
+        }
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (Integer index : pending) {
+            String instanceId = instanceIds.get(taskIds.get(index));
+            String groupKey = instanceId != null ? instanceId : "task:" + taskIds.get(index);
+            List<Integer> group = groups.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(groupKey, group);
+            }
+            group.add(index);
+        }
+        //分配到各个并行通道 同一工作流只在一个通道中
+        int laneCount = Math.min(parallelism, groups.size());
+        List<List<Integer>> lanes = new ArrayList<List<Integer>>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new ArrayList<Integer>());
+        }
+        int laneIndex = 0;
+        for (List<Integer> group : groups.values()) {
+            lanes.get(laneIndex++ % laneCount).addAll(group);
+        }
+        if (laneCount == 1) {
+            completeTaskLane(lanes.get(0), taskIds, variables, chunkSize, results);
+            return Arrays.asList(results);
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>(laneCount);
+        for (List<Integer> lane : lanes) {
+            futures.add(batchExecutor.submit(new CompleteTaskLane(lane, taskIds, variables, chunkSize, results)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ActivitiException("批量完成任务被中断", e);
+            } catch (ExecutionException e) {
+                //该通道已有的结果保留 其余记为失败
+                logger.warn("【批量完成任务】通道执行失败 error={}", e.getCause().toString());
+                for (Integer index : lanes.get(i)) {
+                    if (results[index] == null) {
+                        results[index] = BatchItemResult.failure(index, taskIds.get(index), false,
+                                e.getCause().toString());
                     }
                 }
             }
-            //加入返回List<List<String>>
-            userIdsAll.add(userIds);
         }
-        return userIdsAll;
+        return Arrays.asList(results);
     }
 
 
     /**
-     * 获取工作流的当前任务的所有用户组 groupId userId assignee
-     *
-     * @param instanceId 工作流id
-     * @return
+     * 按顺序完成一个通道中的任务
      */
-    public List<String> getUserIdsOneList(String instanceId) {
-        List<List<String>> lists = getUserIds(instanceId);
-        List<String> ids = new ArrayList<String>();
-        for (List<String> list : lists) {
-            for (String id : list) {
-                if (!ids.contains(id)) {
-                    ids.add(id);
+    private void completeTaskLane(List<Integer> lane, List<String> taskIds, List<Map<String, Object>> variables,
+                                  int chunkSize, BatchItemResult[] results) {
+        for (int from = 0; from < lane.size(); from += chunkSize) {
+            final List<String> chunkIds = new ArrayList<String>();
+            final List<Map<String, Object>> chunkVariables = new ArrayList<Map<String, Object>>();
+            List<Integer> chunk = lane.subList(from, Math.min(from + chunkSize, lane.size()));
+            for (Integer index : chunk) {
+                chunkIds.add(taskIds.get(index));
+                chunkVariables.add(variables.get(index));
+            }
+            try {
+                managementService.executeCommand(new Command<Void>() {
+                    @Override
+                    public Void execute(CommandContext commandContext) {
+                        for (int i = 0; i < chunkIds.size(); i++) {
+                            new CompleteTaskCmd(chunkIds.get(i), chunkVariables.get(i)).execute(commandContext);
+                        }
+                        return null;
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn("【批量完成任务】一批失败 逐个重试 taskIds={},error={}", chunkIds, e.getMessage());
+                for (int i = 0; i < chunk.size(); i++) {
+                    results[chunk.get(i)] = completeTaskOne(chunk.get(i), chunkIds.get(i), chunkVariables.get(i));
                 }
+                continue;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                results[chunk.get(i)] = BatchItemResult.success(chunk.get(i), chunkIds.get(i), chunkIds.get(i));
             }
         }
-        return ids;
     }
 
 
     /**
-     * 完成任务
-     *
-     * @param taskId 任务id
+     * 单独完成一个任务 失败时记录原因
      */
-    public void completeTask(String taskId) {
-        logger.info("【完成任务】taskId={}", taskId);
-        taskService.complete(taskId);
+    private BatchItemResult completeTaskOne(int index, String taskId, Map<String, Object> variables) {
+        try {
+            taskService.complete(taskId, variables);
+            return BatchItemResult.success(index, taskId, taskId);
+        } catch (RuntimeException e) {
+            boolean conflict = e instanceof ActivitiOptimisticLockingException;
+            logger.warn("【批量完成任务】任务完成失败 taskId={},conflict={},error={}", taskId, conflict, e.getMessage());
+            return BatchItemResult.failure(index, taskId, conflict, e.getMessage());
+        }
     }
 
 
     /**
-     * 完成任务
-     *
-     * @param taskId 任务id
-     * @param userId 用户id
+     * 在线程池中完成一个通道的任务
      */
-    public void completeTask(String taskId, String userId) {
-        logger.info("【完成任务】taskId={},userId={}", taskId, userId);
-        taskService.complete(taskId);
+    private class CompleteTaskLane implements Runnable {
+
+        private final List<Integer> lane;
+        private final List<String> taskIds;
+        private final List<Map<String, Object>> variables;
+        private final int chunkSize;
+        private final BatchItemResult[] results;
+
+        private CompleteTaskLane(List<Integer> lane, List<String> taskIds, List<Map<String, Object>> variables,
+                                 int chunkSize, BatchItemResult[] results) {
+            this.lane = lane;
+            this.taskIds = taskIds;
+            this.variables = variables;
+            this.chunkSize = chunkSize;
+            this.results = results;
+        }
+
+        @Override
+        public void run() {
+            completeTaskLane(lane, taskIds, variables, chunkSize, results);
+        }
     }
 
 
@@ -690,14 +1855,7 @@ public class ActivitiUtils {
      * @return true:已经结束 false:没有结束
      */
     public Boolean validateEnd(String instanceId) {
-        ProcessInstance rpi = processEngine.getRuntimeService()//
-                .createProcessInstanceQuery()//创建流程实例查询对象
-                .processInstanceId(instanceId).singleResult();
-        //说明流程实例结束了
-        if (rpi == null) {
-            return true;
-        }
-        return false;
+        return isEnded(instanceId);
     }
 
 
@@ -744,10 +1902,11 @@ public class ActivitiUtils {
     public List<List<String>> getGroupUserIds(String instanceId) {
         logger.info("【获取工作流的当前任务的用户组】instanceId={}", instanceId);
         List<Task> tasks = getInstanceTasks(instanceId);
+        Map<String, List<IdentityLink>> links = getIdentityLinksForTasks(tasks);
         List<List<String>> userIdsAll = new ArrayList<List<String>>();
         for (Task task : tasks) {
             logger.info("【当前任务id】taskId={}", task.getName());
-            List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
+            List<IdentityLink> identityLinks = links.get(task.getId());
             List<String> userIds = new ArrayList<String>();
             String userId = "";
             if (StringUtils.isNotBlank(task.getAssignee())) {
@@ -761,19 +1920,7 @@ public class ActivitiUtils {
                     //group中无用户
                     continue;
                 }
-                if (userId.indexOf(",") > 0) {
-                    String[] idStr = userId.split(",");
-                    for (String idOne : idStr) {
-                        if (!userIds.contains(idOne)) {
-                            userIds.add(idOne);
-                        }
-                    }
-                }
-                if (userId.length() == 1) {
-                    if (!userIds.contains(userId)) {
-                        userIds.add(userId);
-                    }
-                }
+                addIds(userIds, userId);
             }
             //加入返回List<List<String>>
             userIdsAll.add(userIds);
@@ -811,10 +1958,11 @@ public class ActivitiUtils {
     public List<List<String>> getUserUserIds(String instanceId) {
         logger.info("【获取工作流的当前任务的用户组】instanceId={}", instanceId);
         List<Task> tasks = getInstanceTasks(instanceId);
+        Map<String, List<IdentityLink>> links = getIdentityLinksForTasks(tasks);
         List<List<String>> userIdsAll = new ArrayList<List<String>>();
         for (Task task : tasks) {
             logger.info("【当前任务id】taskId={}", task.getName());
-            List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
+            List<IdentityLink> identityLinks = links.get(task.getId());
             List<String> userIds = new ArrayList<String>();
             String userId = "";
             if (StringUtils.isNotBlank(task.getAssignee())) {
@@ -826,19 +1974,7 @@ public class ActivitiUtils {
                 if (StringUtils.isBlank(userId)) {
                     continue;
                 }
-                if (userId.indexOf(",") > 0) {
-                    String[] idStr = userId.split(",");
-                    for (String idOne : idStr) {
-                        if (!userIds.contains(idOne)) {
-                            userIds.add(idOne);
-                        }
-                    }
-                }
-                if (userId.length() == 1) {
-                    if (!userIds.contains(userId)) {
-                        userIds.add(userId);
-                    }
-                }
+                addIds(userIds, userId);
             }
             //加入返回List<List<String>>
             userIdsAll.add(userIds);
@@ -875,7 +2011,11 @@ public class ActivitiUtils {
      */
     public List<String> getGroupUserIds(Task task) {
         logger.info("【当前任务id】taskId={}", task.getName());
-        List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
+        return getGroupUserIds(task, getIdentityLinksForTask(task));
+    }
+
+
+    private List<String> getGroupUserIds(Task task, List<IdentityLink> identityLinks) {
         List<String> userIds = new ArrayList<String>();
         String userId = "";
         if (StringUtils.isNotBlank(task.getAssignee())) {
@@ -889,19 +2029,7 @@ public class ActivitiUtils {
                 //group中无用户
                 continue;
             }
-            if (userId.indexOf(",") > 0) {
-                String[] idStr = userId.split(",");
-                for (String idOne : idStr) {
-                    if (!userIds.contains(idOne)) {
-                        userIds.add(idOne);
-                    }
-                }
-            }
-            if (userId.length() == 1) {
-                if (!userIds.contains(userId)) {
-                    userIds.add(userId);
-                }
-            }
+            addIds(userIds, userId);
         }
         //加入返回List<List<String>>
         return userIds;
@@ -916,7 +2044,11 @@ public class ActivitiUtils {
      */
     public List<String> getUserUserIds(Task task) {
         logger.info("【当前任务id】taskId={}", task.getName());
-        List<IdentityLink> identityLinks = taskService.getIdentityLinksForTask(task.getId());
+        return getUserUserIds(task, getIdentityLinksForTask(task));
+    }
+
+
+    private List<String> getUserUserIds(Task task, List<IdentityLink> identityLinks) {
         List<String> userIds = new ArrayList<String>();
         String userId = "";
         if (StringUtils.isNotBlank(task.getAssignee())) {
@@ -928,19 +2060,7 @@ public class ActivitiUtils {
             if (StringUtils.isBlank(userId)) {
                 continue;
             }
-            if (userId.indexOf(",") > 0) {
-                String[] idStr = userId.split(",");
-                for (String idOne : idStr) {
-                    if (!userIds.contains(idOne)) {
-                        userIds.add(idOne);
-                    }
-                }
-            }
-            if (userId.length() == 1) {
-                if (!userIds.contains(userId)) {
-                    userIds.add(userId);
-                }
-            }
+            addIds(userIds, userId);
         }
         return userIds;
     }
@@ -994,17 +2114,89 @@ public class ActivitiUtils {
 
 
     /**
-     * 设置组用户 放入groupId中
+     * 设置组用户 每个用户一条候选组身份关联
      *
      * @param ids  用户
      * @param task
      */
     public void addGroupIds(List<String> ids, Task task) {
-        String idStr = "";
-        for (String id : ids) {
-            idStr += id + ",";
+        addCandidateGroups(task.getId(), ids);
+    }
+
+
+    /**
+     * 给任务添加候选组 每个组一条身份关联, 已有的组跳过
+     *
+     * @param taskId   任务id
+     * @param groupIds 组id集合
+     */
+    public void addCandidateGroups(String taskId, Collection<String> groupIds) {
+        addCandidateGroups(Collections.singletonList(taskId), groupIds);
+    }
+
+
+    /**
+     * 给多个任务添加同样的候选组 在同一个命令(同一个事务)中完成, 身份关联一次批量写入
+     * 任一任务不存在时全部回滚
+     *
+     * @param taskIds  任务id集合
+     * @param groupIds 组id集合
+     */
+    public void addCandidateGroups(final Collection<String> taskIds, Collection<String> groupIds) {
+        logger.info("【添加候选组】taskIds={},groupIds={}", taskIds, groupIds);
+        final Set<String> groups = new LinkedHashSet<String>();
+        for (String groupId : groupIds) {
+            if (StringUtils.isNotBlank(groupId)) {
+                groups.add(groupId.trim());
+            }
+        }
+        if (taskIds.isEmpty() || groups.isEmpty()) {
+            return;
+        }
+        managementService.executeCommand(new Command<Void>() {
+            @Override
+            public Void execute(CommandContext commandContext) {
+                for (String taskId : taskIds) {
+                    TaskEntity task = commandContext.getTaskEntityManager().findTaskById(taskId);
+                    if (task == null) {
+                        throw new ActivitiObjectNotFoundException("Cannot find task with id " + taskId, Task.class);
+                    }
+                    Set<String> missing = new LinkedHashSet<String>(groups);
+                    for (IdentityLinkEntity link : task.getIdentityLinks()) {
+                        if (IdentityLinkType.CANDIDATE.equals(link.getType())) {
+                            missing.remove(link.getGroupId());
+                        }
+                    }
+                    task.addCandidateGroups(missing);
+                }
+                return null;
+            }
+        });
+    }
+
+
+    /**
+     * 把旧数据中逗号拼接的候选组(候选人)拆成每个id一条身份关联 见 {@link CandidateLinkNormalizer}
+     *
+     * @return 拆分的身份关联数 已有拆分在执行时返回-1
+     */
+    public int normalizeCandidateLinks() {
+        return candidateLinkNormalizer.normalize();
+    }
+
+
+    /**
+     * 把身份关联中的id加入用户列表 兼容逗号拼接的旧数据
+     */
+    private void addIds(List<String> userIds, String ids) {
+        if (StringUtils.isBlank(ids)) {
+            return;
+        }
+        for (String id : ids.split(",")) {
+            if (StringUtils.isNotBlank(id) && !userIds.contains(id)) {
+                userIds.add(id);
+            }
         }
-        taskService.addCandidateGroup(task.getId(), idStr);
     }
 
 
@@ -1022,19 +2214,118 @@ public class ActivitiUtils {
     }
 
 
+    /**
+     * 获取历史任务 查询用户处于签收人 assignee
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 历史任务 归档表中的在后
+     */
+    public List<HistoricTaskInstance> getHistoryAssigneeActivitiIds(String userId, boolean includeArchive) {
+        List<HistoricTaskInstance> list = new ArrayList<HistoricTaskInstance>(getHistoryAssigneeActivitiIds(userId));
+        if (withArchive(includeArchive)) {
+            list.addAll(historyService.createNativeHistoricTaskInstanceQuery()
+                    .sql(HistorySql.selectArchivedTasks(InboxScope.ASSIGNEE)).parameter("userId", userId).list());
+        }
+        return list;
+    }
+
+
     /**
      * 获取历史任务 查询用户处于签收人 assignee
      *
      */
     public List<String> getHistoryAssigneeActivitiIdsString(String userId) {
-        List<HistoricTaskInstance> list = getHistoryAssigneeActivitiIds(userId);
-        List<String> ids = new ArrayList<String>();
-        for (HistoricTaskInstance historicTaskInstance : list) {
-            if (!ids.contains(historicTaskInstance.getProcessInstanceId())) {
-                ids.add(historicTaskInstance.getProcessInstanceId());
-            }
+        logger.info("【获取用户历史任务的工作流id集合】userId={},scope=ASSIGNEE", userId);
+        return userMapper.selectHistoryInstanceIds(InboxScope.ASSIGNEE.name(), userId, null, 0, null, false);
+    }
+
+
+    /**
+     * 获取历史任务的工作流id 查询用户处于签收人 assignee 已去重 只查id
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryAssigneeActivitiIdsString(String userId, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryAssigneeActivitiIdsString(userId);
         }
-        return ids;
+        logger.info("【获取用户历史任务的工作流id集合 含归档】userId={},scope=ASSIGNEE", userId);
+        Set<String> ids = new TreeSet<String>(
+                userMapper.selectHistoryInstanceIds(InboxScope.ASSIGNEE.name(), userId, null, 0, null, false));
+        ids.addAll(userMapper.selectHistoryInstanceIds(InboxScope.ASSIGNEE.name(), userId, null, 0, null, true));
+        return new ArrayList<String>(ids);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于签收人 assignee 已去重 只查id
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryAssigneeActivitiIdsString(String userId, int page, int limit) {
+        logger.info("【分页获取用户历史任务的工作流id集合】userId={},scope=ASSIGNEE,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.ASSIGNEE.name(), userId, null, (page - 1) * limit, limit, false);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于签收人 assignee 已去重 只查id
+     *
+     * @param userId  用户
+     * @param afterId 上一页最后一个工作流id 为空时从第一条开始
+     * @param limit   每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryAssigneeActivitiIdsStringAfter(String userId, String afterId, int limit) {
+        logger.info("【按游标获取用户历史任务的工作流id集合】userId={},scope=ASSIGNEE,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.ASSIGNEE.name(), userId, afterId, 0, limit, false);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于签收人 assignee 已去重 只查id
+     *
+     * @param userId         用户
+     * @param page           页码 从1开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表 两张表合并后再分页, 页码越大查的越多 深分页用游标
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryAssigneeActivitiIdsString(String userId, int page, int limit, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryAssigneeActivitiIdsString(userId, page, limit);
+        }
+        logger.info("【分页获取用户历史任务的工作流id集合 含归档】userId={},scope=ASSIGNEE,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.ASSIGNEE, userId, null, (page - 1) * limit, limit);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于签收人 assignee 已去重 只查id
+     *
+     * @param userId         用户
+     * @param afterId        上一页最后一个工作流id 为空时从第一条开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryAssigneeActivitiIdsStringAfter(String userId, String afterId, int limit,
+                                                            boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryAssigneeActivitiIdsStringAfter(userId, afterId, limit);
+        }
+        logger.info("【按游标获取用户历史任务的工作流id集合 含归档】userId={},scope=ASSIGNEE,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.ASSIGNEE, userId, afterId, 0, limit);
     }
 
 
@@ -1051,19 +2342,118 @@ public class ActivitiUtils {
     }
 
 
+    /**
+     * 获取历史任务 查询用户处于代办组 group
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 历史任务 归档表中的在后
+     */
+    public List<HistoricTaskInstance> getHistoryGroupActivitiIds(String userId, boolean includeArchive) {
+        List<HistoricTaskInstance> list = new ArrayList<HistoricTaskInstance>(getHistoryGroupActivitiIds(userId));
+        if (withArchive(includeArchive)) {
+            list.addAll(historyService.createNativeHistoricTaskInstanceQuery()
+                    .sql(HistorySql.selectArchivedTasks(InboxScope.GROUP)).parameter("userId", userId).list());
+        }
+        return list;
+    }
+
+
     /**
      * 获取历史任务 查询用户处于代办组 group
      *
      */
     public List<String> getHistoryGroupActivitiIdsString(String userId) {
-        List<HistoricTaskInstance> list = getHistoryGroupActivitiIds(userId);
-        List<String> ids = new ArrayList<String>();
-        for (HistoricTaskInstance historicTaskInstance : list) {
-            if (!ids.contains(historicTaskInstance.getProcessInstanceId())) {
-                ids.add(historicTaskInstance.getProcessInstanceId());
-            }
+        logger.info("【获取用户历史任务的工作流id集合】userId={},scope=GROUP", userId);
+        return userMapper.selectHistoryInstanceIds(InboxScope.GROUP.name(), userId, null, 0, null, false);
+    }
+
+
+    /**
+     * 获取历史任务的工作流id 查询用户处于代办组 group 已去重 只查id
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryGroupActivitiIdsString(String userId, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryGroupActivitiIdsString(userId);
         }
-        return ids;
+        logger.info("【获取用户历史任务的工作流id集合 含归档】userId={},scope=GROUP", userId);
+        Set<String> ids = new TreeSet<String>(
+                userMapper.selectHistoryInstanceIds(InboxScope.GROUP.name(), userId, null, 0, null, false));
+        ids.addAll(userMapper.selectHistoryInstanceIds(InboxScope.GROUP.name(), userId, null, 0, null, true));
+        return new ArrayList<String>(ids);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于代办组 group 已去重 只查id
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryGroupActivitiIdsString(String userId, int page, int limit) {
+        logger.info("【分页获取用户历史任务的工作流id集合】userId={},scope=GROUP,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.GROUP.name(), userId, null, (page - 1) * limit, limit, false);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于代办组 group 已去重 只查id
+     *
+     * @param userId  用户
+     * @param afterId 上一页最后一个工作流id 为空时从第一条开始
+     * @param limit   每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryGroupActivitiIdsStringAfter(String userId, String afterId, int limit) {
+        logger.info("【按游标获取用户历史任务的工作流id集合】userId={},scope=GROUP,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.GROUP.name(), userId, afterId, 0, limit, false);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于代办组 group 已去重 只查id
+     *
+     * @param userId         用户
+     * @param page           页码 从1开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表 两张表合并后再分页, 页码越大查的越多 深分页用游标
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryGroupActivitiIdsString(String userId, int page, int limit, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryGroupActivitiIdsString(userId, page, limit);
+        }
+        logger.info("【分页获取用户历史任务的工作流id集合 含归档】userId={},scope=GROUP,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.GROUP, userId, null, (page - 1) * limit, limit);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于代办组 group 已去重 只查id
+     *
+     * @param userId         用户
+     * @param afterId        上一页最后一个工作流id 为空时从第一条开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryGroupActivitiIdsStringAfter(String userId, String afterId, int limit,
+                                                            boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryGroupActivitiIdsStringAfter(userId, afterId, limit);
+        }
+        logger.info("【按游标获取用户历史任务的工作流id集合 含归档】userId={},scope=GROUP,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.GROUP, userId, afterId, 0, limit);
     }
 
 
@@ -1080,19 +2470,118 @@ public class ActivitiUtils {
     }
 
 
+    /**
+     * 获取历史任务 查询用户处于候选人 user
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 历史任务 归档表中的在后
+     */
+    public List<HistoricTaskInstance> getHistoryUserActivitiIds(String userId, boolean includeArchive) {
+        List<HistoricTaskInstance> list = new ArrayList<HistoricTaskInstance>(getHistoryUserActivitiIds(userId));
+        if (withArchive(includeArchive)) {
+            list.addAll(historyService.createNativeHistoricTaskInstanceQuery()
+                    .sql(HistorySql.selectArchivedTasks(InboxScope.USER)).parameter("userId", userId).list());
+        }
+        return list;
+    }
+
+
     /**
      * 获取历史任务 查询用户处于代办组 group
      *
      */
     public List<String> getHistoryUserActivitiIdsString(String userId) {
-        List<HistoricTaskInstance> list = getHistoryUserActivitiIds(userId);
-        List<String> ids = new ArrayList<String>();
-        for (HistoricTaskInstance historicTaskInstance : list) {
-            if (!ids.contains(historicTaskInstance.getProcessInstanceId())) {
-                ids.add(historicTaskInstance.getProcessInstanceId());
-            }
+        logger.info("【获取用户历史任务的工作流id集合】userId={},scope=USER", userId);
+        return userMapper.selectHistoryInstanceIds(InboxScope.USER.name(), userId, null, 0, null, false);
+    }
+
+
+    /**
+     * 获取历史任务的工作流id 查询用户处于候选人 user 已去重 只查id
+     *
+     * @param userId         用户
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryUserActivitiIdsString(String userId, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryUserActivitiIdsString(userId);
         }
-        return ids;
+        logger.info("【获取用户历史任务的工作流id集合 含归档】userId={},scope=USER", userId);
+        Set<String> ids = new TreeSet<String>(
+                userMapper.selectHistoryInstanceIds(InboxScope.USER.name(), userId, null, 0, null, false));
+        ids.addAll(userMapper.selectHistoryInstanceIds(InboxScope.USER.name(), userId, null, 0, null, true));
+        return new ArrayList<String>(ids);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于候选人 user 已去重 只查id
+     *
+     * @param userId 用户
+     * @param page   页码 从1开始
+     * @param limit  每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryUserActivitiIdsString(String userId, int page, int limit) {
+        logger.info("【分页获取用户历史任务的工作流id集合】userId={},scope=USER,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.USER.name(), userId, null, (page - 1) * limit, limit, false);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于候选人 user 已去重 只查id
+     *
+     * @param userId  用户
+     * @param afterId 上一页最后一个工作流id 为空时从第一条开始
+     * @param limit   每页条数
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryUserActivitiIdsStringAfter(String userId, String afterId, int limit) {
+        logger.info("【按游标获取用户历史任务的工作流id集合】userId={},scope=USER,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return userMapper.selectHistoryInstanceIds(InboxScope.USER.name(), userId, afterId, 0, limit, false);
+    }
+
+
+    /**
+     * 分页获取历史任务的工作流id 查询用户处于候选人 user 已去重 只查id
+     *
+     * @param userId         用户
+     * @param page           页码 从1开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表 两张表合并后再分页, 页码越大查的越多 深分页用游标
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryUserActivitiIdsString(String userId, int page, int limit, boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryUserActivitiIdsString(userId, page, limit);
+        }
+        logger.info("【分页获取用户历史任务的工作流id集合 含归档】userId={},scope=USER,page={},limit={}", userId, page, limit);
+        checkPage(page, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.USER, userId, null, (page - 1) * limit, limit);
+    }
+
+
+    /**
+     * 按游标获取历史任务的工作流id 查询用户处于候选人 user 已去重 只查id
+     *
+     * @param userId         用户
+     * @param afterId        上一页最后一个工作流id 为空时从第一条开始
+     * @param limit          每页条数
+     * @param includeArchive 是否同时查归档表
+     * @return 工作流id集合 按id排序
+     */
+    public List<String> getHistoryUserActivitiIdsStringAfter(String userId, String afterId, int limit,
+                                                            boolean includeArchive) {
+        if (!withArchive(includeArchive)) {
+            return getHistoryUserActivitiIdsStringAfter(userId, afterId, limit);
+        }
+        logger.info("【按游标获取用户历史任务的工作流id集合 含归档】userId={},scope=USER,afterId={},limit={}", userId, afterId, limit);
+        checkPage(1, limit);
+        return selectHistoryInstanceIdsWithArchive(InboxScope.USER, userId, afterId, 0, limit);
     }
 
 
@@ -0,0 +1,93 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.LatencyStats;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/14 10:20
+ * @Description: 异步模式的统计快照
+ */
+public class AsyncStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean enabled;
+    private final long submittedCount;
+    private final long completedCount;
+    private final long failedCount;
+    /**
+     * 队列满被拒绝的次数
+     */
+    private final long rejectedCount;
+    /**
+     * 扫描补执行的作业数 宕机重启或队列满时未派发的
+     */
+    private final long recoveredCount;
+    /**
+     * 当前排队数
+     */
+    private final int queueDepth;
+    private final int activeCount;
+    /**
+     * 从提交到开始执行的等待时间
+     */
+    private final LatencyStats lag;
+
+    public AsyncStats(boolean enabled, long submittedCount, long completedCount, long failedCount,
+                      long rejectedCount, long recoveredCount, int queueDepth, int activeCount, LatencyStats lag) {
+        this.enabled = enabled;
+        this.submittedCount = submittedCount;
+        this.completedCount = completedCount;
+        this.failedCount = failedCount;
+        this.rejectedCount = rejectedCount;
+        this.recoveredCount = recoveredCount;
+        this.queueDepth = queueDepth;
+        this.activeCount = activeCount;
+        this.lag = lag;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public long getCompletedCount() {
+        return completedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public LatencyStats getLag() {
+        return lag;
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncStats{enabled=" + enabled + ", submittedCount=" + submittedCount + ", completedCount="
+                + completedCount + ", failedCount=" + failedCount + ", rejectedCount=" + rejectedCount
+                + ", recoveredCount=" + recoveredCount + ", queueDepth=" + queueDepth + ", activeCount=" + activeCount + ", lag=" + lag + "}";
+    }
+}
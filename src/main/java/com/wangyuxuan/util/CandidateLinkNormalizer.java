@@ -0,0 +1,136 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.dao.T_userMapper;
+import org.activiti.engine.ManagementService;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.IdentityLinkEntity;
+import org.activiti.engine.impl.persistence.entity.TaskEntity;
+import org.activiti.engine.task.IdentityLinkType;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 09:40
+ * @Description: 把旧数据中逗号拼接的候选组(候选人)拆成每个id一条身份关联, 拆分后待办可以直接用sql按组筛选
+ * 通过引擎删除和添加身份关联, 历史身份关联 缓存和索引随之更新; 每批 migration.candidateLinks.batchSize 个任务一个事务
+ * 只处理进行中的任务 已结束任务的历史身份关联保持原样
+ */
+@Component("candidateLinkNormalizer")
+public class CandidateLinkNormalizer {
+
+    protected Logger logger = LoggerFactory.getLogger(CandidateLinkNormalizer.class);
+
+    @Value("${migration.candidateLinks.batchSize:200}")
+    private int batchSize;
+
+    @Autowired
+    private T_userMapper userMapper;
+    @Autowired
+    private ManagementService managementService;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 拆分所有逗号拼接的候选身份关联 同一时间只有一个在执行
+     *
+     * @return 拆分的身份关联数 已有拆分在执行时返回-1
+     */
+    public int normalize() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        try {
+            int total = 0;
+            String afterId = null;
+            while (true) {
+                final List<String> taskIds = userMapper.selectJoinedCandidateTaskIds(afterId, batchSize);
+                if (taskIds.isEmpty()) {
+                    break;
+                }
+                total += managementService.executeCommand(new Command<Integer>() {
+                    @Override
+                    public Integer execute(CommandContext commandContext) {
+                        int count = 0;
+                        for (String taskId : taskIds) {
+                            TaskEntity task = commandContext.getTaskEntityManager().findTaskById(taskId);
+                            if (task != null) {
+                                count += normalize(task);
+                            }
+                        }
+                        return count;
+                    }
+                });
+                afterId = taskIds.get(taskIds.size() - 1);
+                logger.info("【拆分候选身份关联】afterId={},total={}", afterId, total);
+                if (taskIds.size() < batchSize) {
+                    break;
+                }
+            }
+            return total;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 拆分一个任务的候选身份关联 已有的单个id不重复添加
+     *
+     * @return 拆分的身份关联数
+     */
+    private int normalize(TaskEntity task) {
+        Set<String> groupIds = new LinkedHashSet<String>();
+        Set<String> userIds = new LinkedHashSet<String>();
+        Set<String> existingGroupIds = new LinkedHashSet<String>();
+        Set<String> existingUserIds = new LinkedHashSet<String>();
+        List<IdentityLinkEntity> joined = new ArrayList<IdentityLinkEntity>();
+        for (IdentityLinkEntity link : task.getIdentityLinks()) {
+            if (!IdentityLinkType.CANDIDATE.equals(link.getType())) {
+                continue;
+            }
+            if (isJoined(link.getGroupId()) || isJoined(link.getUserId())) {
+                joined.add(link);
+                split(groupIds, link.getGroupId());
+                split(userIds, link.getUserId());
+            } else if (link.getGroupId() != null) {
+                existingGroupIds.add(link.getGroupId());
+            } else if (link.getUserId() != null) {
+                existingUserIds.add(link.getUserId());
+            }
+        }
+        for (IdentityLinkEntity link : joined) {
+            task.deleteIdentityLink(link.getUserId(), link.getGroupId(), IdentityLinkType.CANDIDATE);
+        }
+        groupIds.removeAll(existingGroupIds);
+        userIds.removeAll(existingUserIds);
+        task.addCandidateGroups(groupIds);
+        task.addCandidateUsers(userIds);
+        return joined.size();
+    }
+
+    private static boolean isJoined(String ids) {
+        return ids != null && ids.indexOf(",") >= 0;
+    }
+
+    private static void split(Set<String> target, String ids) {
+        if (StringUtils.isBlank(ids)) {
+            return;
+        }
+        for (String id : ids.split(",")) {
+            if (StringUtils.isNotBlank(id)) {
+                target.add(id.trim());
+            }
+        }
+    }
+}
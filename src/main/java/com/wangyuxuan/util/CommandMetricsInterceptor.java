@@ -0,0 +1,51 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.impl.interceptor.AbstractCommandInterceptor;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandConfig;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 16:05
+ * @Description: 按命令类型记录引擎命令的耗时和乐观锁失败 配置在 customPreCommandInterceptors, 耗时包含事务提交
+ * 未开启 metrics.enabled 时直接执行下一个拦截器
+ */
+public class CommandMetricsInterceptor extends AbstractCommandInterceptor {
+
+    private EngineMetrics engineMetrics;
+
+    @Override
+    public <T> T execute(CommandConfig config, Command<T> command) {
+        if (!engineMetrics.isEnabled()) {
+            return next.execute(config, command);
+        }
+        engineMetrics.commandStarted();
+        long start = System.nanoTime();
+        boolean optimisticLockFailure = false;
+        boolean failure = true;
+        try {
+            T result = next.execute(config, command);
+            failure = false;
+            return result;
+        } catch (ActivitiOptimisticLockingException e) {
+            optimisticLockFailure = true;
+            throw e;
+        } finally {
+            engineMetrics.commandFinished(commandType(command), System.nanoTime() - start, optimisticLockFailure,
+                    failure);
+        }
+    }
+
+    /**
+     * 匿名命令用外部类名加序号 如 ActivitiUtils$3
+     */
+    private static String commandType(Command<?> command) {
+        String name = command.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    public void setEngineMetrics(EngineMetrics engineMetrics) {
+        this.engineMetrics = engineMetrics;
+    }
+}
@@ -0,0 +1,80 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.LatencyHistogram;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 15:30
+ * @Description: 一类引擎命令(或一个方法)的统计 耗时分布 flush写入的条数 乐观锁失败和其他失败次数
+ * 嵌套命令的写入算在最外层命令上
+ */
+public class CommandStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong insertCount = new AtomicLong();
+    private final AtomicLong updateCount = new AtomicLong();
+    private final AtomicLong deleteCount = new AtomicLong();
+    private final AtomicLong optimisticLockFailureCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    void record(long nanos, boolean optimisticLockFailure, boolean failure) {
+        latency.record(nanos);
+        if (optimisticLockFailure) {
+            optimisticLockFailureCount.incrementAndGet();
+        } else if (failure) {
+            failureCount.incrementAndGet();
+        }
+    }
+
+    void recordFlush(int flushes, int inserts, int updates, int deletes) {
+        flushCount.addAndGet(flushes);
+        insertCount.addAndGet(inserts);
+        updateCount.addAndGet(updates);
+        deleteCount.addAndGet(deletes);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getInsertCount() {
+        return insertCount.get();
+    }
+
+    public long getUpdateCount() {
+        return updateCount.get();
+    }
+
+    /**
+     * 删除语句数 批量删除算一条
+     */
+    public long getDeleteCount() {
+        return deleteCount.get();
+    }
+
+    public long getOptimisticLockFailureCount() {
+        return optimisticLockFailureCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CommandStats{latency=" + latency + ", flushCount=" + getFlushCount() + ", insertCount="
+                + getInsertCount() + ", updateCount=" + getUpdateCount() + ", deleteCount=" + getDeleteCount()
+                + ", optimisticLockFailureCount=" + getOptimisticLockFailureCount() + ", failureCount="
+                + getFailureCount() + "}";
+    }
+}
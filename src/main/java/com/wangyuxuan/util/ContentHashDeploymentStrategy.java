@@ -0,0 +1,320 @@
+package com.wangyuxuan.util;
+
+import org.activiti.bpmn.converter.BpmnXMLConverter;
+import org.activiti.bpmn.converter.util.InputStreamProvider;
+import org.activiti.bpmn.model.BpmnModel;
+import org.activiti.bpmn.model.Process;
+import org.activiti.engine.ActivitiException;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.repository.Deployment;
+import org.activiti.engine.repository.DeploymentBuilder;
+import org.activiti.spring.autodeployment.AbstractAutoDeploymentStrategy;
+import org.activiti.validation.ProcessValidatorFactory;
+import org.activiti.validation.ValidationError;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 14:30
+ * @Description: 按内容哈希自动部署 deploymentMode=content-hash
+ * 每个bpmn和同名的流程图(test.bpmn 与 test.png test.{流程key}.png)一个部署, zip/bar/jar 一个部署, 部署名为 deploymentName-文件名
+ * 资源名只取文件名, 不同目录下的同名文件视为配置错误
+ * 内容的SHA-256记在部署的category, 和最新一次同名部署相同时跳过, 不读库中的资源 也不解析
+ * 有变化的先并行解析和校验, 全部通过后逐个部署 部署时不再重复校验; 带了流程图的不会再生成
+ */
+public class ContentHashDeploymentStrategy extends AbstractAutoDeploymentStrategy {
+
+    public static final String DEPLOYMENT_MODE = "content-hash";
+
+    private static final String[] BPMN_SUFFIXES = {".bpmn20.xml", ".bpmn"};
+    private static final String[] DIAGRAM_SUFFIXES = {".png", ".jpg", ".gif", ".svg"};
+    private static final String[] ARCHIVE_SUFFIXES = {".zip", ".bar", ".jar"};
+
+    protected Logger logger = LoggerFactory.getLogger(ContentHashDeploymentStrategy.class);
+
+    /**
+     * 并行解析的线程数
+     */
+    private int parseParallelism = Runtime.getRuntime().availableProcessors();
+    private String xmlEncoding = "UTF-8";
+
+    @Override
+    protected String getDeploymentMode() {
+        return DEPLOYMENT_MODE;
+    }
+
+    @Override
+    public void deployResources(String deploymentNameHint, Resource[] resources, RepositoryService repositoryService) {
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, byte[]>> groups = group(resources);
+
+        Map<String, String> deployedHashes = new HashMap<String, String>();
+        //按部署时间升序 同名的后面覆盖前面
+        for (Deployment deployment : repositoryService.createDeploymentQuery()
+                .deploymentNameLike(deploymentNameHint + "-%").orderByDeploymenTime().asc().list()) {
+            deployedHashes.put(deployment.getName(), deployment.getCategory());
+        }
+        Map<String, Map<String, byte[]>> changed = new LinkedHashMap<String, Map<String, byte[]>>();
+        Map<String, String> hashes = new HashMap<String, String>();
+        for (Map.Entry<String, Map<String, byte[]>> entry : groups.entrySet()) {
+            String name = deploymentNameHint + "-" + entry.getKey();
+            String hash = hash(entry.getValue());
+            if (!hash.equals(deployedHashes.get(name))) {
+                changed.put(name, entry.getValue());
+                hashes.put(name, hash);
+            }
+        }
+        if (!changed.isEmpty()) {
+            validate(changed);
+            for (Map.Entry<String, Map<String, byte[]>> entry : changed.entrySet()) {
+                DeploymentBuilder builder = repositoryService.createDeployment().name(entry.getKey())
+                        .category(hashes.get(entry.getKey())).disableSchemaValidation().disableBpmnValidation();
+                for (Map.Entry<String, byte[]> resource : entry.getValue().entrySet()) {
+                    builder.addInputStream(resource.getKey(), new ByteArrayInputStream(resource.getValue()));
+                }
+                builder.deploy();
+                logger.info("【自动部署】name={},resources={}", entry.getKey(), entry.getValue().keySet());
+            }
+        }
+        logger.info("【自动部署完成】total={},deployed={},skipped={},ms={}", groups.size(), changed.size(),
+                groups.size() - changed.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按部署分组 组名 -> (资源名 -> 内容), 流程图归到同名的bpmn, 没有对应bpmn的单独一组
+     */
+    private Map<String, Map<String, byte[]>> group(Resource[] resources) {
+        Map<String, byte[]> contents = new TreeMap<String, byte[]>();
+        Map<String, Map<String, byte[]>> groups = new TreeMap<String, Map<String, byte[]>>();
+        for (Resource resource : resources) {
+            //只用文件名 各节点部署路径不同时部署名和哈希仍一致
+            String resourceName = resource.getFilename();
+            if (contents.containsKey(resourceName) || groups.containsKey(resourceName)) {
+                throw new ActivitiException("couldn't auto deploy resource '" + resource + "': duplicate name");
+            }
+            try {
+                if (endsWith(resourceName, ARCHIVE_SUFFIXES)) {
+                    groups.put(resourceName, unzip(resource));
+                } else {
+                    contents.put(resourceName, read(resource));
+                }
+            } catch (IOException e) {
+                throw new ActivitiException("couldn't auto deploy resource '" + resource + "': " + e.getMessage(), e);
+            }
+        }
+        Map<String, String> bpmnBaseNames = new HashMap<String, String>();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            String baseName = stripSuffix(entry.getKey(), BPMN_SUFFIXES);
+            if (baseName != null) {
+                Map<String, byte[]> group = new TreeMap<String, byte[]>();
+                group.put(entry.getKey(), entry.getValue());
+                groups.put(entry.getKey(), group);
+                bpmnBaseNames.put(baseName, entry.getKey());
+            }
+        }
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            if (bpmnBaseNames.containsValue(entry.getKey())) {
+                continue;
+            }
+            String owner = null;
+            String baseName = stripSuffix(entry.getKey(), DIAGRAM_SUFFIXES);
+            //test.png 或 test.{流程key}.png
+            while (baseName != null && owner == null) {
+                owner = bpmnBaseNames.get(baseName);
+                int dot = baseName.lastIndexOf('.');
+                baseName = dot > 0 ? baseName.substring(0, dot) : null;
+            }
+            if (owner == null) {
+                owner = entry.getKey();
+                groups.put(owner, new TreeMap<String, byte[]>());
+            }
+            groups.get(owner).put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * 并行解析和校验有变化的bpmn 有错误时一起抛出, 不同部署里的流程key不能重复
+     */
+    private void validate(Map<String, Map<String, byte[]>> changed) {
+        final List<String> names = new ArrayList<String>();
+        List<Callable<List<String>>> parses = new ArrayList<Callable<List<String>>>();
+        for (Map<String, byte[]> group : changed.values()) {
+            for (final Map.Entry<String, byte[]> resource : group.entrySet()) {
+                if (endsWith(resource.getKey(), BPMN_SUFFIXES)) {
+                    names.add(resource.getKey());
+                    parses.add(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() {
+                            return parse(resource.getKey(), resource.getValue());
+                        }
+                    });
+                }
+            }
+        }
+        if (parses.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parseParallelism,
+                parses.size())), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "activiti-deploy-parse-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<String> errors = new ArrayList<String>();
+        Map<String, String> processKeys = new HashMap<String, String>();
+        try {
+            List<Future<List<String>>> futures = executor.invokeAll(parses);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    for (String processKey : futures.get(i).get()) {
+                        String other = processKeys.put(processKey, names.get(i));
+                        if (other != null) {
+                            errors.add(names.get(i) + ": process key '" + processKey + "' also defined in " + other);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    errors.add(names.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ActivitiException("interrupted while parsing deployment resources", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!errors.isEmpty()) {
+            throw new ActivitiException("couldn't auto deploy resources: " + errors);
+        }
+    }
+
+    /**
+     * 按xsd解析并校验一个bpmn
+     *
+     * @return 流程key
+     */
+    private List<String> parse(String resourceName, final byte[] bytes) {
+        BpmnModel model = new BpmnXMLConverter().convertToBpmnModel(new InputStreamProvider() {
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+        }, true, false, xmlEncoding);
+        List<String> problems = new ArrayList<String>();
+        for (ValidationError error : new ProcessValidatorFactory().createDefaultProcessValidator().validate(model)) {
+            if (error.isWarning()) {
+                logger.warn("【流程校验警告】resource={},error={}", resourceName, error);
+            } else {
+                problems.add(error.toString());
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new ActivitiException(problems.toString());
+        }
+        List<String> processKeys = new ArrayList<String>();
+        for (Process process : model.getProcesses()) {
+            if (process.isExecutable()) {
+                processKeys.add(process.getId());
+            }
+        }
+        return processKeys;
+    }
+
+    private static Map<String, byte[]> unzip(Resource resource) throws IOException {
+        Map<String, byte[]> entries = new TreeMap<String, byte[]>();
+        ZipInputStream zip = new ZipInputStream(resource.getInputStream());
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), IOUtils.toByteArray(zip));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        InputStream in = resource.getInputStream();
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 资源名和内容按名字排序后的SHA-256
+     */
+    private static String hash(Map<String, byte[]> resources) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Charset utf8 = Charset.forName("UTF-8");
+            for (Map.Entry<String, byte[]> resource : new TreeMap<String, byte[]>(resources).entrySet()) {
+                digest.update(resource.getKey().getBytes(utf8));
+                digest.update((byte) 0);
+                digest.update(resource.getValue());
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean endsWith(String name, String[] suffixes) {
+        return stripSuffix(name, suffixes) != null;
+    }
+
+    private static String stripSuffix(String name, String[] suffixes) {
+        for (String suffix : suffixes) {
+            if (name.toLowerCase().endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    public void setParseParallelism(int parseParallelism) {
+        this.parseParallelism = parseParallelism;
+    }
+
+    public void setXmlEncoding(String xmlEncoding) {
+        this.xmlEncoding = xmlEncoding;
+    }
+}
@@ -0,0 +1,81 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.impl.cmd.CompleteTaskCmd;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.jobexecutor.JobHandler;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.activiti.engine.impl.persistence.entity.JobEntity;
+import org.activiti.engine.impl.persistence.entity.MessageEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/14 10:10
+ * @Description: 异步模式的后续推进 作为引擎的消息作业(ACT_RU_JOB)保存, 和启动/完成请求在同一事务中提交
+ * 配置 start: 已创建未推进的工作流从开始节点推进到等待状态; complete:任务id: 完成任务(变量在请求时已写入)
+ * 由 {@link EngineAsyncExecutor} 在提交后执行, 宕机或重启后未执行的作业由它定期补执行
+ */
+public class DeferredContinuationJobHandler implements JobHandler {
+
+    public static final String TYPE = "deferred-continuation";
+
+    private static final String START = "start";
+    private static final String COMPLETE_PREFIX = "complete:";
+
+    protected Logger logger = LoggerFactory.getLogger(DeferredContinuationJobHandler.class);
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public void execute(JobEntity job, String configuration, ExecutionEntity execution, CommandContext commandContext) {
+        if (START.equals(configuration)) {
+            if (execution == null) {
+                logger.info("【异步启动】工作流已不存在 jobId={}", job.getId());
+                return;
+            }
+            //从数据库加载的工作流实体 先初始化流程定义再推进
+            execution.getProcessDefinition();
+            execution.start();
+            return;
+        }
+        if (configuration != null && configuration.startsWith(COMPLETE_PREFIX)) {
+            String taskId = configuration.substring(COMPLETE_PREFIX.length());
+            if (commandContext.getTaskEntityManager().findTaskById(taskId) == null) {
+                //已被其他请求完成
+                logger.info("【异步完成任务】任务已不存在 taskId={}", taskId);
+                return;
+            }
+            new CompleteTaskCmd(taskId, null).execute(commandContext);
+            return;
+        }
+        throw new IllegalStateException("未知的异步作业配置 configuration=" + configuration);
+    }
+
+    /**
+     * 在当前命令中保存一个后续推进作业 随当前事务提交
+     *
+     * @return 作业
+     */
+    static MessageEntity send(CommandContext commandContext, ExecutionEntity execution, String configuration) {
+        MessageEntity message = new MessageEntity();
+        message.setJobHandlerType(TYPE);
+        message.setJobHandlerConfiguration(configuration);
+        if (execution != null) {
+            message.setExecution(execution);
+        }
+        commandContext.getJobEntityManager().send(message);
+        return message;
+    }
+
+    static String startConfiguration() {
+        return START;
+    }
+
+    static String completeConfiguration(String taskId) {
+        return COMPLETE_PREFIX + taskId;
+    }
+}
@@ -0,0 +1,387 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.LatencyStats;
+import com.wangyuxuan.dao.T_userMapper;
+import org.activiti.engine.ActivitiException;
+import org.activiti.engine.ActivitiObjectNotFoundException;
+import org.activiti.engine.JobNotFoundException;
+import org.activiti.engine.ManagementService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.cmd.NeedsActiveTaskCmd;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.activiti.engine.impl.persistence.entity.ProcessDefinitionEntity;
+import org.activiti.engine.impl.persistence.entity.TaskEntity;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/14 10:05
+ * @Description: 启动工作流 完成任务的异步模式 async.enabled=true 时开启
+ * 开启后在调用线程中把请求落库(创建工作流实例并写入变量 / 写入任务变量), 同一事务中保存一个后续推进作业
+ * ({@link DeferredContinuationJobHandler}), 事务提交后 future 完成; 从开始节点推进 / 完成任务的后续执行交给有界线程池
+ * 线程池中的作业在宕机或重启时不会丢失, 每 async.recoverSeconds 秒扫描一次 ACT_RU_JOB 补执行
+ * 失败的作业按引擎的重试次数(默认3次)重试, 重试用完的留在 ACT_RU_JOB 中 需要人工处理
+ * 队列满时不阻塞调用方也不落库, future 以 RejectedExecutionException 失败
+ * 未开启时在调用线程中同步执行, 返回已完成的 future
+ */
+@Component("engineAsyncExecutor")
+public class EngineAsyncExecutor implements InitializingBean, DisposableBean {
+
+    protected Logger logger = LoggerFactory.getLogger(EngineAsyncExecutor.class);
+
+    @Value("${async.enabled:false}")
+    private boolean enabled;
+    @Value("${async.poolSize:4}")
+    private int poolSize;
+    @Value("${async.queueCapacity:500}")
+    private int queueCapacity;
+    @Value("${async.recoverSeconds:30}")
+    private int recoverSeconds;
+    /**
+     * 扫描时每次查询的作业数 按作业id翻页直到扫完
+     */
+    @Value("${async.recoverPageSize:500}")
+    private int recoverPageSize;
+
+    @Autowired
+    private ManagementService managementService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+    @Autowired
+    private T_userMapper userMapper;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService recoverer;
+
+    /**
+     * 本节点已交给线程池还未执行完的作业
+     */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    /**
+     * 上一次扫描时未执行的作业 连续两次扫描都在的才补执行, 避免和刚提交(可能是其他节点)的作业重复执行
+     */
+    private Set<String> lastPending = new HashSet<String>();
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+    private final LatencyStats lag = new LatencyStats();
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        logger.info("【开启异步模式】poolSize={},queueCapacity={},recoverSeconds={}", poolSize, queueCapacity,
+                recoverSeconds);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "activiti-async-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+        recoverer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "activiti-async-recoverer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        //启动时立即扫描一次 接上次停机前未执行的作业
+        recoverer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recover();
+                } catch (RuntimeException e) {
+                    logger.error("【异步模式】扫描未执行的作业失败", e);
+                }
+            }
+        }, 0, recoverSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (recoverer != null) {
+            recoverer.shutdownNow();
+        }
+        if (executor != null) {
+            //未执行的作业已落库 下次启动时补执行
+            executor.shutdown();
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 启动工作流
+     *
+     * @param processDefinitionId 部署了的流程id
+     * @param variables           变量
+     * @return 工作流实例和变量落库(事务提交)后完成 结果为工作流id, 从开始节点的推进在之后执行
+     */
+    public CompletableFuture<String> startProcessInstance(final String processDefinitionId,
+                                                          final Map<String, Object> variables) {
+        if (executor == null) {
+            CompletableFuture<String> future = new CompletableFuture<String>();
+            try {
+                future.complete(runtimeService.startProcessInstanceById(processDefinitionId, variables).getId());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        return defer(new DeferredCommand<String>() {
+            @Override
+            protected String persist(CommandContext commandContext) {
+                ProcessDefinitionEntity processDefinition = commandContext.getProcessEngineConfiguration()
+                        .getDeploymentManager().findDeployedProcessDefinitionById(processDefinitionId);
+                if (processDefinition == null) {
+                    throw new ActivitiObjectNotFoundException("No process definition found for id = '"
+                            + processDefinitionId + "'", ProcessDefinition.class);
+                }
+                if (processDefinition.isSuspended()) {
+                    throw new ActivitiException("Cannot start process instance. Process definition "
+                            + processDefinition.getName() + " (id = " + processDefinition.getId() + ") is suspended");
+                }
+                ExecutionEntity processInstance = processDefinition.createProcessInstance(null);
+                if (variables != null) {
+                    processInstance.setVariables(variables);
+                }
+                send(commandContext, processInstance, DeferredContinuationJobHandler.startConfiguration());
+                return processInstance.getId();
+            }
+        });
+    }
+
+    /**
+     * 完成任务
+     *
+     * @param taskId    任务id
+     * @param variables 变量 可以为null
+     * @return 变量落库(事务提交)后完成, 任务的完成和流转在之后执行
+     */
+    public CompletableFuture<Void> completeTask(final String taskId, final Map<String, Object> variables) {
+        if (executor == null) {
+            CompletableFuture<Void> future = new CompletableFuture<Void>();
+            try {
+                taskService.complete(taskId, variables);
+                future.complete(null);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        return defer(new DeferredCommand<Void>() {
+            @Override
+            protected Void persist(CommandContext commandContext) {
+                //校验任务存在且未挂起 和同步完成任务一致
+                ExecutionEntity execution = new NeedsActiveTaskCmd<ExecutionEntity>(taskId) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected ExecutionEntity execute(CommandContext commandContext, TaskEntity task) {
+                        if (variables != null) {
+                            if (task.getExecutionId() != null) {
+                                task.setExecutionVariables(variables);
+                            } else {
+                                task.setVariables(variables);
+                            }
+                        }
+                        return task.getExecution();
+                    }
+                }.execute(commandContext);
+                send(commandContext, execution, DeferredContinuationJobHandler.completeConfiguration(taskId));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 在调用线程中执行落库命令, 事务提交后完成 future 并把后续推进交给线程池
+     */
+    private <T> CompletableFuture<T> defer(DeferredCommand<T> command) {
+        //队列已满时直接拒绝 不落库
+        if (executor.getQueue().remainingCapacity() == 0) {
+            rejectedCount.incrementAndGet();
+            logger.warn("【异步模式】队列已满 拒绝执行 queueDepth={}", executor.getQueue().size());
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            future.completeExceptionally(new RejectedExecutionException("异步模式队列已满"));
+            return future;
+        }
+        try {
+            managementService.executeCommand(command);
+        } catch (RuntimeException e) {
+            //提交时失败的 回滚监听已经记过
+            if (command.future.completeExceptionally(e)) {
+                failedCount.incrementAndGet();
+            }
+        }
+        return command.future;
+    }
+
+    /**
+     * 把作业交给线程池 队列满时留给扫描补执行
+     */
+    private boolean dispatch(final String jobId) {
+        if (!inFlight.add(jobId)) {
+            return false;
+        }
+        final long submitTime = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    lag.record(System.nanoTime() - submitTime);
+                    try {
+                        execute(jobId);
+                    } finally {
+                        inFlight.remove(jobId);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(jobId);
+            logger.warn("【异步模式】队列已满 作业等待扫描补执行 jobId={}", jobId);
+            return false;
+        }
+        submittedCount.incrementAndGet();
+        return true;
+    }
+
+    private void execute(String jobId) {
+        try {
+            managementService.executeJob(jobId);
+        } catch (JobNotFoundException e) {
+            //已由其他节点执行 或工作流已被删除
+        } catch (RuntimeException e) {
+            //引擎已扣减重试次数 由扫描再次执行
+            failedCount.incrementAndGet();
+            logger.warn("【异步模式】作业执行失败 jobId={}", jobId, e);
+            return;
+        }
+        completedCount.incrementAndGet();
+    }
+
+    /**
+     * 扫描还有重试次数的后续推进作业 连续两次扫描都未执行的交给线程池
+     * 在SQL中按处理类型筛选 其他消息作业不会占满一页, 按作业id翻页直到扫完; 队列满时剩下的留到下次扫描
+     */
+    void recover() {
+        Set<String> pending = new HashSet<String>();
+        int recovered = 0;
+        String afterId = null;
+        List<String> jobIds;
+        do {
+            jobIds = userMapper.selectRetryableMessageJobIds(DeferredContinuationJobHandler.TYPE, afterId,
+                    recoverPageSize);
+            for (String jobId : jobIds) {
+                if (inFlight.contains(jobId)) {
+                    continue;
+                }
+                if (!lastPending.contains(jobId) || executor.getQueue().remainingCapacity() == 0
+                        || !dispatch(jobId)) {
+                    pending.add(jobId);
+                    continue;
+                }
+                recovered++;
+            }
+            if (!jobIds.isEmpty()) {
+                afterId = jobIds.get(jobIds.size() - 1);
+            }
+        } while (jobIds.size() == recoverPageSize);
+        lastPending = pending;
+        if (recovered > 0) {
+            recoveredCount.addAndGet(recovered);
+            logger.info("【异步模式】补执行未执行的作业 recovered={}", recovered);
+        }
+    }
+
+    /**
+     * 统计快照
+     */
+    public AsyncStats stats() {
+        return new AsyncStats(executor != null, submittedCount.get(), completedCount.get(), failedCount.get(),
+                rejectedCount.get(), recoveredCount.get(), executor == null ? 0 : executor.getQueue().size(),
+                executor == null ? 0 : executor.getActiveCount(), lag.snapshot());
+    }
+
+    /**
+     * 落库命令 事务提交时完成 future 并派发后续推进作业, 回滚时 future 失败
+     */
+    private abstract class DeferredCommand<T> implements Command<Void> {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        private String jobId;
+
+        protected abstract T persist(CommandContext commandContext);
+
+        @Override
+        public Void execute(CommandContext commandContext) {
+            final T result = persist(commandContext);
+            commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                    new TransactionListener() {
+                        @Override
+                        public void execute(CommandContext commandContext) {
+                            future.complete(result);
+                            if (jobId != null) {
+                                dispatch(jobId);
+                            }
+                        }
+                    });
+            commandContext.getTransactionContext().addTransactionListener(TransactionState.ROLLED_BACK,
+                    new TransactionListener() {
+                        @Override
+                        public void execute(CommandContext commandContext) {
+                            if (future.completeExceptionally(new ActivitiException("异步请求的事务已回滚"))) {
+                                failedCount.incrementAndGet();
+                            }
+                        }
+                    });
+            return null;
+        }
+
+        /**
+         * 保存后续推进作业 随当前事务提交
+         */
+        protected void send(CommandContext commandContext, ExecutionEntity execution, String configuration) {
+            jobId = DeferredContinuationJobHandler.send(commandContext, execution, configuration).getId();
+        }
+    }
+}
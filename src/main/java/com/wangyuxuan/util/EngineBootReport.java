@@ -0,0 +1,68 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.UserTaskIndex;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 10:45
+ * @Description: 容器启动后预热流程定义目录 并汇总引擎启动耗时: 引擎初始化 建表 部署 缓存预热
+ * 引擎配置为 {@link TimedProcessEngineConfiguration} 时才有前三项, 用户任务索引在本监听之前加载
+ */
+@Component("engineBootReport")
+public class EngineBootReport implements ApplicationListener<ContextRefreshedEvent> {
+
+    protected Logger logger = LoggerFactory.getLogger(EngineBootReport.class);
+
+    @Autowired
+    private ProcessEngineConfigurationImpl processEngineConfiguration;
+    @Autowired
+    private ActivitiUtils activitiUtils;
+    @Autowired
+    private UserTaskIndex userTaskIndex;
+
+    private volatile Map<String, Long> phases = Collections.emptyMap();
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (event.getApplicationContext().getParent() != null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        activitiUtils.getProcessDefinitions(null);
+        long catalogMillis = System.currentTimeMillis() - start;
+        long indexMillis = Math.max(0, userTaskIndex.getLastRebuildMillis());
+
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        if (processEngineConfiguration instanceof TimedProcessEngineConfiguration) {
+            TimedProcessEngineConfiguration timed = (TimedProcessEngineConfiguration) processEngineConfiguration;
+            result.put("init", timed.getInitMillis());
+            result.put("schema", timed.getSchemaMillis());
+            result.put("deploy", timed.getDeployMillis());
+        }
+        result.put("warmUp", catalogMillis + indexMillis);
+        result.put("warmUp.processDefinitions", catalogMillis);
+        result.put("warmUp.userTaskIndex", indexMillis);
+        result.put("context", System.currentTimeMillis() - event.getApplicationContext().getStartupDate());
+        phases = Collections.unmodifiableMap(result);
+        logger.info("【引擎启动耗时】{}", phases);
+    }
+
+    /**
+     * 启动各阶段耗时(毫秒) 顺序为 init schema deploy warmUp context, context为整个容器从开始刷新到就绪的耗时
+     * 容器未就绪时为空
+     */
+    public Map<String, Long> getPhases() {
+        return phases;
+    }
+}
@@ -0,0 +1,131 @@
+package com.wangyuxuan.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 15:45
+ * @Description: 引擎命令和 ActivitiUtils 方法的耗时统计 由 {@link CommandMetricsInterceptor} {@link MethodTimingInterceptor}
+ * 和 {@link WriteBehindDbSqlSession} 记录; metrics.enabled=false 时各记录点只读一次开关
+ */
+@Component("engineMetrics")
+public class EngineMetrics {
+
+    @Value("${metrics.enabled:false}")
+    private volatile boolean enabled;
+
+    private final ConcurrentMap<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+    private final ConcurrentMap<String, CommandStats> methods = new ConcurrentHashMap<String, CommandStats>();
+
+    /**
+     * 当前线程最外层命令的写入条数 嵌套命令共用
+     */
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 命令开始 返回是否为最外层命令
+     */
+    boolean commandStarted() {
+        Frame frame = frames.get();
+        if (frame == null) {
+            frames.set(new Frame());
+            return true;
+        }
+        frame.depth++;
+        return false;
+    }
+
+    /**
+     * 命令结束 最外层命令结束时把flush写入的条数记到该命令上
+     */
+    void commandFinished(String type, long nanos, boolean optimisticLockFailure, boolean failure) {
+        CommandStats stats = stats(commands, type);
+        stats.record(nanos, optimisticLockFailure, failure);
+        Frame frame = frames.get();
+        if (frame == null) {
+            return;
+        }
+        if (frame.depth > 0) {
+            frame.depth--;
+            return;
+        }
+        frames.remove();
+        if (frame.flushes > 0) {
+            stats.recordFlush(frame.flushes, frame.inserts, frame.updates, frame.deletes);
+        }
+    }
+
+    /**
+     * 命令上下文关闭前flush 记到当前线程最外层命令上, 没有写入的flush不计
+     */
+    void flushed(int inserts, int updates, int deletes) {
+        Frame frame = frames.get();
+        if (frame != null && inserts + updates + deletes > 0) {
+            frame.flushes++;
+            frame.inserts += inserts;
+            frame.updates += updates;
+            frame.deletes += deletes;
+        }
+    }
+
+    void methodFinished(String method, long nanos, boolean failure) {
+        stats(methods, method).record(nanos, false, failure);
+    }
+
+    /**
+     * 统计快照 按名字排序
+     *
+     * @return enabled commands(命令类名 -> 统计) methods(方法 -> 统计)
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("enabled", enabled);
+        result.put("commands", Collections.unmodifiableMap(new TreeMap<String, CommandStats>(commands)));
+        result.put("methods", Collections.unmodifiableMap(new TreeMap<String, CommandStats>(methods)));
+        return result;
+    }
+
+    /**
+     * 清空统计
+     */
+    public void reset() {
+        commands.clear();
+        methods.clear();
+    }
+
+    private static CommandStats stats(ConcurrentMap<String, CommandStats> map, String name) {
+        CommandStats stats = map.get(name);
+        if (stats == null) {
+            CommandStats created = new CommandStats();
+            stats = map.putIfAbsent(name, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static class Frame {
+        int depth;
+        int flushes;
+        int inserts;
+        int updates;
+        int deletes;
+    }
+}
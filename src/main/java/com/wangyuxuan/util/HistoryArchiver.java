@@ -0,0 +1,255 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.dao.T_userMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/19 14:30
+ * @Description: 把结束超过 archive.days 天的工作流的历史数据移到归档表 ARC_HI_* archive.enabled=true 时定时执行
+ * 每批 archive.batchSize 个工作流在一个事务内 复制到归档表再删除原表数据, 批之间暂停 archive.pauseMillis 毫秒
+ * 只处理早已结束的工作流, 不会锁住正在写入的行; 处理过的数据已从原表删除, 中断后下次从剩下的最早一批继续
+ * 开启时启动即建好归档表, 归档未开启或归档表不存在时 includeArchive 查询只查原表 见 {@link #isArchiveAvailable()}
+ */
+@Component("historyArchiver")
+public class HistoryArchiver implements InitializingBean, DisposableBean {
+
+    /**
+     * 按 PROC_INST_ID_ 归档的历史表 身份关联单独处理
+     */
+    private static final String[] TABLES = {"ACT_HI_ACTINST", "ACT_HI_VARINST", "ACT_HI_TASKINST", "ACT_HI_PROCINST"};
+    private static final String LINK_TABLE = "ACT_HI_IDENTITYLINK";
+    private static final String ARCHIVE_PREFIX = "ARC_";
+    private static final String SOURCE_PREFIX = "ACT_";
+    /**
+     * 每条语句最多的任务id 一批工作流的任务可能很多
+     */
+    private static final int TASK_CHUNK = 1000;
+
+    protected Logger logger = LoggerFactory.getLogger(HistoryArchiver.class);
+
+    @Value("${archive.enabled:false}")
+    private boolean enabled;
+    /**
+     * 结束超过多少天的工作流归档
+     */
+    @Value("${archive.days:180}")
+    private int days;
+    @Value("${archive.batchSize:200}")
+    private int batchSize;
+    @Value("${archive.pauseMillis:500}")
+    private long pauseMillis;
+    /**
+     * 每次最多执行的批数
+     */
+    @Value("${archive.maxBatchesPerRun:500}")
+    private int maxBatchesPerRun;
+    @Value("${archive.intervalMinutes:60}")
+    private int intervalMinutes;
+
+    @Autowired
+    private T_userMapper userMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private ScheduledExecutorService scheduler;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile boolean tablesReady;
+
+    private final AtomicLong archivedCount = new AtomicLong();
+    private volatile Date lastRunTime;
+    private volatile String lastError;
+
+    @Override
+    public void afterPropertiesSet() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (!enabled) {
+            return;
+        }
+        logger.info("【开启历史归档】days={},batchSize={},intervalMinutes={}", days, batchSize, intervalMinutes);
+        //第一次归档前 includeArchive 查询也要能查归档表
+        prepareArchiveTables();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "activiti-history-archiver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    archive();
+                } catch (RuntimeException e) {
+                    logger.error("【历史归档失败】", e);
+                }
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        stopped = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 创建归档表 已存在时跳过 (MySQL CREATE TABLE LIKE, 内存数据库只复制列)
+     */
+    public void createArchiveTables() {
+        userMapper.createArchiveTable(archiveTable(LINK_TABLE), LINK_TABLE);
+        for (String table : TABLES) {
+            userMapper.createArchiveTable(archiveTable(table), table);
+        }
+    }
+
+    /**
+     * 创建归档表并检查是否都已存在
+     *
+     * @return 归档表是否可用
+     */
+    public boolean prepareArchiveTables() {
+        try {
+            createArchiveTables();
+        } catch (RuntimeException e) {
+            //没有建表权限时由DBA预先建好
+            logger.warn("【创建归档表失败 按已存在继续】{}", e.getMessage());
+        }
+        try {
+            userMapper.probeTable(archiveTable(LINK_TABLE));
+            for (String table : TABLES) {
+                userMapper.probeTable(archiveTable(table));
+            }
+            tablesReady = true;
+        } catch (RuntimeException e) {
+            logger.warn("【归档表不存在 查询不含归档】{}", e.getMessage());
+            tablesReady = false;
+        }
+        return tablesReady;
+    }
+
+    private static String archiveTable(String table) {
+        return ARCHIVE_PREFIX + table.substring(SOURCE_PREFIX.length());
+    }
+
+    /**
+     * 执行一次归档 同一时间只有一个在执行
+     *
+     * @return 本次归档的工作流数 已有归档在执行时返回-1
+     */
+    public int archive() {
+        if (!running.compareAndSet(false, true)) {
+            return -1;
+        }
+        int total = 0;
+        try {
+            lastRunTime = new Date();
+            lastError = null;
+            prepareArchiveTables();
+            Date endBefore = new Date(System.currentTimeMillis() - days * 24L * 3600 * 1000);
+            for (int batch = 0; batch < maxBatchesPerRun && !stopped; batch++) {
+                int count = archiveBatch(endBefore);
+                total += count;
+                if (count < batchSize) {
+                    break;
+                }
+                if (pauseMillis > 0) {
+                    Thread.sleep(pauseMillis);
+                }
+            }
+            logger.info("【历史归档】endBefore={},archived={}", endBefore, total);
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return total;
+        } catch (RuntimeException e) {
+            lastError = e.getMessage();
+            throw e;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 在一个事务内归档一批工作流
+     */
+    private int archiveBatch(final Date endBefore) {
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                List<String> instanceIds = userMapper.selectArchivableInstanceIds(endBefore, batchSize);
+                if (instanceIds.isEmpty()) {
+                    return 0;
+                }
+                //先取出任务id 任务的身份关联按 TASK_ID_ 处理, 工作流的按 PROC_INST_ID_ 处理, 都走索引只锁涉及的行
+                List<String> taskIds = userMapper.selectHistoryTaskIds(instanceIds);
+                for (int from = 0; from < taskIds.size(); from += TASK_CHUNK) {
+                    List<String> chunk = taskIds.subList(from, Math.min(from + TASK_CHUNK, taskIds.size()));
+                    userMapper.archiveHistoryTaskIdentityLinks(chunk);
+                    userMapper.deleteHistoryTaskIdentityLinks(chunk);
+                }
+                //任务的身份关联已删除 剩下的是工作流的身份关联 不会重复归档
+                userMapper.archiveHistoryRows(archiveTable(LINK_TABLE), LINK_TABLE, instanceIds);
+                userMapper.deleteHistoryRows(LINK_TABLE, instanceIds);
+                for (String table : TABLES) {
+                    userMapper.archiveHistoryRows(archiveTable(table), table, instanceIds);
+                    userMapper.deleteHistoryRows(table, instanceIds);
+                }
+                archivedCount.addAndGet(instanceIds.size());
+                return instanceIds.size();
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 归档已开启且归档表都已存在 否则查询不用带上归档表
+     */
+    public boolean isArchiveAvailable() {
+        return enabled && tablesReady;
+    }
+
+    /**
+     * 启动以来归档的工作流数
+     */
+    public long getArchivedCount() {
+        return archivedCount.get();
+    }
+
+    public Date getLastRunTime() {
+        return lastRunTime;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,49 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.InboxScope;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/19 15:20
+ * @Description: 归档历史任务的原生查询sql 条件与 T_userMapper.xml 中 selectHistoryInstanceIds 保持一致
+ * 归档表结构与原表相同, 用 historyService.createNativeHistoricTaskInstanceQuery() 执行可得到完整的历史任务
+ * 原生查询不能引用mapper中的sql片段, 只能手写一份; 两边修改任何一处都要同步, HistorySqlTest 在归档后比对结果
+ */
+final class HistorySql {
+
+    private static final String ASSIGNEE = "RES.ASSIGNEE_ = #{userId}";
+
+    private static final String GROUP = "RES.ASSIGNEE_ IS NULL AND EXISTS ("
+            + "SELECT 1 FROM ARC_HI_IDENTITYLINK HI WHERE HI.TASK_ID_ = RES.ID_ AND HI.TYPE_ = 'candidate'"
+            + " AND HI.GROUP_ID_ = #{userId})";
+
+    private static final String USER = "RES.ASSIGNEE_ IS NULL AND EXISTS ("
+            + "SELECT 1 FROM ARC_HI_IDENTITYLINK HI WHERE HI.TASK_ID_ = RES.ID_ AND HI.TYPE_ = 'candidate'"
+            + " AND (HI.USER_ID_ = #{userId} OR HI.GROUP_ID_ IN ("
+            + "SELECT M.GROUP_ID_ FROM ACT_ID_MEMBERSHIP M WHERE M.USER_ID_ = #{userId})))";
+
+    private HistorySql() {
+    }
+
+    /**
+     * 查询归档表中已完成历史任务的sql
+     *
+     * @param scope 查询范围 ASSIGNEE GROUP USER
+     * @return sql 参数 userId
+     */
+    static String selectArchivedTasks(InboxScope scope) {
+        return "SELECT RES.* FROM ARC_HI_TASKINST RES WHERE RES.END_TIME_ IS NOT NULL AND ("
+                + condition(scope) + ") ORDER BY RES.ID_";
+    }
+
+    private static String condition(InboxScope scope) {
+        switch (scope) {
+            case ASSIGNEE:
+                return ASSIGNEE;
+            case GROUP:
+                return GROUP;
+            default:
+                return USER;
+        }
+    }
+}
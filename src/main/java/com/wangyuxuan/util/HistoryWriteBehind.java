@@ -0,0 +1,604 @@
+package com.wangyuxuan.util;
+
+import com.alibaba.fastjson.JSON;
+import com.wangyuxuan.cache.LatencyStats;
+import com.wangyuxuan.dao.T_userMapper;
+import com.wangyuxuan.entity.HistoricActivityRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/20 10:30
+ * @Description: 历史活动延迟写入 history.writeBehind.enabled=true 时开启, 由 {@link WriteBehindDbSqlSessionFactory} 接入引擎
+ * 事务内已结束的历史活动(ACT_HI_ACTINST)不随事务写入, 提交前先追加到本地日志, 提交后放入有界队列, 后台线程按批写库
+ * 队列满或写日志失败时该事务照常同步写入; 提交后在日志中追加提交标记, 回滚的追加回滚标记
+ * 重启时只重放有提交标记的批: 跳过库中已存在的 以及工作流已不在 ACT_HI_PROCINST 中(已删除)的记录,
+ * 宕机时未提交的事务没有提交标记 不会写入, 不论工作流是新建的还是已存在的
+ * 丢失窗口: 数据库已提交 但提交标记写入日志之前宕机, 这个事务的延迟记录会丢失(不会多出记录)
+ * 日志目录默认在用户目录下; history.writeBehind.fsync=false 时只保证进程崩溃不丢, 掉电或操作系统崩溃时
+ * 可能丢失最后写入的记录, 需要时打开 fsync 每次追加都强制刷盘
+ * 引擎之后会再读取并更新的历史(任务 工作流 变量 未结束的活动)仍同步写入
+ */
+@Component("historyWriteBehind")
+public class HistoryWriteBehind implements InitializingBean, DisposableBean {
+
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * 日志行: 记录 P\t批次id\tjson数组, 提交标记 C\t批次id, 回滚标记 R\t批次id
+     */
+    private static final String PREPARED = "P";
+    private static final String COMMITTED = "C";
+    private static final String ROLLED_BACK = "R";
+
+    protected Logger logger = LoggerFactory.getLogger(HistoryWriteBehind.class);
+
+    @Value("${history.writeBehind.enabled:false}")
+    private boolean enabled;
+    /**
+     * 队列最多容纳的记录数
+     */
+    @Value("${history.writeBehind.queueCapacity:10000}")
+    private int queueCapacity;
+    /**
+     * 每次写库的最多记录数
+     */
+    @Value("${history.writeBehind.batchSize:500}")
+    private int batchSize;
+    /**
+     * 队列为空时的等待毫秒数
+     */
+    @Value("${history.writeBehind.flushMillis:200}")
+    private long flushMillis;
+    @Value("${history.writeBehind.journalDir:${user.home}/activiti-history-journal}")
+    private String journalDir;
+    /**
+     * 日志文件超过这个字节数后换新文件 旧文件的记录都写库后删除
+     */
+    @Value("${history.writeBehind.segmentBytes:8388608}")
+    private long segmentBytes;
+    /**
+     * 每次追加日志后是否强制刷盘
+     */
+    @Value("${history.writeBehind.fsync:false}")
+    private boolean fsync;
+
+    @Autowired
+    private T_userMapper userMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private Semaphore permits;
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<Pending>();
+    private final AtomicInteger queuedRecords = new AtomicInteger();
+    /**
+     * 写库失败待重试的批 只在 flushLock 内访问
+     */
+    private List<Pending> retry = new ArrayList<Pending>();
+    private final Object flushLock = new Object();
+    private Thread thread;
+    private volatile boolean stopped;
+
+    private final Object journalLock = new Object();
+    private File dir;
+    private long segment;
+    private FileOutputStream segmentStream;
+    private Writer segmentWriter;
+    private long segmentSize;
+    private long batchSequence;
+    /**
+     * key:日志文件序号,value:该文件中还未写库的批数
+     */
+    private final Map<Long, Integer> segmentPending = new HashMap<Long, Integer>();
+
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    /**
+     * 队列满改为同步写入的记录数
+     */
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    /**
+     * 从事务提交到写入库的延迟
+     */
+    private final LatencyStats flushLag = new LatencyStats();
+    private volatile String lastError;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (!enabled) {
+            return;
+        }
+        permits = new Semaphore(queueCapacity);
+        dir = new File(journalDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建历史日志目录 " + dir);
+        }
+        segment = replay() + 1;
+        openSegment();
+        logger.info("【开启历史延迟写入】queueCapacity={},batchSize={},journalDir={}", queueCapacity, batchSize, dir);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "activiti-history-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        stopped = true;
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            logger.error("【历史延迟写入 关闭时写库失败 记录保留在日志中 下次启动重放】", e);
+        }
+        synchronized (journalLock) {
+            closeSegment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 为一个事务的记录预留队列容量
+     *
+     * @param count 记录数
+     * @return false:队列已满 这些记录应同步写入
+     */
+    public boolean reserve(int count) {
+        if (!enabled || stopped) {
+            return false;
+        }
+        if (permits.tryAcquire(count)) {
+            return true;
+        }
+        fallbackCount.addAndGet(count);
+        return false;
+    }
+
+    /**
+     * 事务提交前 把记录追加到日志
+     *
+     * @param records 已预留容量的记录
+     * @return 提交或回滚时传回; 写日志失败时返回null 已释放预留的容量, 这些记录应同步写入
+     */
+    public Pending prepare(List<HistoricActivityRecord> records) {
+        Pending pending;
+        synchronized (journalLock) {
+            String batchId = segment + "-" + (++batchSequence);
+            long seg = write(PREPARED + "\t" + batchId + "\t" + JSON.toJSONString(records) + "\n", fsync);
+            if (seg < 0) {
+                permits.release(records.size());
+                fallbackCount.addAndGet(records.size());
+                return null;
+            }
+            Integer count = segmentPending.get(seg);
+            segmentPending.put(seg, count == null ? 1 : count + 1);
+            pending = new Pending(records, seg, batchId);
+        }
+        return pending;
+    }
+
+    /**
+     * 事务已提交 追加提交标记后入队等待写库
+     *
+     * @param pending {@link #prepare(List)} 的返回值
+     */
+    public void committed(Pending pending) {
+        synchronized (journalLock) {
+            //写标记失败时记录仍在队列中 只是宕机后不会重放
+            write(COMMITTED + "\t" + pending.batchId + "\n", fsync);
+        }
+        pending.enqueueNanos = System.nanoTime();
+        queue.add(pending);
+        queuedRecords.addAndGet(pending.records.size());
+        committedCount.addAndGet(pending.records.size());
+    }
+
+    /**
+     * 事务已回滚 追加回滚标记 释放预留的容量
+     *
+     * @param pending {@link #prepare(List)} 的返回值
+     */
+    public void rolledBack(Pending pending) {
+        synchronized (journalLock) {
+            write(ROLLED_BACK + "\t" + pending.batchId + "\n", false);
+        }
+        permits.release(pending.records.size());
+        flushed(pending.segment);
+    }
+
+    /**
+     * 把已提交的记录全部写库 删除历史前调用, 避免删除后又写入
+     */
+    public void drain() {
+        synchronized (flushLock) {
+            while (flushNext()) {
+                //继续写下一批
+            }
+            if (!retry.isEmpty()) {
+                throw new IllegalStateException("历史延迟写入写库失败 " + lastError);
+            }
+        }
+    }
+
+    /**
+     * 统计快照
+     */
+    public HistoryWriterStats stats() {
+        int segments;
+        synchronized (journalLock) {
+            segments = segmentPending.size();
+        }
+        return new HistoryWriterStats(enabled, queuedRecords.get(), committedCount.get(), flushedCount.get(),
+                batchCount.get(), failedFlushCount.get(), fallbackCount.get(), replayedCount.get(), segments,
+                flushLag.snapshot(), lastError);
+    }
+
+    private void loop() {
+        while (!stopped) {
+            boolean flushed;
+            boolean failed;
+            synchronized (flushLock) {
+                flushed = flushNext();
+                failed = !retry.isEmpty();
+            }
+            if (!flushed) {
+                try {
+                    Thread.sleep(failed ? Math.max(flushMillis, 1000) : flushMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 写一批 需持有 flushLock
+     *
+     * @return 是否写入了记录
+     */
+    private boolean flushNext() {
+        List<Pending> batch = retry;
+        retry = new ArrayList<Pending>();
+        int count = 0;
+        for (Pending pending : batch) {
+            count += pending.records.size();
+        }
+        Pending pending;
+        while (count < batchSize && (pending = queue.poll()) != null) {
+            batch.add(pending);
+            count += pending.records.size();
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        final List<HistoricActivityRecord> records = new ArrayList<HistoricActivityRecord>(count);
+        for (Pending p : batch) {
+            records.addAll(p.records);
+        }
+        try {
+            insert(records, false);
+        } catch (RuntimeException e) {
+            failedFlushCount.incrementAndGet();
+            lastError = e.getMessage();
+            logger.error("【历史延迟写入 写库失败 稍后重试】records={}", records.size(), e);
+            retry = batch;
+            return false;
+        }
+        long now = System.nanoTime();
+        for (Pending p : batch) {
+            flushLag.record(now - p.enqueueNanos);
+            queuedRecords.addAndGet(-p.records.size());
+            permits.release(p.records.size());
+            flushed(p.segment);
+        }
+        flushedCount.addAndGet(count);
+        batchCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 在新事务中按批写入
+     *
+     * @param skipExisting 是否跳过库中已存在的记录 重放时使用
+     * @return 写入的记录数
+     */
+    private int insert(final List<HistoricActivityRecord> records, final boolean skipExisting) {
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                int inserted = 0;
+                int size = Math.max(1, batchSize);
+                for (int i = 0; i < records.size(); i += size) {
+                    List<HistoricActivityRecord> chunk = records.subList(i, Math.min(i + size, records.size()));
+                    if (skipExisting) {
+                        chunk = replayable(chunk);
+                        if (chunk.isEmpty()) {
+                            continue;
+                        }
+                    }
+                    userMapper.insertHistoricActivityInstances(chunk);
+                    inserted += chunk.size();
+                }
+                return inserted;
+            }
+        });
+    }
+
+    /**
+     * 去掉库中已存在的记录 以及工作流不在历史表中的记录(提交后工作流已被删除)
+     */
+    private List<HistoricActivityRecord> replayable(List<HistoricActivityRecord> chunk) {
+        List<String> ids = new ArrayList<String>(chunk.size());
+        Set<String> instanceIds = new HashSet<String>();
+        for (HistoricActivityRecord record : chunk) {
+            ids.add(record.getId());
+            if (record.getProcessInstanceId() != null) {
+                instanceIds.add(record.getProcessInstanceId());
+            }
+        }
+        Set<String> existing = new HashSet<String>(userMapper.selectExistingActivityInstanceIds(ids));
+        Set<String> instances = instanceIds.isEmpty() ? new HashSet<String>()
+                : new HashSet<String>(userMapper.selectExistingHistoricInstanceIds(instanceIds));
+        List<HistoricActivityRecord> missing = new ArrayList<HistoricActivityRecord>(chunk.size());
+        for (HistoricActivityRecord record : chunk) {
+            if (!existing.contains(record.getId()) && instances.contains(record.getProcessInstanceId())) {
+                missing.add(record);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 重放上次遗留的日志
+     *
+     * @return 遗留日志的最大序号 没有时返回0
+     */
+    private long replay() throws IOException {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return 0;
+        }
+        Arrays.sort(files);
+        long maxSegment = 0;
+        //提交和回滚标记可能和记录不在同一个文件中 先读完所有文件
+        Set<String> committed = new HashSet<String>();
+        Set<String> rolledBack = new HashSet<String>();
+        Map<File, Map<String, List<HistoricActivityRecord>>> batches =
+                new LinkedHashMap<File, Map<String, List<HistoricActivityRecord>>>();
+        for (File file : files) {
+            maxSegment = Math.max(maxSegment, segmentOf(file));
+            batches.put(file, read(file, committed, rolledBack));
+        }
+        for (File file : files) {
+            List<HistoricActivityRecord> records = new ArrayList<HistoricActivityRecord>();
+            int uncommitted = 0;
+            for (Map.Entry<String, List<HistoricActivityRecord>> batch : batches.get(file).entrySet()) {
+                if (committed.contains(batch.getKey()) && !rolledBack.contains(batch.getKey())) {
+                    records.addAll(batch.getValue());
+                } else if (!rolledBack.contains(batch.getKey())) {
+                    uncommitted++;
+                }
+            }
+            int inserted;
+            try {
+                inserted = insert(records, true);
+            } catch (RuntimeException e) {
+                //保留文件 下次启动再重放
+                lastError = e.getMessage();
+                logger.error("【历史延迟写入 重放日志失败】file={}", file, e);
+                continue;
+            }
+            replayedCount.addAndGet(inserted);
+            logger.info("【历史延迟写入 重放日志】file={},records={},inserted={},uncommittedBatches={}", file.getName(),
+                    records.size(), inserted, uncommitted);
+            if (!file.delete()) {
+                logger.warn("【历史延迟写入 删除日志失败】file={}", file);
+            }
+        }
+        return maxSegment;
+    }
+
+    /**
+     * 读取一个日志文件
+     *
+     * @param committed  收集提交标记
+     * @param rolledBack 收集回滚标记
+     * @return key:批次id,value:记录
+     */
+    private Map<String, List<HistoricActivityRecord>> read(File file, Set<String> committed, Set<String> rolledBack)
+            throws IOException {
+        Map<String, List<HistoricActivityRecord>> batches = new LinkedHashMap<String, List<HistoricActivityRecord>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 3);
+                try {
+                    if (parts.length == 3 && PREPARED.equals(parts[0])) {
+                        batches.put(parts[1], JSON.parseArray(parts[2], HistoricActivityRecord.class));
+                    } else if (parts.length == 2 && COMMITTED.equals(parts[0])) {
+                        committed.add(parts[1]);
+                    } else if (parts.length == 2 && ROLLED_BACK.equals(parts[0])) {
+                        rolledBack.add(parts[1]);
+                    } else {
+                        throw new IllegalArgumentException(line);
+                    }
+                } catch (RuntimeException e) {
+                    //宕机时写了一半的行
+                    logger.warn("【历史延迟写入 跳过不完整的日志行】file={}", file.getName());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return batches;
+    }
+
+    /**
+     * 追加到当前日志文件 需持有 journalLock
+     *
+     * @param force 是否强制刷盘
+     * @return 日志文件序号 写日志失败时返回-1
+     */
+    private long write(String line, boolean force) {
+        try {
+            if (segmentWriter == null) {
+                openSegment();
+            }
+            segmentWriter.write(line);
+            segmentWriter.flush();
+            if (force) {
+                segmentStream.getChannel().force(false);
+            }
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            logger.error("【历史延迟写入 写日志失败 改为同步写入】", e);
+            return -1;
+        }
+        long seg = segment;
+        segmentSize += line.length();
+        if (segmentSize > segmentBytes) {
+            closeSegment();
+            segment++;
+        }
+        return seg;
+    }
+
+    private void flushed(long seg) {
+        if (seg < 0) {
+            return;
+        }
+        synchronized (journalLock) {
+            Integer count = segmentPending.get(seg);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                segmentPending.put(seg, count - 1);
+                return;
+            }
+            segmentPending.remove(seg);
+            if (seg != segment || segmentWriter == null) {
+                File file = segmentFile(seg);
+                if (!file.delete()) {
+                    logger.warn("【历史延迟写入 删除日志失败】file={}", file);
+                }
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentStream = new FileOutputStream(segmentFile(segment), true);
+        segmentWriter = new OutputStreamWriter(segmentStream, UTF8);
+        segmentSize = 0;
+    }
+
+    /**
+     * 关闭当前日志文件 其中的记录都已写库时直接删除
+     */
+    private void closeSegment() {
+        if (segmentWriter == null) {
+            return;
+        }
+        try {
+            segmentWriter.close();
+        } catch (IOException e) {
+            logger.warn("【历史延迟写入 关闭日志失败】", e);
+        }
+        segmentWriter = null;
+        segmentStream = null;
+        if (!segmentPending.containsKey(segment)) {
+            File file = segmentFile(segment);
+            if (file.exists() && !file.delete()) {
+                logger.warn("【历史延迟写入 删除日志失败】file={}", file);
+            }
+        }
+    }
+
+    private File segmentFile(long seg) {
+        return new File(dir, SEGMENT_PREFIX + String.format("%020d", seg) + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 一个事务的记录 已写入日志
+     */
+    public static class Pending {
+
+        private final List<HistoricActivityRecord> records;
+        private final long segment;
+        private final String batchId;
+        private long enqueueNanos;
+
+        private Pending(List<HistoricActivityRecord> records, long segment, String batchId) {
+            this.records = records;
+            this.segment = segment;
+            this.batchId = batchId;
+        }
+    }
+}
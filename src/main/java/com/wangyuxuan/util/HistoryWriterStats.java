@@ -0,0 +1,111 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.LatencyStats;
+
+import java.io.Serializable;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/20 11:05
+ * @Description: 历史延迟写入的统计快照
+ */
+public class HistoryWriterStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean enabled;
+    /**
+     * 已提交未写库的记录数
+     */
+    private final int queueDepth;
+    private final long committedCount;
+    private final long flushedCount;
+    private final long batchCount;
+    private final long failedFlushCount;
+    /**
+     * 队列满改为同步写入的记录数
+     */
+    private final long fallbackCount;
+    /**
+     * 启动时从日志重放的记录数
+     */
+    private final long replayedCount;
+    /**
+     * 还有未写库记录的日志文件数
+     */
+    private final int journalSegments;
+    /**
+     * 从事务提交到写入库的延迟
+     */
+    private final LatencyStats lag;
+    private final String lastError;
+
+    public HistoryWriterStats(boolean enabled, int queueDepth, long committedCount, long flushedCount,
+                              long batchCount, long failedFlushCount, long fallbackCount, long replayedCount,
+                              int journalSegments, LatencyStats lag, String lastError) {
+        this.enabled = enabled;
+        this.queueDepth = queueDepth;
+        this.committedCount = committedCount;
+        this.flushedCount = flushedCount;
+        this.batchCount = batchCount;
+        this.failedFlushCount = failedFlushCount;
+        this.fallbackCount = fallbackCount;
+        this.replayedCount = replayedCount;
+        this.journalSegments = journalSegments;
+        this.lag = lag;
+        this.lastError = lastError;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getCommittedCount() {
+        return committedCount;
+    }
+
+    public long getFlushedCount() {
+        return flushedCount;
+    }
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    public long getFallbackCount() {
+        return fallbackCount;
+    }
+
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    public int getJournalSegments() {
+        return journalSegments;
+    }
+
+    public LatencyStats getLag() {
+        return lag;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "HistoryWriterStats{enabled=" + enabled + ", queueDepth=" + queueDepth + ", committedCount="
+                + committedCount + ", flushedCount=" + flushedCount + ", batchCount=" + batchCount
+                + ", failedFlushCount=" + failedFlushCount + ", fallbackCount=" + fallbackCount
+                + ", replayedCount=" + replayedCount + ", journalSegments=" + journalSegments + ", lag=" + lag
+                + ", lastError=" + lastError + "}";
+    }
+}
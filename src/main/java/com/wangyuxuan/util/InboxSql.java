@@ -0,0 +1,74 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.InboxScope;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 16:02
+ * @Description: 待办原生查询的sql 条件与 T_userMapper.xml 中 scopeCondition(ALL 即 inboxCondition) 保持一致
+ * 需要返回完整任务实体时用 taskService.createNativeTaskQuery() 执行
+ * 原生查询不能引用mapper中的sql片段, 只能手写一份; 两边修改任何一处都要同步, InboxSqlTest 在同一批数据上比对结果
+ */
+final class InboxSql {
+
+    /**
+     * 候选人所在的组
+     */
+    private static final String MEMBERSHIP_GROUPS =
+            "SELECT M.GROUP_ID_ FROM ACT_ID_MEMBERSHIP M WHERE M.USER_ID_ = #{userId}";
+
+    private static final String ASSIGNEE = "RES.ASSIGNEE_ = #{userId}";
+
+    private static final String GROUP = "RES.ASSIGNEE_ IS NULL AND EXISTS ("
+            + "SELECT 1 FROM ACT_RU_IDENTITYLINK I WHERE I.TASK_ID_ = RES.ID_ AND I.TYPE_ = 'candidate'"
+            + " AND I.GROUP_ID_ = #{userId})";
+
+    private static final String USER = "RES.ASSIGNEE_ IS NULL AND EXISTS ("
+            + "SELECT 1 FROM ACT_RU_IDENTITYLINK I WHERE I.TASK_ID_ = RES.ID_ AND I.TYPE_ = 'candidate'"
+            + " AND (I.USER_ID_ = #{userId} OR I.GROUP_ID_ IN (" + MEMBERSHIP_GROUPS + ")))";
+
+    private static final String ALL = "RES.ASSIGNEE_ = #{userId} OR (RES.ASSIGNEE_ IS NULL AND EXISTS ("
+            + "SELECT 1 FROM ACT_RU_IDENTITYLINK I WHERE I.TASK_ID_ = RES.ID_ AND I.TYPE_ = 'candidate'"
+            + " AND (I.USER_ID_ = #{userId} OR I.GROUP_ID_ = #{userId}"
+            + " OR I.GROUP_ID_ IN (" + MEMBERSHIP_GROUPS + "))))";
+
+    /**
+     * 游标条件 参数 afterTime afterId
+     */
+    private static final String AFTER_CURSOR = "(RES.CREATE_TIME_ > #{afterTime}"
+            + " OR (RES.CREATE_TIME_ = #{afterTime} AND RES.ID_ > #{afterId}))";
+
+    private static final String ORDER_BY = " ORDER BY RES.CREATE_TIME_, RES.ID_";
+
+    private InboxSql() {
+    }
+
+    /**
+     * 查询任务的sql
+     *
+     * @param scope       查询范围
+     * @param afterCursor 是否带游标条件
+     * @return sql 参数 userId (afterTime afterId)
+     */
+    static String selectTasks(InboxScope scope, boolean afterCursor) {
+        StringBuilder sql = new StringBuilder("SELECT RES.* FROM ACT_RU_TASK RES WHERE (")
+                .append(condition(scope)).append(")");
+        if (afterCursor) {
+            sql.append(" AND ").append(AFTER_CURSOR);
+        }
+        return sql.append(ORDER_BY).toString();
+    }
+
+    private static String condition(InboxScope scope) {
+        switch (scope) {
+            case ASSIGNEE:
+                return ASSIGNEE;
+            case GROUP:
+                return GROUP;
+            case USER:
+                return USER;
+            default:
+                return ALL;
+        }
+    }
+}
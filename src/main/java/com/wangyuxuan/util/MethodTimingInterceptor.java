@@ -0,0 +1,58 @@
+package com.wangyuxuan.util;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 16:20
+ * @Description: 公共方法计时 spring-mybatis.xml 中按bean名代理 ActivitiUtils, 统计记在 {@link EngineMetrics} 的 methods
+ * 重载方法按参数类型区分; 类内部互相调用不经过代理 不单独计时
+ */
+@Component("methodTimingInterceptor")
+public class MethodTimingInterceptor implements MethodInterceptor {
+
+    @Autowired
+    private EngineMetrics engineMetrics;
+
+    private final ConcurrentMap<Method, String> names = new ConcurrentHashMap<Method, String>();
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (!engineMetrics.isEnabled()) {
+            return invocation.proceed();
+        }
+        long start = System.nanoTime();
+        boolean failure = true;
+        try {
+            Object result = invocation.proceed();
+            failure = false;
+            return result;
+        } finally {
+            engineMetrics.methodFinished(name(invocation.getMethod()), System.nanoTime() - start, failure);
+        }
+    }
+
+    private String name(Method method) {
+        String name = names.get(method);
+        if (name == null) {
+            StringBuilder sb = new StringBuilder(method.getName()).append('(');
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(parameterTypes[i].getSimpleName());
+            }
+            name = sb.append(')').toString();
+            names.putIfAbsent(method, name);
+        }
+        return name;
+    }
+}
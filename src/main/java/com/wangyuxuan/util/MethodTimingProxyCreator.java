@@ -0,0 +1,29 @@
+package com.wangyuxuan.util;
+
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.autoproxy.BeanNameAutoProxyCreator;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 16:40
+ * @Description: 只在 metrics.enabled=true 启动时按bean名创建计时代理, 未开启时不创建代理 方法调用没有额外开销
+ * 代理是cglib子类, JDK9以上运行需加 --add-opens java.base/java.lang=ALL-UNNAMED
+ */
+public class MethodTimingProxyCreator extends BeanNameAutoProxyCreator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean enabled;
+
+    @Override
+    protected Object[] getAdvicesAndAdvisorsForBean(Class<?> beanClass, String beanName, TargetSource targetSource) {
+        if (!enabled) {
+            return DO_NOT_PROXY;
+        }
+        return super.getAdvicesAndAdvisorsForBean(beanClass, beanName, targetSource);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
@@ -0,0 +1,203 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.cache.CacheStats;
+import com.wangyuxuan.cache.DiagramCache;
+import com.wangyuxuan.entity.ProcessDiagram;
+import org.activiti.bpmn.model.BpmnModel;
+import org.activiti.engine.ActivitiObjectNotFoundException;
+import org.activiti.engine.HistoryService;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.history.HistoricProcessInstance;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/24 10:40
+ * @Description: 高亮当前节点的流程图 每个 (流程定义id, 高亮节点集合) 只渲染一次, 结果放在 {@link DiagramCache}
+ * 同一张图同时有多个请求时只有一个线程渲染, 其余等待结果; 没有高亮节点时直接用部署里带的png
+ */
+@Component("processDiagramService")
+public class ProcessDiagramService {
+
+    protected Logger logger = LoggerFactory.getLogger(ProcessDiagramService.class);
+
+    /**
+     * 带流程定义和高亮节点的地址内容不变 浏览器可缓存的秒数
+     */
+    @Value("${diagram.maxAgeSeconds:31536000}")
+    private long maxAgeSeconds;
+
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private HistoryService historyService;
+    @Autowired
+    private ProcessEngineConfigurationImpl processEngineConfiguration;
+    @Autowired
+    private DiagramCache diagramCache;
+
+    /**
+     * 渲染中的图 同一张图只渲染一次
+     */
+    private final ConcurrentMap<String, FutureTask<ProcessDiagram>> rendering =
+            new ConcurrentHashMap<String, FutureTask<ProcessDiagram>>();
+
+    /**
+     * 获取流程图
+     *
+     * @param processDefinitionId 流程定义id
+     * @param activityIds         高亮的节点id 可为空
+     * @return 流程定义不存在 没有图形信息或节点不在图中时返回null
+     */
+    public ProcessDiagram getDiagram(final String processDefinitionId, Collection<String> activityIds) {
+        final List<String> sorted = activityIds == null || activityIds.isEmpty() ? Collections.<String>emptyList()
+                : new ArrayList<String>(new TreeSet<String>(activityIds));
+        String key = key(processDefinitionId, sorted);
+        ProcessDiagram diagram = diagramCache.get(key);
+        if (diagram != null) {
+            return diagram;
+        }
+        FutureTask<ProcessDiagram> task = new FutureTask<ProcessDiagram>(new Callable<ProcessDiagram>() {
+            @Override
+            public ProcessDiagram call() throws IOException {
+                return render(processDefinitionId, sorted);
+            }
+        });
+        FutureTask<ProcessDiagram> running = rendering.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+                diagram = task.get();
+                if (diagram != null) {
+                    diagramCache.put(key, diagram);
+                }
+                return diagram;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                throw rethrow(e);
+            } finally {
+                rendering.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * 获取工作流的流程图 高亮当前所在节点, 已结束的工作流不高亮
+     *
+     * @param instanceId 工作流id
+     * @return 工作流不存在时返回null
+     */
+    public ProcessDiagram getInstanceDiagram(String instanceId) {
+        ProcessInstance instance = runtimeService.createProcessInstanceQuery().processInstanceId(instanceId)
+                .singleResult();
+        if (instance != null) {
+            try {
+                return getDiagram(instance.getProcessDefinitionId(), runtimeService.getActiveActivityIds(instanceId));
+            } catch (ActivitiObjectNotFoundException e) {
+                //查询之后刚好结束
+                logger.info("【工作流已结束】instanceId={}", instanceId);
+            }
+        }
+        HistoricProcessInstance historic = historyService.createHistoricProcessInstanceQuery()
+                .processInstanceId(instanceId).singleResult();
+        if (historic == null) {
+            return null;
+        }
+        return getDiagram(historic.getProcessDefinitionId(), Collections.<String>emptyList());
+    }
+
+    /**
+     * 统计快照
+     */
+    public CacheStats stats() {
+        return diagramCache.stats();
+    }
+
+    private ProcessDiagram render(String processDefinitionId, List<String> activityIds) throws IOException {
+        long start = System.currentTimeMillis();
+        BpmnModel model;
+        try {
+            model = repositoryService.getBpmnModel(processDefinitionId);
+        } catch (ActivitiObjectNotFoundException e) {
+            return null;
+        }
+        if (model == null || model.getLocationMap().isEmpty()) {
+            return null;
+        }
+        for (String activityId : activityIds) {
+            if (model.getGraphicInfo(activityId) == null) {
+                logger.info("【流程图中没有该节点】processDefinitionId={},activityId={}", processDefinitionId, activityId);
+                return null;
+            }
+        }
+        InputStream in = null;
+        try {
+            ProcessDefinition definition = repositoryService.getProcessDefinition(processDefinitionId);
+            if (activityIds.isEmpty() && definition.getDiagramResourceName() != null) {
+                in = repositoryService.getProcessDiagram(processDefinitionId);
+            } else {
+                in = processEngineConfiguration.getProcessDiagramGenerator().generateDiagram(model, "png",
+                        activityIds, Collections.<String>emptyList(), processEngineConfiguration.getActivityFontName(),
+                        processEngineConfiguration.getLabelFontName(), processEngineConfiguration.getClassLoader(), 1.0);
+            }
+            byte[] content = IOUtils.toByteArray(in);
+            String etag = "\"" + DigestUtils.md5DigestAsHex(content) + "\"";
+            logger.info("【渲染流程图】processDefinitionId={},activityIds={},bytes={},ms={}", processDefinitionId,
+                    activityIds, content.length, System.currentTimeMillis() - start);
+            return new ProcessDiagram(processDefinitionId, content, etag, maxAgeSeconds);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static String key(String processDefinitionId, List<String> activityIds) {
+        StringBuilder sb = new StringBuilder(processDefinitionId);
+        for (String activityId : activityIds) {
+            sb.append('|').append(activityId);
+        }
+        return sb.toString();
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+}
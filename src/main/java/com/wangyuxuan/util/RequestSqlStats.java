@@ -0,0 +1,108 @@
+package com.wangyuxuan.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/25 10:20
+ * @Description: 一个http请求执行的sql统计 只在处理请求的线程上读写, 不需要同步
+ */
+public class RequestSqlStats {
+
+    private final String uri;
+
+    private int statements;
+
+    private long nanos;
+
+    /**
+     * 同一语句(预编译sql)执行的次数
+     */
+    private final Map<String, Shape> shapes = new HashMap<String, Shape>();
+
+    private Shape mostRepeated;
+
+    private final List<String> violations = new ArrayList<String>();
+
+    /**
+     * 当前语句开始时间 语句在同一线程上依次执行
+     */
+    long startNanos;
+
+    RequestSqlStats(String uri) {
+        this.uri = uri;
+    }
+
+    /**
+     * 记录一次执行 返回该语句在本次请求中的执行次数
+     */
+    int record(String sql, long elapsed) {
+        statements++;
+        nanos += elapsed;
+        Shape shape = shapes.get(sql);
+        if (shape == null) {
+            shape = new Shape(sql);
+            shapes.put(sql, shape);
+        }
+        shape.count++;
+        if (mostRepeated == null || shape.count > mostRepeated.count) {
+            mostRepeated = shape;
+        }
+        return shape.count;
+    }
+
+    void violated(String violation) {
+        violations.add(violation);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getMillis() {
+        return nanos / 1000000L;
+    }
+
+    /**
+     * 同一语句的最多执行次数
+     */
+    public int getMaxRepeats() {
+        return mostRepeated == null ? 0 : mostRepeated.count;
+    }
+
+    /**
+     * 执行最多的语句
+     */
+    public String getMostRepeatedSql() {
+        return mostRepeated == null ? null : mostRepeated.sql;
+    }
+
+    public int getDistinctStatements() {
+        return shapes.size();
+    }
+
+    public boolean isExceeded() {
+        return !violations.isEmpty();
+    }
+
+    public List<String> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    private static class Shape {
+        final String sql;
+        int count;
+
+        Shape(String sql) {
+            this.sql = sql;
+        }
+    }
+}
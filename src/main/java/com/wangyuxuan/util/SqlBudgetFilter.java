@@ -0,0 +1,202 @@
+package com.wangyuxuan.util;
+
+import com.alibaba.druid.filter.FilterEventAdapter;
+import com.alibaba.druid.proxy.jdbc.PreparedStatementProxy;
+import com.alibaba.druid.proxy.jdbc.ResultSetProxy;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/25 10:40
+ * @Description: 每个http请求的sql预算 挂在druid数据源的 proxyFilters 上, 统计请求线程执行的语句数 数据库耗时和同一语句的重复次数
+ * 超过 sql.budget.maxStatements 或同一语句超过 sql.budget.maxRepeats 次(循环里逐条查询)时记录调用的 ActivitiUtils 方法和语句
+ * 日志只带语句形状(预编译sql) 不带参数值; 请求由 web.xml 中的 SqlBudgetWebFilter 开始和结束, 不在请求中的线程(定时任务 异步执行器)不统计
+ */
+@Component("sqlBudgetFilter")
+public class SqlBudgetFilter extends FilterEventAdapter {
+
+    protected Logger logger = LoggerFactory.getLogger(SqlBudgetFilter.class);
+
+    private static final String CALLER_CLASS = ActivitiUtils.class.getName();
+
+    private static final String CALLER_PACKAGE = "com.wangyuxuan.";
+
+    @Value("${sql.budget.enabled:false}")
+    private volatile boolean enabled;
+
+    @Value("${sql.budget.maxStatements:50}")
+    private int maxStatements;
+
+    @Value("${sql.budget.maxRepeats:10}")
+    private int maxRepeats;
+
+    @Value("${sql.budget.headers:false}")
+    private boolean exposeHeaders;
+
+    private final ThreadLocal<RequestSqlStats> requests = new ThreadLocal<RequestSqlStats>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * 是否把统计放到响应头 开发环境打开
+     */
+    public boolean isExposeHeaders() {
+        return exposeHeaders;
+    }
+
+    /**
+     * 当前线程开始一个请求 已在请求中(转发 include)时返回null
+     */
+    public RequestSqlStats begin(String uri) {
+        if (!enabled || requests.get() != null) {
+            return null;
+        }
+        RequestSqlStats stats = new RequestSqlStats(uri);
+        requests.set(stats);
+        return stats;
+    }
+
+    public void end(RequestSqlStats stats) {
+        if (stats != null && requests.get() == stats) {
+            requests.remove();
+        }
+    }
+
+    /**
+     * 当前请求的统计 不在请求中时返回null
+     */
+    public RequestSqlStats current() {
+        return requests.get();
+    }
+
+    @Override
+    protected void statementExecuteBefore(StatementProxy statement, String sql) {
+        started();
+    }
+
+    @Override
+    protected void statementExecuteAfter(StatementProxy statement, String sql, boolean result) {
+        finished(sql);
+    }
+
+    @Override
+    protected void statementExecuteQueryBefore(StatementProxy statement, String sql) {
+        started();
+    }
+
+    @Override
+    protected void statementExecuteQueryAfter(StatementProxy statement, String sql, ResultSetProxy resultSet) {
+        finished(sql);
+    }
+
+    @Override
+    protected void statementExecuteUpdateBefore(StatementProxy statement, String sql) {
+        started();
+    }
+
+    @Override
+    protected void statementExecuteUpdateAfter(StatementProxy statement, String sql, int updateCount) {
+        finished(sql);
+    }
+
+    @Override
+    protected void statementExecuteBatchBefore(StatementProxy statement) {
+        started();
+    }
+
+    @Override
+    protected void statementExecuteBatchAfter(StatementProxy statement, int[] result) {
+        finished(statement instanceof PreparedStatementProxy
+                ? ((PreparedStatementProxy) statement).getSql() : statement.getBatchSql());
+    }
+
+    @Override
+    protected void statement_executeErrorAfter(StatementProxy statement, String sql, Throwable error) {
+        finished(sql);
+    }
+
+    private void started() {
+        RequestSqlStats stats = requests.get();
+        if (stats != null) {
+            stats.startNanos = System.nanoTime();
+        }
+    }
+
+    private void finished(String sql) {
+        RequestSqlStats stats = requests.get();
+        if (stats == null || sql == null) {
+            return;
+        }
+        int repeats = stats.record(sql, System.nanoTime() - stats.startNanos);
+        if (stats.getStatements() == maxStatements + 1) {
+            violated(stats, "语句数超出", sql, repeats);
+        }
+        if (repeats == maxRepeats + 1) {
+            violated(stats, "同一语句重复执行", sql, repeats);
+        }
+    }
+
+    /**
+     * 每种超出只在第一次越过预算时记录 调用方只在这时取一次堆栈
+     */
+    private void violated(RequestSqlStats stats, String reason, String sql, int repeats) {
+        String caller = caller();
+        stats.violated(reason + " caller=" + caller + " sql=" + compact(sql));
+        logger.warn("【SQL超出预算】{} uri={},caller={},statements={},repeats={},sql={}", reason,
+                stats.getUri(), caller, stats.getStatements(), repeats, compact(sql));
+    }
+
+    /**
+     * 最内层的 ActivitiUtils 方法 没有时取本项目的第一个方法
+     */
+    private static String caller() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        StackTraceElement fallback = null;
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (CALLER_CLASS.equals(className)) {
+                return element.getMethodName() + ":" + element.getLineNumber();
+            }
+            if (fallback == null && className.startsWith(CALLER_PACKAGE) && className.indexOf("$$") < 0
+                    && !className.equals(SqlBudgetFilter.class.getName())) {
+                fallback = element;
+            }
+        }
+        if (fallback == null) {
+            return "unknown";
+        }
+        return fallback.getClassName().substring(CALLER_PACKAGE.length()) + "." + fallback.getMethodName() + ":"
+                + fallback.getLineNumber();
+    }
+
+    /**
+     * 多行sql压成一行 方便日志检索
+     */
+    public static String compact(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
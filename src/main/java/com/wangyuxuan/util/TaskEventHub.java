@@ -0,0 +1,289 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.TaskEvent;
+import com.wangyuxuan.entity.TaskEventBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 15:35
+ * @Description: 按用户分发任务变化的长轮询通道 由 {@link com.wangyuxuan.listener.TaskEventPushListener} 在事务提交后发布
+ * 只给正在订阅的用户排队, 每个用户的队列按任务id合并 最多 push.queueCapacity 条, 超出时丢弃最旧的并要求客户端重新拉取
+ * 每个用户同时只挂起一个请求 新请求到来时旧请求立即返回
+ * 按任务记录出现过的参与人, 任务变化时推送给新旧参与人的并集(改派 退回签收后原签收人也能收到)
+ */
+@Component("taskEventHub")
+public class TaskEventHub {
+
+    protected Logger logger = LoggerFactory.getLogger(TaskEventHub.class);
+
+    /**
+     * 每个用户最多排队的任务变化数
+     */
+    @Value("${push.queueCapacity:100}")
+    private int queueCapacity;
+    /**
+     * 最多同时订阅的用户数
+     */
+    @Value("${push.maxSubscribers:10000}")
+    private int maxSubscribers;
+    /**
+     * 用户超过这么久没有再来取 就取消订阅
+     */
+    @Value("${push.idleSeconds:120}")
+    private int idleSeconds;
+    /**
+     * 长轮询最多挂起的秒数
+     */
+    @Value("${push.timeoutSeconds:30}")
+    private int timeoutSeconds;
+
+    /**
+     * 最多记录参与人的任务数 超出时淘汰最久没有变化的任务
+     */
+    private static final int MAX_TASKS = 100000;
+
+    /**
+     * key:用户id
+     */
+    private final Map<String, Channel> channels = new HashMap<String, Channel>();
+    /**
+     * key:组id,value:订阅中的组成员
+     */
+    private final Map<String, Set<String>> groupMembers = new HashMap<String, Set<String>>();
+    /**
+     * key:任务id,value:该任务出现过的参与人 与 InboxVersionTracker 中的相同
+     */
+    private final Map<String, Set<String>> taskPrincipals = new LinkedHashMap<String, Set<String>>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Set<String>> eldest) {
+            return size() > MAX_TASKS;
+        }
+    };
+    private long lastSweep;
+
+    /**
+     * 订阅并等待用户的任务变化
+     *
+     * @param userId        用户
+     * @param groupIds      用户所在的组
+     * @param timeoutMillis 没有变化时最多等待的毫秒数 超时返回空结果
+     * @return 有变化或超时时完成的结果
+     */
+    public DeferredResult<TaskEventBatch> poll(String userId, List<String> groupIds, long timeoutMillis) {
+        final DeferredResult<TaskEventBatch> result = new DeferredResult<TaskEventBatch>(timeoutMillis,
+                new TaskEventBatch(Collections.<TaskEvent>emptyList(), false));
+        DeferredResult<TaskEventBatch> replaced = null;
+        TaskEventBatch ready = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            sweep(now);
+            Channel channel = channels.get(userId);
+            if (channel == null) {
+                if (channels.size() >= maxSubscribers) {
+                    logger.info("【订阅用户数已满】userId={},maxSubscribers={}", userId, maxSubscribers);
+                    result.setResult(new TaskEventBatch(Collections.<TaskEvent>emptyList(), true));
+                    return result;
+                }
+                channel = new Channel(userId);
+                channels.put(userId, channel);
+            }
+            setGroups(channel, groupIds);
+            channel.lastSeen = now;
+            if (!channel.pending.isEmpty() || channel.resync) {
+                ready = channel.drain();
+            } else {
+                replaced = channel.waiting;
+                channel.waiting = result;
+                final Channel owner = channel;
+                result.onCompletion(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (TaskEventHub.this) {
+                            if (owner.waiting == result) {
+                                owner.waiting = null;
+                                owner.lastSeen = System.currentTimeMillis();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        if (replaced != null) {
+            replaced.setResult(new TaskEventBatch(Collections.<TaskEvent>emptyList(), false));
+        }
+        if (ready != null) {
+            result.setResult(ready);
+        }
+        return result;
+    }
+
+    /**
+     * 发布任务变化 同时投递给该任务之前出现过的参与人
+     *
+     * @param principals 当前相关的用户或组
+     * @param event      任务变化
+     * @param ended      任务是否已完成 完成后不再记录它的参与人
+     */
+    public void publishTask(Collection<String> principals, TaskEvent event, boolean ended) {
+        Set<String> all;
+        synchronized (this) {
+            all = new LinkedHashSet<String>(principals);
+            Set<String> known = ended ? taskPrincipals.remove(event.getTaskId())
+                    : taskPrincipals.get(event.getTaskId());
+            if (known != null) {
+                all.addAll(known);
+            }
+            if (!ended) {
+                taskPrincipals.put(event.getTaskId(), all);
+            }
+        }
+        publish(all, event);
+    }
+
+    /**
+     * 发布任务变化 只投递给正在订阅的用户
+     *
+     * @param principals 相关的用户或组
+     * @param event      任务变化
+     */
+    public void publish(Collection<String> principals, TaskEvent event) {
+        Map<DeferredResult<TaskEventBatch>, TaskEventBatch> ready =
+                new HashMap<DeferredResult<TaskEventBatch>, TaskEventBatch>();
+        synchronized (this) {
+            if (channels.isEmpty()) {
+                return;
+            }
+            Set<Channel> targets = new HashSet<Channel>();
+            for (String principal : principals) {
+                Channel channel = channels.get(principal);
+                if (channel != null) {
+                    targets.add(channel);
+                }
+                Set<String> members = groupMembers.get(principal);
+                if (members != null) {
+                    for (String member : members) {
+                        targets.add(channels.get(member));
+                    }
+                }
+            }
+            for (Channel channel : targets) {
+                channel.offer(event);
+                if (channel.waiting != null) {
+                    ready.put(channel.waiting, channel.drain());
+                    channel.waiting = null;
+                }
+            }
+        }
+        for (Map.Entry<DeferredResult<TaskEventBatch>, TaskEventBatch> entry : ready.entrySet()) {
+            entry.getKey().setResult(entry.getValue());
+        }
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /**
+     * 当前订阅的用户数
+     */
+    public synchronized int getSubscriberCount() {
+        return channels.size();
+    }
+
+    private void setGroups(Channel channel, List<String> groupIds) {
+        if (channel.groupIds.equals(groupIds)) {
+            return;
+        }
+        removeGroups(channel);
+        channel.groupIds = new ArrayList<String>(groupIds);
+        for (String groupId : groupIds) {
+            Set<String> members = groupMembers.get(groupId);
+            if (members == null) {
+                members = new HashSet<String>();
+                groupMembers.put(groupId, members);
+            }
+            members.add(channel.userId);
+        }
+    }
+
+    private void removeGroups(Channel channel) {
+        for (String groupId : channel.groupIds) {
+            Set<String> members = groupMembers.get(groupId);
+            if (members != null) {
+                members.remove(channel.userId);
+                if (members.isEmpty()) {
+                    groupMembers.remove(groupId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清理长时间没有来取的用户 最多每秒一次
+     */
+    private void sweep(long now) {
+        if (now - lastSweep < 1000) {
+            return;
+        }
+        lastSweep = now;
+        long idleMillis = idleSeconds * 1000L;
+        Iterator<Channel> iterator = channels.values().iterator();
+        while (iterator.hasNext()) {
+            Channel channel = iterator.next();
+            if (channel.waiting == null && now - channel.lastSeen > idleMillis) {
+                removeGroups(channel);
+                iterator.remove();
+            }
+        }
+    }
+
+    private class Channel {
+
+        private final String userId;
+        private List<String> groupIds = Collections.emptyList();
+        /**
+         * key:任务id 同一任务只保留最后一次变化
+         */
+        private final LinkedHashMap<String, TaskEvent> pending = new LinkedHashMap<String, TaskEvent>();
+        private boolean resync;
+        private DeferredResult<TaskEventBatch> waiting;
+        private long lastSeen;
+
+        private Channel(String userId) {
+            this.userId = userId;
+        }
+
+        private void offer(TaskEvent event) {
+            pending.remove(event.getTaskId());
+            pending.put(event.getTaskId(), event);
+            if (pending.size() > queueCapacity) {
+                pending.remove(pending.keySet().iterator().next());
+                resync = true;
+            }
+        }
+
+        private TaskEventBatch drain() {
+            TaskEventBatch batch = new TaskEventBatch(new ArrayList<TaskEvent>(pending.values()), resync);
+            pending.clear();
+            resync = false;
+            return batch;
+        }
+    }
+}
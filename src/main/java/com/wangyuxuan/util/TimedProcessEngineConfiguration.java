@@ -0,0 +1,82 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.activiti.spring.autodeployment.AutoDeploymentStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 10:20
+ * @Description: 记录引擎启动各阶段耗时的配置 由 {@link EngineBootReport} 汇总
+ * 引擎构造时执行 databaseSchemaUpdate 的建表/升级, 构造耗时记为建表耗时
+ * deploymentMode 先在 customDeploymentStrategies 中查找, 如 {@link ContentHashDeploymentStrategy}
+ */
+public class TimedProcessEngineConfiguration extends SpringProcessEngineConfiguration {
+
+    private volatile long initMillis = -1;
+    private volatile long schemaMillis = -1;
+    private volatile long deployMillis = -1;
+
+    private List<AutoDeploymentStrategy> customDeploymentStrategies = new ArrayList<AutoDeploymentStrategy>();
+
+    @Override
+    public ProcessEngine buildProcessEngine() {
+        long start = System.nanoTime();
+        ProcessEngine processEngine = super.buildProcessEngine();
+        long total = (System.nanoTime() - start) / 1000000;
+        schemaMillis = Math.max(0, total - initMillis - deployMillis);
+        return processEngine;
+    }
+
+    @Override
+    protected void init() {
+        long start = System.nanoTime();
+        super.init();
+        initMillis = (System.nanoTime() - start) / 1000000;
+    }
+
+    @Override
+    protected void autoDeployResources(ProcessEngine processEngine) {
+        long start = System.nanoTime();
+        super.autoDeployResources(processEngine);
+        deployMillis = (System.nanoTime() - start) / 1000000;
+    }
+
+    @Override
+    protected AutoDeploymentStrategy getAutoDeploymentStrategy(String mode) {
+        for (AutoDeploymentStrategy strategy : customDeploymentStrategies) {
+            if (strategy.handlesMode(mode)) {
+                return strategy;
+            }
+        }
+        return super.getAutoDeploymentStrategy(mode);
+    }
+
+    public void setCustomDeploymentStrategies(List<AutoDeploymentStrategy> customDeploymentStrategies) {
+        this.customDeploymentStrategies = customDeploymentStrategies;
+    }
+
+    /**
+     * 解析mybatis映射 创建服务和拦截器链的耗时 未启动时为-1
+     */
+    public long getInitMillis() {
+        return initMillis;
+    }
+
+    /**
+     * 建表/检查表结构的耗时 未启动时为-1
+     */
+    public long getSchemaMillis() {
+        return schemaMillis;
+    }
+
+    /**
+     * 自动部署 deploymentResources 的耗时 未启动时为-1
+     */
+    public long getDeployMillis() {
+        return deployMillis;
+    }
+}
@@ -0,0 +1,169 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.HistoricActivityRecord;
+import org.activiti.engine.impl.cfg.TransactionListener;
+import org.activiti.engine.impl.cfg.TransactionState;
+import org.activiti.engine.impl.context.Context;
+import org.activiti.engine.impl.db.DbSqlSession;
+import org.activiti.engine.impl.db.DbSqlSessionFactory;
+import org.activiti.engine.impl.db.PersistentObject;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.HistoricActivityInstanceEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/20 11:20
+ * @Description: 把已结束的历史活动交给 {@link HistoryWriteBehind} 在事务提交前写入日志 提交后写库, 其他数据照常写入
+ * 删除历史活动前先把已提交的记录写完; 开启 metrics.enabled 时统计每次flush的插入 更新 删除条数
+ */
+public class WriteBehindDbSqlSession extends DbSqlSession {
+
+    private final HistoryWriteBehind historyWriteBehind;
+    private final EngineMetrics engineMetrics;
+    /**
+     * 本次flush的写入条数 只在统计时记录
+     */
+    private boolean counting;
+    private int flushedInserts;
+    private int flushedUpdates;
+    private int flushedDeletes;
+
+    public WriteBehindDbSqlSession(DbSqlSessionFactory dbSqlSessionFactory, HistoryWriteBehind historyWriteBehind,
+                                   EngineMetrics engineMetrics) {
+        super(dbSqlSessionFactory);
+        this.historyWriteBehind = historyWriteBehind;
+        this.engineMetrics = engineMetrics;
+    }
+
+    @Override
+    public void flush() {
+        if (engineMetrics == null || !engineMetrics.isEnabled()) {
+            super.flush();
+            return;
+        }
+        counting = true;
+        flushedInserts = 0;
+        flushedUpdates = 0;
+        flushedDeletes = 0;
+        try {
+            super.flush();
+        } finally {
+            counting = false;
+        }
+        engineMetrics.flushed(flushedInserts, flushedUpdates, flushedDeletes);
+    }
+
+    @Override
+    protected void flushInserts() {
+        if (historyWriteBehind.isEnabled()) {
+            deferHistoricActivities();
+        }
+        if (counting) {
+            for (List<PersistentObject> objects : insertedObjects.values()) {
+                flushedInserts += objects.size();
+            }
+        }
+        super.flushInserts();
+    }
+
+    @Override
+    protected void flushUpdates(List<PersistentObject> updatedObjects) {
+        if (counting) {
+            flushedUpdates += updatedObjects.size();
+        }
+        super.flushUpdates(updatedObjects);
+    }
+
+    @Override
+    protected void flushDeletes(List<DeleteOperation> removedOperations) {
+        if (historyWriteBehind.isEnabled() && deletesHistoricActivities()) {
+            historyWriteBehind.drain();
+        }
+        if (counting) {
+            flushedDeletes += deleteOperations.size();
+        }
+        super.flushDeletes(removedOperations);
+    }
+
+    private void deferHistoricActivities() {
+        List<PersistentObject> inserted = insertedObjects.get(HistoricActivityInstanceEntity.class);
+        CommandContext commandContext = Context.getCommandContext();
+        if (inserted == null || inserted.isEmpty() || commandContext == null) {
+            return;
+        }
+        final List<HistoricActivityRecord> records = new ArrayList<HistoricActivityRecord>();
+        List<PersistentObject> remaining = new ArrayList<PersistentObject>();
+        for (PersistentObject object : inserted) {
+            HistoricActivityInstanceEntity activity = (HistoricActivityInstanceEntity) object;
+            //未结束的活动之后还会被引擎读取更新 照常写入
+            if (activity.getEndTime() != null) {
+                records.add(toRecord(activity));
+            } else {
+                remaining.add(object);
+            }
+        }
+        if (records.isEmpty() || !historyWriteBehind.reserve(records.size())) {
+            return;
+        }
+        //提交前写入日志 宕机后可重放
+        final HistoryWriteBehind.Pending pending = historyWriteBehind.prepare(records);
+        if (pending == null) {
+            return;
+        }
+        if (remaining.isEmpty()) {
+            insertedObjects.remove(HistoricActivityInstanceEntity.class);
+        } else {
+            insertedObjects.put(HistoricActivityInstanceEntity.class, remaining);
+        }
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.COMMITTED,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        historyWriteBehind.committed(pending);
+                    }
+                });
+        commandContext.getTransactionContext().addTransactionListener(TransactionState.ROLLED_BACK,
+                new TransactionListener() {
+                    @Override
+                    public void execute(CommandContext commandContext) {
+                        historyWriteBehind.rolledBack(pending);
+                    }
+                });
+    }
+
+    /**
+     * 批量删除没有实体类 按语句名判断
+     */
+    private boolean deletesHistoricActivities() {
+        for (DeleteOperation operation : deleteOperations) {
+            Class<? extends PersistentObject> type = operation.getPersistentObjectClass();
+            if (HistoricActivityInstanceEntity.class.equals(type)
+                    || String.valueOf(operation).contains("HistoricActivityInstance")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HistoricActivityRecord toRecord(HistoricActivityInstanceEntity activity) {
+        HistoricActivityRecord record = new HistoricActivityRecord();
+        record.setId(activity.getId());
+        record.setProcessDefinitionId(activity.getProcessDefinitionId());
+        record.setProcessInstanceId(activity.getProcessInstanceId());
+        record.setExecutionId(activity.getExecutionId());
+        record.setActivityId(activity.getActivityId());
+        record.setTaskId(activity.getTaskId());
+        record.setCalledProcessInstanceId(activity.getCalledProcessInstanceId());
+        record.setActivityName(activity.getActivityName());
+        record.setActivityType(activity.getActivityType());
+        record.setAssignee(activity.getAssignee());
+        record.setStartTime(activity.getStartTime());
+        record.setEndTime(activity.getEndTime());
+        record.setDurationInMillis(activity.getDurationInMillis());
+        record.setTenantId(activity.getTenantId());
+        return record;
+    }
+}
@@ -0,0 +1,28 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.impl.db.DbSqlSessionFactory;
+import org.activiti.engine.impl.interceptor.Session;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/20 11:20
+ * @Description: 打开 {@link WriteBehindDbSqlSession} 的会话工厂 配置在 processEngineConfiguration 的 dbSqlSessionFactory 上
+ */
+public class WriteBehindDbSqlSessionFactory extends DbSqlSessionFactory {
+
+    private HistoryWriteBehind historyWriteBehind;
+    private EngineMetrics engineMetrics;
+
+    @Override
+    public Session openSession() {
+        return new WriteBehindDbSqlSession(this, historyWriteBehind, engineMetrics);
+    }
+
+    public void setHistoryWriteBehind(HistoryWriteBehind historyWriteBehind) {
+        this.historyWriteBehind = historyWriteBehind;
+    }
+
+    public void setEngineMetrics(EngineMetrics engineMetrics) {
+        this.engineMetrics = engineMetrics;
+    }
+}
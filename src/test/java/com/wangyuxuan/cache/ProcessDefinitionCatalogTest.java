@@ -0,0 +1,95 @@
+package com.wangyuxuan.cache;
+
+import org.activiti.engine.impl.persistence.entity.ProcessDefinitionEntity;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/12 14:20
+ * @Description: 流程定义目录 最新版本在淘汰和按id查询后不回退到旧版本, 查询期间有部署事件时丢弃查询结果
+ */
+public class ProcessDefinitionCatalogTest {
+
+    private ProcessDefinitionCatalog catalog;
+    private ProcessDefinition v1;
+    private ProcessDefinition v2;
+
+    @Before
+    public void setUp() {
+        catalog = new ProcessDefinitionCatalog();
+        catalog.setMaxWeight(Long.MAX_VALUE);
+        v1 = definition("leave:1:1", 1);
+        v2 = definition("leave:2:2", 2);
+    }
+
+    @Test
+    public void oldVersionLookedUpByIdDoesNotBecomeLatest() {
+        assertTrue(catalog.load(Arrays.asList(v1, v2), catalog.generation()));
+        assertEquals("leave:2:2", catalog.getLatestByKey("leave").getId());
+
+        //v1 最近使用过, 容量只够一条时淘汰 v2
+        catalog.getById("leave:1:1");
+        catalog.setMaxWeight(catalog.stats().getWeight() / 2);
+        assertNull(catalog.getById("leave:2:2"));
+        assertNull(catalog.getLatestByKey("leave"));
+
+        //按id查库放回旧版本
+        catalog.setMaxWeight(Long.MAX_VALUE);
+        catalog.put(v1, false, catalog.generation());
+        assertNull(catalog.getLatestByKey("leave"));
+
+        //按最新版本查库放回
+        catalog.put(v2, true, catalog.generation());
+        assertEquals("leave:2:2", catalog.getLatestByKey("leave").getId());
+    }
+
+    @Test
+    public void queryResultIsDiscardedWhenDeployedMeanwhile() {
+        long generation = catalog.generation();
+        //查询期间部署了新版本
+        catalog.put(definition("leave:3:3", 3), true);
+
+        assertFalse(catalog.load(Arrays.asList(v1, v2), generation));
+        assertFalse(catalog.isLoaded());
+        catalog.put(v2, true, generation);
+        assertEquals("leave:3:3", catalog.getLatestByKey("leave").getId());
+    }
+
+    @Test
+    public void deletedDefinitionIsNotPutBackByStaleQuery() {
+        assertTrue(catalog.load(Collections.singletonList(v1), catalog.generation()));
+        long generation = catalog.generation();
+        catalog.remove("leave:1:1");
+
+        catalog.put(v1, true, generation);
+        assertNull(catalog.getById("leave:1:1"));
+    }
+
+    @Test
+    public void fullLoadExpiresAfterTtl() throws InterruptedException {
+        catalog.setTtlSeconds(1);
+        assertTrue(catalog.load(Collections.singletonList(v1), catalog.generation()));
+        assertTrue(catalog.isLoaded());
+        Thread.sleep(1100);
+        assertFalse(catalog.isLoaded());
+    }
+
+    private static ProcessDefinition definition(String id, int version) {
+        ProcessDefinitionEntity definition = new ProcessDefinitionEntity();
+        definition.setId(id);
+        definition.setKey("leave");
+        definition.setVersion(version);
+        definition.setDeploymentId(String.valueOf(version));
+        return definition;
+    }
+}
@@ -0,0 +1,72 @@
+package com.wangyuxuan.cache;
+
+import com.wangyuxuan.entity.TaskLink;
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.IdentityLinkType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/11 15:30
+ * @Description: 任务参与人缓存 查库期间被失效的结果不放入, 过期后重新查库
+ */
+public class TaskParticipantCacheTest {
+
+    private TaskParticipantCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new TaskParticipantCache();
+        ReflectionTestUtils.setField(cache, "userIdDictionary", new UserIdDictionary());
+        cache.setMaxWeight(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void putAfterInvalidateIsRejected() {
+        long version = cache.version("t1");
+        //查库期间任务被签收 提交后失效
+        cache.invalidate("t1");
+        List<IdentityLink> links = cache.put("t1", assignee("t1", "old-user"), version);
+
+        assertEquals("old-user", links.get(0).getUserId());
+        assertNull(cache.get("t1"));
+        assertEquals(1, cache.getStaleRejectCount());
+
+        cache.put("t1", assignee("t1", "new-user"), cache.version("t1"));
+        assertEquals("new-user", cache.get("t1").get(0).getUserId());
+    }
+
+    @Test
+    public void invalidateAllRejectsPendingPuts() {
+        long version = cache.version("t2");
+        cache.invalidateAll();
+        cache.put("t2", assignee("t2", "user"), version);
+        assertNull(cache.get("t2"));
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() throws InterruptedException {
+        cache.setTtlSeconds(1);
+        cache.put("t3", assignee("t3", "user"), cache.version("t3"));
+        assertNotNull(cache.get("t3"));
+        assertNotNull(cache.getParticipants("t3"));
+
+        Thread.sleep(1100);
+        assertNull(cache.getParticipants("t3"));
+        assertNull(cache.get("t3"));
+        assertEquals(0, cache.stats().getSize());
+    }
+
+    private static List<IdentityLink> assignee(String taskId, String userId) {
+        return Collections.<IdentityLink>singletonList(new TaskLink(IdentityLinkType.ASSIGNEE, userId, null, taskId));
+    }
+}
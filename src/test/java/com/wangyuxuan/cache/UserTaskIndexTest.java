@@ -0,0 +1,88 @@
+package com.wangyuxuan.cache;
+
+import com.wangyuxuan.entity.InboxScope;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/18 11:30
+ * @Description: 用户任务索引 提交监听乱序到达时不留下幽灵任务, 与数据库比对一致
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class UserTaskIndexTest {
+
+    private static final List<String> NO_GROUPS = Collections.emptyList();
+
+    @Autowired
+    private UserTaskIndex userTaskIndex;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+
+    @Test
+    public void removeBeforeCreateLeavesNoRow() {
+        userTaskIndex.taskRemoved("late-task");
+        userTaskIndex.taskCreated("late-task", "late-pi", "late-user");
+        assertFalse(userTaskIndex.hasTasks("late-user", NO_GROUPS));
+    }
+
+    @Test
+    public void opsForUnknownTaskAreIgnored() {
+        userTaskIndex.taskChanged("ghost-task", "ghost-user");
+        userTaskIndex.candidateAdded("ghost-task", "ghost-candidate", "ghost-group");
+        assertFalse(userTaskIndex.hasTasks("ghost-user", NO_GROUPS));
+        assertFalse(userTaskIndex.hasTasks("ghost-candidate", Collections.singletonList("ghost-group")));
+    }
+
+    @Test
+    public void claimMovesTaskFromGroupToAssignee() {
+        userTaskIndex.taskCreated("claim-task", "claim-pi", null);
+        userTaskIndex.candidateAdded("claim-task", null, "claim-group");
+        assertEquals(Collections.singletonList("claim-pi"),
+                userTaskIndex.getProcessInstanceIds(InboxScope.GROUP, "claim-group", NO_GROUPS));
+
+        userTaskIndex.taskChanged("claim-task", "claim-user");
+        assertTrue(userTaskIndex.getProcessInstanceIds(InboxScope.GROUP, "claim-group", NO_GROUPS).isEmpty());
+        assertEquals(Collections.singletonList("claim-pi"),
+                userTaskIndex.getProcessInstanceIds(InboxScope.ASSIGNEE, "claim-user", NO_GROUPS));
+
+        userTaskIndex.taskRemoved("claim-task");
+        //完成之后晚到的签收不会把任务加回来
+        userTaskIndex.taskChanged("claim-task", "claim-user");
+        assertFalse(userTaskIndex.hasTasks("claim-user", NO_GROUPS));
+    }
+
+    @Test
+    public void matchesDatabaseAfterEngineChanges() {
+        String processDefinitionId = repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave")
+                .latestVersion().singleResult().getId();
+        String processInstanceId = runtimeService.startProcessInstanceById(processDefinitionId).getId();
+        Task task = taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult();
+        taskService.complete(task.getId());
+
+        assertEquals(0, userTaskIndex.check());
+        userTaskIndex.rebuild();
+        assertEquals(0, userTaskIndex.check());
+    }
+}
@@ -0,0 +1,102 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.IdentityLink;
+import org.activiti.engine.task.IdentityLinkType;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/21 10:30
+ * @Description: 逗号拼接的候选组(候选人)拆成单个id 已有的不重复添加, 多批之间按任务id续接
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class CandidateLinkNormalizerTest {
+
+    @Autowired
+    private CandidateLinkNormalizer candidateLinkNormalizer;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(candidateLinkNormalizer, "batchSize", 200);
+    }
+
+    @Test
+    public void splitsJoinedCandidatesAcrossBatches() {
+        String first = startTask();
+        taskService.addCandidateGroup(first, "g1, g2,,g3");
+        taskService.addCandidateGroup(first, "g2");
+        taskService.addCandidateUser(first, "u1,u2");
+        String second = startTask();
+        taskService.addCandidateGroup(second, "g4,g5");
+        //每批一个任务
+        ReflectionTestUtils.setField(candidateLinkNormalizer, "batchSize", 1);
+
+        assertEquals(3, candidateLinkNormalizer.normalize());
+
+        assertEquals(set("g1", "g2", "g3"), candidates(first, true));
+        assertEquals(set("u1", "u2"), candidates(first, false));
+        assertEquals(set("g4", "g5"), candidates(second, true));
+        //候选组 g2 只有一条
+        assertEquals(3 + 2, countCandidates(first));
+        //已拆分的不再处理
+        assertEquals(0, candidateLinkNormalizer.normalize());
+    }
+
+    private String startTask() {
+        String processDefinitionId = repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave")
+                .latestVersion().singleResult().getId();
+        String processInstanceId = runtimeService.startProcessInstanceById(processDefinitionId).getId();
+        return taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult().getId();
+    }
+
+    private Set<String> candidates(String taskId, boolean group) {
+        Set<String> ids = new HashSet<String>();
+        for (IdentityLink link : taskService.getIdentityLinksForTask(taskId)) {
+            if (IdentityLinkType.CANDIDATE.equals(link.getType())) {
+                String id = group ? link.getGroupId() : link.getUserId();
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private int countCandidates(String taskId) {
+        int count = 0;
+        for (IdentityLink link : taskService.getIdentityLinksForTask(taskId)) {
+            if (IdentityLinkType.CANDIDATE.equals(link.getType())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Set<String> set(String... ids) {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+}
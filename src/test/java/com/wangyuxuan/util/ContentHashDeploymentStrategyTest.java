@@ -0,0 +1,121 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.ActivitiException;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.repository.Deployment;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/22 16:10
+ * @Description: 按内容哈希自动部署 内容不变时跳过, 变化时只重新部署变化的组, 校验失败时一个都不部署
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class ContentHashDeploymentStrategyTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Autowired
+    private RepositoryService repositoryService;
+
+    private ContentHashDeploymentStrategy strategy;
+    private String hint;
+
+    @Before
+    public void setUp() {
+        strategy = new ContentHashDeploymentStrategy();
+        hint = "hashTest" + System.nanoTime();
+    }
+
+    @Test
+    public void skipsUnchangedAndRedeploysChangedGroups() {
+        strategy.deployResources(hint, resources("hashA", "hashB", "任务"), repositoryService);
+        List<Deployment> first = deployments();
+        assertEquals(2, first.size());
+        assertEquals(hint + "-a.bpmn", first.get(0).getName());
+
+        //内容不变 不部署
+        strategy.deployResources(hint, resources("hashA", "hashB", "任务"), repositoryService);
+        assertEquals(2, deployments().size());
+
+        //只有 a.bpmn 变化
+        strategy.deployResources(hint, resources("hashA", "hashB", "改名的任务"), repositoryService);
+        assertEquals(3, deployments().size());
+        List<Deployment> a = repositoryService.createDeploymentQuery().deploymentName(hint + "-a.bpmn").list();
+        assertEquals(2, a.size());
+        Deployment redeployed = a.get(0).getId().equals(first.get(0).getId()) ? a.get(1) : a.get(0);
+        assertNotEquals(first.get(0).getCategory(), redeployed.getCategory());
+        //流程图和bpmn在同一个部署
+        assertEquals(2, repositoryService.getDeploymentResourceNames(redeployed.getId()).size());
+        assertEquals(2, repositoryService.createProcessDefinitionQuery().processDefinitionKey("hashA").count());
+        assertEquals(1, repositoryService.createProcessDefinitionQuery().processDefinitionKey("hashB").count());
+    }
+
+    @Test
+    public void deploysNothingWhenAnyResourceIsInvalid() {
+        try {
+            strategy.deployResources(hint, new Resource[]{
+                    resource("a.bpmn", bpmn("hashC", "任务")),
+                    resource("b.bpmn", bpmn("hashC", "任务"))}, repositoryService);
+            fail("重复的流程key");
+        } catch (ActivitiException expected) {
+        }
+        try {
+            strategy.deployResources(hint, new Resource[]{
+                    resource("a.bpmn", bpmn("hashD", "任务")),
+                    resource("b.bpmn", "<definitions>".getBytes(UTF8))}, repositoryService);
+            fail("无法解析的bpmn");
+        } catch (ActivitiException expected) {
+        }
+        assertEquals(0, deployments().size());
+    }
+
+    private List<Deployment> deployments() {
+        return repositoryService.createDeploymentQuery().deploymentNameLike(hint + "-%").orderByDeploymentName().asc()
+                .list();
+    }
+
+    private static Resource[] resources(String keyA, String keyB, String taskName) {
+        return new Resource[]{
+                resource("a.bpmn", bpmn(keyA, taskName)),
+                resource("a.png", new byte[]{1, 2, 3}),
+                resource("b.bpmn", bpmn(keyB, "任务"))};
+    }
+
+    private static Resource resource(final String name, byte[] bytes) {
+        return new ByteArrayResource(bytes) {
+            @Override
+            public String getFilename() {
+                return name;
+            }
+        };
+    }
+
+    private static byte[] bpmn(String key, String taskName) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<definitions xmlns=\"http://www.omg.org/spec/BPMN/20100524/MODEL\""
+                + " targetNamespace=\"http://www.activiti.org/test\">"
+                + "<process id=\"" + key + "\" isExecutable=\"true\">"
+                + "<startEvent id=\"start\"/><userTask id=\"task\" name=\"" + taskName + "\"/><endEvent id=\"end\"/>"
+                + "<sequenceFlow id=\"f1\" sourceRef=\"start\" targetRef=\"task\"/>"
+                + "<sequenceFlow id=\"f2\" sourceRef=\"task\" targetRef=\"end\"/>"
+                + "</process></definitions>").getBytes(UTF8);
+    }
+}
@@ -0,0 +1,217 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.dao.T_userMapper;
+import org.activiti.engine.ManagementService;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.activiti.engine.impl.persistence.entity.MessageEntity;
+import org.activiti.engine.runtime.Job;
+import org.activiti.engine.task.Task;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/14 15:20
+ * @Description: 异步模式 提交后派发 队列满时拒绝 未执行的作业由扫描补执行
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class EngineAsyncExecutorTest {
+
+    private static final String OTHER_HANDLER = "async-test-other";
+
+    @Autowired
+    private ManagementService managementService;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+    @Autowired
+    private T_userMapper userMapper;
+
+    /**
+     * 不改动容器中的实例 每个测试单独开一个
+     */
+    private EngineAsyncExecutor asyncExecutor;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        asyncExecutor = new EngineAsyncExecutor();
+        ReflectionTestUtils.setField(asyncExecutor, "managementService", managementService);
+        ReflectionTestUtils.setField(asyncExecutor, "runtimeService", runtimeService);
+        ReflectionTestUtils.setField(asyncExecutor, "taskService", taskService);
+        ReflectionTestUtils.setField(asyncExecutor, "userMapper", userMapper);
+        ReflectionTestUtils.setField(asyncExecutor, "enabled", true);
+        ReflectionTestUtils.setField(asyncExecutor, "poolSize", 1);
+        ReflectionTestUtils.setField(asyncExecutor, "queueCapacity", 10);
+        ReflectionTestUtils.setField(asyncExecutor, "recoverSeconds", 3600);
+        ReflectionTestUtils.setField(asyncExecutor, "recoverPageSize", 2);
+        asyncExecutor.afterPropertiesSet();
+        //等启动时的扫描结束 之后由测试调用 recover
+        ScheduledExecutorService recoverer =
+                (ScheduledExecutorService) ReflectionTestUtils.getField(asyncExecutor, "recoverer");
+        recoverer.shutdown();
+        assertTrue(recoverer.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        asyncExecutor.destroy();
+    }
+
+    @Test
+    public void dispatchesAfterCommit() throws Exception {
+        Map<String, Object> variables = new HashMap<String, Object>();
+        variables.put("days", 3);
+        String processInstanceId = asyncExecutor.startProcessInstance(leaveDefinitionId(), variables)
+                .get(10, TimeUnit.SECONDS);
+        Task task = awaitTask(processInstanceId);
+        assertEquals(3, runtimeService.getVariable(processInstanceId, "days"));
+
+        asyncExecutor.completeTask(task.getId(), null).get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 100 && taskService.createTaskQuery().taskId(task.getId()).count() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, taskService.createTaskQuery().taskId(task.getId()).count());
+        assertEquals(2, asyncExecutor.stats().getSubmittedCount());
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(asyncExecutor, "executor");
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            //占住唯一的线程 再填满队列
+            for (int i = 0; i <= 10; i++) {
+                executor.execute(blocker);
+            }
+            long before = runtimeService.createProcessInstanceQuery().processDefinitionKey("leave").count();
+            CompletableFuture<String> future = asyncExecutor.startProcessInstance(leaveDefinitionId(), null);
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("队列已满时应拒绝");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            } catch (TimeoutException e) {
+                fail("拒绝时应立即返回");
+            }
+            //拒绝时不落库
+            assertEquals(before, runtimeService.createProcessInstanceQuery().processDefinitionKey("leave").count());
+            assertEquals(1, asyncExecutor.stats().getRejectedCount());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void recoversJobsLeftBehind() throws InterruptedException {
+        //提交后宕机 作业已落库但没有交给线程池; 数量超过一页
+        List<String> processInstanceIds = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            processInstanceIds.add(managementService.executeCommand(new Command<String>() {
+                @Override
+                public String execute(CommandContext commandContext) {
+                    ExecutionEntity processInstance = commandContext.getProcessEngineConfiguration()
+                            .getDeploymentManager().findDeployedProcessDefinitionById(leaveDefinitionId())
+                            .createProcessInstance(null);
+                    DeferredContinuationJobHandler.send(commandContext, processInstance,
+                            DeferredContinuationJobHandler.startConfiguration());
+                    return processInstance.getId();
+                }
+            }));
+        }
+        //其他处理类型的消息作业不补执行
+        final String otherJobId = managementService.executeCommand(new Command<String>() {
+            @Override
+            public String execute(CommandContext commandContext) {
+                MessageEntity message = new MessageEntity();
+                message.setJobHandlerType(OTHER_HANDLER);
+                commandContext.getJobEntityManager().send(message);
+                return message.getId();
+            }
+        });
+        try {
+            assertFalse(userMapper.selectRetryableMessageJobIds(DeferredContinuationJobHandler.TYPE, null, 100)
+                    .contains(otherJobId));
+
+            //第一次扫描只记下 可能是刚提交的
+            asyncExecutor.recover();
+            assertEquals(0, asyncExecutor.stats().getRecoveredCount());
+            for (String processInstanceId : processInstanceIds) {
+                assertEquals(0, taskService.createTaskQuery().processInstanceId(processInstanceId).count());
+            }
+
+            asyncExecutor.recover();
+            assertTrue(asyncExecutor.stats().getRecoveredCount() >= processInstanceIds.size());
+            for (String processInstanceId : processInstanceIds) {
+                assertNotNull(awaitTask(processInstanceId));
+            }
+            Job other = managementService.createJobQuery().jobId(otherJobId).singleResult();
+            assertNotNull(other);
+            assertEquals(3, other.getRetries());
+        } finally {
+            managementService.deleteJob(otherJobId);
+        }
+    }
+
+    private Task awaitTask(String processInstanceId) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Task task = taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult();
+            if (task != null) {
+                return task;
+            }
+            Thread.sleep(50);
+        }
+        fail("作业未执行 processInstanceId=" + processInstanceId);
+        return null;
+    }
+
+    private String leaveDefinitionId() {
+        return repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave").latestVersion()
+                .singleResult().getId();
+    }
+}
@@ -0,0 +1,172 @@
+package com.wangyuxuan.util;
+
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/19 16:10
+ * @Description: 历史归档 分批移动已结束的工作流 任务和工作流的身份关联各归档一次
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class HistoryArchiverTest {
+
+    @Autowired
+    private HistoryArchiver historyArchiver;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+    @Autowired
+    private ActivitiUtils activitiUtils;
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        ReflectionTestUtils.setField(historyArchiver, "enabled", true);
+        ReflectionTestUtils.setField(historyArchiver, "days", 0);
+        ReflectionTestUtils.setField(historyArchiver, "batchSize", 1);
+        ReflectionTestUtils.setField(historyArchiver, "pauseMillis", 0L);
+    }
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(historyArchiver, "enabled", false);
+        ReflectionTestUtils.setField(historyArchiver, "days", 180);
+        ReflectionTestUtils.setField(historyArchiver, "batchSize", 200);
+        ReflectionTestUtils.setField(historyArchiver, "pauseMillis", 500L);
+    }
+
+    @Test
+    public void movesFinishedInstancesInBatches() throws InterruptedException {
+        List<String> instanceIds = new ArrayList<String>();
+        for (int i = 0; i < 3; i++) {
+            instanceIds.add(finishLeave());
+        }
+        String running = runtimeService.startProcessInstanceById(leaveDefinitionId()).getId();
+        int[] links = new int[instanceIds.size()];
+        for (int i = 0; i < instanceIds.size(); i++) {
+            links[i] = countLinks("ACT_HI_IDENTITYLINK", instanceIds.get(i));
+            //任务的候选人和工作流的参与人都有
+            assertTrue(links[i] > 2);
+        }
+        //END_TIME_ 早于归档时间
+        Thread.sleep(20);
+
+        assertTrue(historyArchiver.archive() >= instanceIds.size());
+
+        for (int i = 0; i < instanceIds.size(); i++) {
+            String instanceId = instanceIds.get(i);
+            assertEquals(0, countLinks("ACT_HI_IDENTITYLINK", instanceId));
+            assertEquals(links[i], countLinks("ARC_HI_IDENTITYLINK", instanceId));
+            assertEquals(0, count("ACT_HI_TASKINST", instanceId));
+            assertEquals(2, count("ARC_HI_TASKINST", instanceId));
+            assertEquals(0, count("ACT_HI_PROCINST", instanceId));
+            assertEquals(1, count("ARC_HI_PROCINST", instanceId));
+        }
+        //分页和游标查询可以带上归档表
+        List<String> all = activitiUtils.getHistoryAssigneeActivitiIdsStringAfter("teacher", null, 10000, true);
+        assertTrue(all.containsAll(instanceIds));
+        assertFalse(activitiUtils.getHistoryAssigneeActivitiIdsStringAfter("teacher", null, 10000, false)
+                .contains(instanceIds.get(0)));
+        List<String> paged = new ArrayList<String>();
+        for (int page = 1; page <= all.size(); page++) {
+            paged.addAll(activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", page, 1, true));
+        }
+        assertEquals(all, paged);
+
+        //未结束的工作流不动
+        assertEquals(1, count("ACT_HI_PROCINST", running));
+        assertEquals(0, count("ARC_HI_PROCINST", running));
+    }
+
+    @Test
+    public void includeArchiveBeforeFirstArchiveRun() throws InterruptedException {
+        String instanceId = finishLeave();
+        //开启归档后还没有执行过 归档表不存在
+        for (String table : new String[]{"ARC_HI_IDENTITYLINK", "ARC_HI_ACTINST", "ARC_HI_VARINST",
+                "ARC_HI_TASKINST", "ARC_HI_PROCINST"}) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + table);
+        }
+        ReflectionTestUtils.setField(historyArchiver, "tablesReady", false);
+        assertFalse(historyArchiver.isArchiveAvailable());
+        List<String> current = activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", false);
+        assertTrue(current.contains(instanceId));
+        assertEquals(current, activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", true));
+        assertEquals(current, activitiUtils.getHistoryAssigneeActivitiIdsStringAfter("teacher", null, 10000, true));
+        assertEquals(activitiUtils.getHistoryAssigneeActivitiIds("teacher").size(),
+                activitiUtils.getHistoryAssigneeActivitiIds("teacher", true).size());
+
+        //启动时建好归档表
+        assertTrue(historyArchiver.prepareArchiveTables());
+        assertTrue(historyArchiver.isArchiveAvailable());
+        assertEquals(current, activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", true));
+
+        Thread.sleep(20);
+        assertTrue(historyArchiver.archive() >= 1);
+        assertTrue(activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", true).contains(instanceId));
+        //归档未开启时不查归档表
+        ReflectionTestUtils.setField(historyArchiver, "enabled", false);
+        assertFalse(historyArchiver.isArchiveAvailable());
+        assertFalse(activitiUtils.getHistoryAssigneeActivitiIdsString("teacher", true).contains(instanceId));
+    }
+
+    private String finishLeave() {
+        String processInstanceId = runtimeService.startProcessInstanceById(leaveDefinitionId()).getId();
+        for (int i = 0; i < 2; i++) {
+            Task task = taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult();
+            taskService.addCandidateUser(task.getId(), "archive-candidate");
+            taskService.addCandidateGroup(task.getId(), "archive-group");
+            taskService.complete(task.getId());
+        }
+        return processInstanceId;
+    }
+
+    private String leaveDefinitionId() {
+        return repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave").latestVersion()
+                .singleResult().getId();
+    }
+
+    private int count(String table, String instanceId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE PROC_INST_ID_ = ?",
+                Integer.class, instanceId);
+    }
+
+    /**
+     * 工作流的身份关联加上它的任务的身份关联
+     */
+    private int countLinks(String table, String instanceId) {
+        String taskTable = table.startsWith("ARC_") ? "ARC_HI_TASKINST" : "ACT_HI_TASKINST";
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " L WHERE L.PROC_INST_ID_ = ?"
+                        + " OR L.TASK_ID_ IN (SELECT T.ID_ FROM " + taskTable + " T WHERE T.PROC_INST_ID_ = ?)",
+                Integer.class, instanceId, instanceId);
+    }
+}
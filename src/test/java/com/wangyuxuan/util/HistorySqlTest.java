@@ -0,0 +1,118 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.dao.T_userMapper;
+import com.wangyuxuan.entity.InboxScope;
+import org.activiti.engine.HistoryService;
+import org.activiti.engine.IdentityService;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.history.HistoricTaskInstance;
+import org.activiti.engine.task.Task;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/19 16:40
+ * @Description: {@link HistorySql} 是 T_userMapper.xml 中 selectHistoryInstanceIds 查归档表时的手写副本,
+ * 归档后各查询范围得到的工作流id必须一致
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class HistorySqlTest {
+
+    private static final String USER = "hpin-user";
+    private static final String GROUP = "hpin-group";
+
+    @Autowired
+    private T_userMapper userMapper;
+    @Autowired
+    private HistoryArchiver historyArchiver;
+    @Autowired
+    private HistoryService historyService;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private TaskService taskService;
+    @Autowired
+    private IdentityService identityService;
+
+    @After
+    public void tearDown() {
+        ReflectionTestUtils.setField(historyArchiver, "days", 180);
+    }
+
+    @Test
+    public void matchesMapperOnArchivedTasks() throws InterruptedException {
+        identityService.saveUser(identityService.newUser(USER));
+        identityService.saveGroup(identityService.newGroup(GROUP));
+        identityService.createMembership(USER, GROUP);
+        //候选人完成 候选组(用户所在组)完成
+        finishLeave(null, USER, null, null, null, GROUP);
+        //签收人完成 已签收的候选关联不算
+        finishLeave(USER, USER, GROUP, "hpin-other", null, USER);
+        Thread.sleep(20);
+        ReflectionTestUtils.setField(historyArchiver, "days", 0);
+        historyArchiver.archive();
+
+        for (InboxScope scope : new InboxScope[]{InboxScope.ASSIGNEE, InboxScope.GROUP, InboxScope.USER}) {
+            for (String userId : new String[]{USER, GROUP, "hpin-other"}) {
+                List<String> expected = userMapper.selectHistoryInstanceIds(scope.name(), userId, null, 0, null, true);
+                List<HistoricTaskInstance> tasks = historyService.createNativeHistoricTaskInstanceQuery()
+                        .sql(HistorySql.selectArchivedTasks(scope)).parameter("userId", userId).list();
+                assertEquals(scope + " " + userId, expected, instanceIds(tasks));
+            }
+            //每个范围都有数据 不是空集合之间的比较
+            assertFalse(scope.name(), userMapper.selectHistoryInstanceIds(scope.name(),
+                    scope == InboxScope.GROUP ? GROUP : USER, null, 0, null, true).isEmpty());
+        }
+    }
+
+    /**
+     * 依次完成请假流程的两个任务 参数为每个任务的签收人 候选人 候选组
+     */
+    private void finishLeave(String... participants) {
+        String processDefinitionId = repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave")
+                .latestVersion().singleResult().getId();
+        String processInstanceId = runtimeService.startProcessInstanceById(processDefinitionId).getId();
+        for (int i = 0; i < 2; i++) {
+            Task task = taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult();
+            taskService.setAssignee(task.getId(), participants[i * 3]);
+            if (participants[i * 3 + 1] != null) {
+                taskService.addCandidateUser(task.getId(), participants[i * 3 + 1]);
+            }
+            if (participants[i * 3 + 2] != null) {
+                taskService.addCandidateGroup(task.getId(), participants[i * 3 + 2]);
+            }
+            taskService.complete(task.getId());
+        }
+    }
+
+    private static List<String> instanceIds(List<HistoricTaskInstance> tasks) {
+        Set<String> ids = new TreeSet<String>();
+        for (HistoricTaskInstance task : tasks) {
+            if (task.getProcessInstanceId() != null) {
+                ids.add(task.getProcessInstanceId());
+            }
+        }
+        return new ArrayList<String>(ids);
+    }
+}
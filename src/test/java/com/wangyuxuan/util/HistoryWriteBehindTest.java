@@ -0,0 +1,185 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.HistoricActivityRecord;
+import org.activiti.engine.HistoryService;
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/20 14:10
+ * @Description: 历史延迟写入的日志重放 回滚标记 不完整的行 未提交的工作流
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class HistoryWriteBehindTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private ApplicationContext applicationContext;
+    @Autowired
+    private RepositoryService repositoryService;
+    @Autowired
+    private RuntimeService runtimeService;
+    @Autowired
+    private HistoryService historyService;
+
+    @Test
+    public void replaysOnlyCommittedRecordsOfKnownInstances() throws Exception {
+        ProcessInstance instance = startLeave();
+        File dir = folder.newFolder("journal");
+
+        //上一个进程: 事务提交后还没写库就宕机, 一个事务回滚
+        HistoryWriteBehind crashed = crashed(dir);
+        crashed.reserve(3);
+        crashed.committed(crashed.prepare(Collections.singletonList(record("replay-kept", instance))));
+        HistoryWriteBehind.Pending rolledBack =
+                crashed.prepare(Collections.singletonList(record("replay-rolled-back", instance)));
+        crashed.rolledBack(rolledBack);
+        crashed.committed(crashed.prepare(
+                Collections.singletonList(record("replay-no-instance", "no-such-instance", instance))));
+        //宕机时写了一半的行
+        append(dir, "P\treplay-torn\t[{\"id\":\"replay-torn\"");
+
+        HistoryWriteBehind restarted = writer(dir);
+        restarted.afterPropertiesSet();
+        try {
+            assertNotNull(activity("replay-kept"));
+            assertNull(activity("replay-rolled-back"));
+            assertNull(activity("replay-no-instance"));
+            assertEquals(1, restarted.stats().getReplayedCount());
+            //已写库的日志文件已删除 只剩新进程的当前文件
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            restarted.destroy();
+            crashed.destroy();
+        }
+    }
+
+    @Test
+    public void preparedButNeverCommittedIsNotReplayed() throws Exception {
+        //已存在的工作流上完成任务 写了日志 提交前宕机
+        ProcessInstance instance = startLeave();
+        File dir = folder.newFolder("journal");
+
+        HistoryWriteBehind crashed = crashed(dir);
+        crashed.reserve(1);
+        crashed.prepare(Collections.singletonList(record("replay-uncommitted", instance)));
+
+        HistoryWriteBehind restarted = writer(dir);
+        restarted.afterPropertiesSet();
+        try {
+            assertNull(activity("replay-uncommitted"));
+            assertEquals(0, restarted.stats().getReplayedCount());
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            restarted.destroy();
+            crashed.destroy();
+        }
+    }
+
+    @Test
+    public void replaySkipsRecordsAlreadyWritten() throws Exception {
+        ProcessInstance instance = startLeave();
+        String existingId = historyService.createHistoricActivityInstanceQuery()
+                .processInstanceId(instance.getId()).list().get(0).getId();
+        File dir = folder.newFolder("journal");
+
+        HistoryWriteBehind crashed = crashed(dir);
+        crashed.reserve(1);
+        crashed.committed(crashed.prepare(Collections.singletonList(record(existingId, instance))));
+
+        HistoryWriteBehind restarted = writer(dir);
+        restarted.afterPropertiesSet();
+        try {
+            assertEquals(0, restarted.stats().getReplayedCount());
+        } finally {
+            restarted.destroy();
+            crashed.destroy();
+        }
+    }
+
+    private HistoryWriteBehind writer(File dir) {
+        HistoryWriteBehind writer = new HistoryWriteBehind();
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(writer);
+        ReflectionTestUtils.setField(writer, "enabled", true);
+        ReflectionTestUtils.setField(writer, "journalDir", dir.getPath());
+        return writer;
+    }
+
+    /**
+     * 模拟宕机的进程 后台写库线程已停止, 提交的记录只留在日志中
+     */
+    private HistoryWriteBehind crashed(File dir) throws Exception {
+        HistoryWriteBehind writer = writer(dir);
+        writer.afterPropertiesSet();
+        ReflectionTestUtils.setField(writer, "stopped", true);
+        ((Thread) ReflectionTestUtils.getField(writer, "thread")).join();
+        return writer;
+    }
+
+    private ProcessInstance startLeave() {
+        String processDefinitionId = repositoryService.createProcessDefinitionQuery().processDefinitionKey("leave")
+                .latestVersion().singleResult().getId();
+        return runtimeService.startProcessInstanceById(processDefinitionId);
+    }
+
+    private Object activity(String id) {
+        return historyService.createHistoricActivityInstanceQuery().activityInstanceId(id).singleResult();
+    }
+
+    private static HistoricActivityRecord record(String id, ProcessInstance instance) {
+        return record(id, instance.getId(), instance);
+    }
+
+    private static HistoricActivityRecord record(String id, String processInstanceId, ProcessInstance instance) {
+        HistoricActivityRecord record = new HistoricActivityRecord();
+        record.setId(id);
+        record.setProcessDefinitionId(instance.getProcessDefinitionId());
+        record.setProcessInstanceId(processInstanceId);
+        record.setExecutionId(instance.getId());
+        record.setActivityId("_2");
+        record.setActivityType("startEvent");
+        record.setStartTime(new Date());
+        record.setEndTime(new Date());
+        record.setDurationInMillis(0L);
+        return record;
+    }
+
+    private static void append(File dir, String line) throws IOException {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        OutputStream out = new FileOutputStream(files[files.length - 1], true);
+        try {
+            out.write(line.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.dao.T_userMapper;
+import com.wangyuxuan.entity.InboxScope;
+import com.wangyuxuan.entity.InboxTask;
+import org.activiti.engine.IdentityService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/10 17:20
+ * @Description: {@link InboxSql} 是 T_userMapper.xml 中 scopeCondition 的手写副本, 各查询范围在同一批数据上结果必须一致
+ * 覆盖 assignee 候选人 候选组 用户所在组 组id与用户id相同 已签收的候选任务
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:spring-mybatis.xml")
+@ActiveProfiles("embedded")
+public class InboxSqlTest {
+
+    private static final String USER = "pin-user";
+    private static final String GROUP = "pin-group";
+
+    @Autowired
+    private T_userMapper userMapper;
+    @Autowired
+    private TaskService taskService;
+    @Autowired
+    private IdentityService identityService;
+
+    @Before
+    public void setUp() {
+        if (identityService.createUserQuery().userId(USER).count() > 0) {
+            return;
+        }
+        identityService.saveUser(identityService.newUser(USER));
+        identityService.saveGroup(identityService.newGroup(GROUP));
+        identityService.createMembership(USER, GROUP);
+
+        newTask(USER, null, null);
+        newTask(null, USER, null);
+        newTask(null, null, GROUP);
+        newTask(null, null, USER);
+        //已签收 候选关联不再生效
+        newTask("pin-other", USER, GROUP);
+        newTask(null, "pin-other", "pin-other-group");
+    }
+
+    @Test
+    public void matchesMapperForEveryScope() {
+        for (InboxScope scope : InboxScope.values()) {
+            for (String userId : new String[]{USER, GROUP, "pin-other"}) {
+                List<String> expected = ids(userMapper.selectInboxTasksPage(scope.name(), userId, null, null, 0, 10000));
+                List<Task> tasks = taskService.createNativeTaskQuery().sql(InboxSql.selectTasks(scope, false))
+                        .parameter("userId", userId).list();
+                assertEquals(scope + " " + userId, expected, taskIds(tasks));
+            }
+            //每个范围都有数据 不是空集合之间的比较
+            assertFalse(scope.name(), userMapper.selectInboxTasksPage(scope.name(), USER, null, null, 0, 10000)
+                    .isEmpty());
+        }
+    }
+
+    @Test
+    public void cursorMatchesMapper() {
+        for (InboxScope scope : InboxScope.values()) {
+            List<InboxTask> all = userMapper.selectInboxTasksPage(scope.name(), USER, null, null, 0, 10000);
+            if (all.isEmpty()) {
+                continue;
+            }
+            InboxTask first = all.get(0);
+            List<String> expected = ids(userMapper.selectInboxTasksPage(scope.name(), USER, first.getCreateTime(),
+                    first.getId(), 0, 10000));
+            List<Task> tasks = taskService.createNativeTaskQuery().sql(InboxSql.selectTasks(scope, true))
+                    .parameter("userId", USER).parameter("afterTime", first.getCreateTime())
+                    .parameter("afterId", first.getId()).list();
+            assertEquals(scope.name(), expected, taskIds(tasks));
+        }
+    }
+
+    private void newTask(String assignee, String candidateUser, String candidateGroup) {
+        Task task = taskService.newTask();
+        task.setName("pin");
+        task.setAssignee(assignee);
+        taskService.saveTask(task);
+        if (candidateUser != null) {
+            taskService.addCandidateUser(task.getId(), candidateUser);
+        }
+        if (candidateGroup != null) {
+            taskService.addCandidateGroup(task.getId(), candidateGroup);
+        }
+    }
+
+    private static List<String> ids(List<InboxTask> tasks) {
+        List<String> ids = new ArrayList<String>();
+        for (InboxTask task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> taskIds(List<Task> tasks) {
+        List<String> ids = new ArrayList<String>();
+        for (Task task : tasks) {
+            ids.add(task.getId());
+        }
+        return ids;
+    }
+}
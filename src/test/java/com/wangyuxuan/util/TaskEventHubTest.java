@@ -0,0 +1,129 @@
+package com.wangyuxuan.util;
+
+import com.wangyuxuan.entity.TaskEvent;
+import com.wangyuxuan.entity.TaskEventBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @Auther: wangyuxuan
+ * @Date: 2018/12/17 16:30
+ * @Description: 任务变化长轮询通道 按任务合并 队列溢出要求重新拉取 新请求替换挂起的请求 推送给新旧参与人
+ */
+public class TaskEventHubTest {
+
+    private static final List<String> NO_GROUPS = Collections.emptyList();
+    private static final long TIMEOUT = 30000L;
+
+    private TaskEventHub hub;
+
+    @Before
+    public void setUp() {
+        hub = new TaskEventHub();
+        ReflectionTestUtils.setField(hub, "queueCapacity", 100);
+        ReflectionTestUtils.setField(hub, "maxSubscribers", 100);
+        ReflectionTestUtils.setField(hub, "idleSeconds", 120);
+    }
+
+    @Test
+    public void eventsOfOneTaskAreMerged() {
+        subscribe("u1");
+        hub.publish(Collections.singletonList("u1"), event(TaskEvent.CREATED, "t1", null));
+        hub.publish(Collections.singletonList("u1"), event(TaskEvent.CREATED, "t2", null));
+        hub.publish(Collections.singletonList("u1"), event(TaskEvent.ASSIGNED, "t1", "u1"));
+
+        TaskEventBatch batch = poll("u1");
+        assertEquals(2, batch.getEvents().size());
+        assertEquals("t2", batch.getEvents().get(0).getTaskId());
+        assertEquals(TaskEvent.ASSIGNED, batch.getEvents().get(1).getType());
+        assertFalse(batch.isResync());
+    }
+
+    @Test
+    public void overflowAsksForResync() {
+        ReflectionTestUtils.setField(hub, "queueCapacity", 2);
+        subscribe("u1");
+        for (String taskId : Arrays.asList("t1", "t2", "t3")) {
+            hub.publish(Collections.singletonList("u1"), event(TaskEvent.CREATED, taskId, null));
+        }
+
+        TaskEventBatch batch = poll("u1");
+        assertTrue(batch.isResync());
+        assertEquals(2, batch.getEvents().size());
+        assertEquals("t2", batch.getEvents().get(0).getTaskId());
+        //取走后恢复
+        DeferredResult<TaskEventBatch> next = hub.poll("u1", NO_GROUPS, TIMEOUT);
+        assertFalse(next.hasResult());
+    }
+
+    @Test
+    public void secondPollReplacesWaitingOne() {
+        DeferredResult<TaskEventBatch> first = hub.poll("u1", NO_GROUPS, TIMEOUT);
+        assertFalse(first.hasResult());
+        DeferredResult<TaskEventBatch> second = hub.poll("u1", NO_GROUPS, TIMEOUT);
+
+        assertTrue(first.hasResult());
+        assertTrue(((TaskEventBatch) first.getResult()).getEvents().isEmpty());
+        assertFalse(second.hasResult());
+
+        hub.publish(Collections.singletonList("u1"), event(TaskEvent.CREATED, "t1", null));
+        assertTrue(second.hasResult());
+        assertEquals(1, ((TaskEventBatch) second.getResult()).getEvents().size());
+    }
+
+    @Test
+    public void groupMembersReceiveGroupEvents() {
+        DeferredResult<TaskEventBatch> result = hub.poll("u1", Collections.singletonList("g1"), TIMEOUT);
+        hub.publish(Collections.singletonList("g2"), event(TaskEvent.CANDIDATES, "t1", null));
+        assertFalse(result.hasResult());
+        hub.publish(Collections.singletonList("g1"), event(TaskEvent.CANDIDATES, "t1", null));
+        assertTrue(result.hasResult());
+        assertEquals(1, ((TaskEventBatch) result.getResult()).getEvents().size());
+    }
+
+    @Test
+    public void previousParticipantsReceiveLaterChanges() {
+        subscribe("u1");
+        subscribe("u2");
+        hub.publishTask(Collections.singletonList("u1"), event(TaskEvent.ASSIGNED, "t1", "u1"), false);
+        //改派给 u2 原签收人 u1 也收到
+        hub.publishTask(Collections.singletonList("u2"), event(TaskEvent.ASSIGNED, "t1", "u2"), false);
+        assertEquals("u2", poll("u1").getEvents().get(0).getAssignee());
+        assertEquals("u2", poll("u2").getEvents().get(0).getAssignee());
+
+        //完成后不再记录
+        hub.publishTask(Collections.<String>emptyList(), event(TaskEvent.COMPLETED, "t1", "u2"), true);
+        assertEquals(TaskEvent.COMPLETED, poll("u1").getEvents().get(0).getType());
+        hub.publishTask(Collections.<String>emptyList(), event(TaskEvent.CREATED, "t1", null), false);
+        assertFalse(hub.poll("u1", NO_GROUPS, TIMEOUT).hasResult());
+    }
+
+    /**
+     * 订阅后用一个变化结束挂起的请求 之后的变化在队列中等待下一次轮询
+     */
+    private void subscribe(String userId) {
+        DeferredResult<TaskEventBatch> result = hub.poll(userId, NO_GROUPS, TIMEOUT);
+        hub.publish(Collections.singletonList(userId), event(TaskEvent.CREATED, "warm-up", null));
+        assertTrue(result.hasResult());
+    }
+
+    private TaskEventBatch poll(String userId) {
+        DeferredResult<TaskEventBatch> result = hub.poll(userId, NO_GROUPS, TIMEOUT);
+        assertTrue(result.hasResult());
+        return (TaskEventBatch) result.getResult();
+    }
+
+    private static TaskEvent event(String type, String taskId, String assignee) {
+        return new TaskEvent(type, taskId, "task", assignee, "pi", System.currentTimeMillis());
+    }
+}